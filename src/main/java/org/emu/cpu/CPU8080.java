@@ -5,25 +5,58 @@ import org.emu.mem.Memory;
 import java.util.Arrays;
 
 public class CPU8080 {
-    // 8-битные регистры
-    private int A, B, C, D, E, H, L;
-    // 16-битные регистры
-    private int PC;
-    private int SP;
-
-    private boolean signFlag;     // S
-    private boolean zeroFlag;     // Z
-    private boolean auxCarryFlag; // AC (Auxiliary carry)
-    private boolean parityFlag;   // P
-    private boolean carryFlag;    // CY
+    // Регистры, флаги и вспомогательные операции доступны в пакете для кода,
+    // сгенерированного Recompiler
+    // Аккумулятор и флаги в формате PSW (S Z 0 AC 0 P 1 CY, бит 1 не хранится)
+    int A;
+    int F;
+    // Регистровые пары храним целыми 16-битными словами
+    int BC, DE, HL;
+    int PC;
+    int SP;
+
+    static final int FLAG_S  = 0x80;
+    static final int FLAG_Z  = 0x40;
+    static final int FLAG_AC = 0x10;
+    static final int FLAG_P  = 0x04;
+    static final int FLAG_CY = 0x01;
+    static final int FLAG_MASK = FLAG_S | FLAG_Z | FLAG_AC | FLAG_P | FLAG_CY;
+
+    // S, Z, P по значению байта
+    private static final int[] SZP = new int[256];
+    // S, Z, P и CY по 9-битному результату сложения/вычитания
+    private static final int[] SZPC = new int[512];
+    // Флаги INR/DCR по результату: AC при переносе/заёме из младшей тетрады
+    private static final int[] INR_FLAGS = new int[256];
+    private static final int[] DCR_FLAGS = new int[256];
+    // Маска флага для кодов условий NZ/Z, NC/C, PO/PE, P/M
+    static final int[] CONDITION_FLAG = {FLAG_Z, FLAG_Z, FLAG_CY, FLAG_CY, FLAG_P, FLAG_P, FLAG_S, FLAG_S};
+    static {
+        for (int v = 0; v < 256; v++) {
+            int flags = v & FLAG_S;
+            if (v == 0) flags |= FLAG_Z;
+            if (Integer.bitCount(v) % 2 == 0) flags |= FLAG_P;
+            SZP[v] = flags;
+            SZPC[v] = flags;
+            SZPC[v | 0x100] = flags | FLAG_CY;
+            INR_FLAGS[v] = (v & 0x0F) == 0 ? flags | FLAG_AC : flags;
+            DCR_FLAGS[v] = (v & 0x0F) == 0x0F ? flags | FLAG_AC : flags;
+        }
+    }
     // Флаг остановки CPU (HLT)
-    private boolean halted;
+    boolean halted;
     // Флаг разрешения прерываний
-    private boolean interruptsEnabled;
+    boolean interruptsEnabled;
     // Интерфейс для работы с портами ввода-вывода
     private IOHandler ioHandler;
     // Ссылка на память
-    private Memory memory;
+    final Memory memory;
+    // Суперинструкции для ROM (null - только обычный интерпретатор)
+    private FusionTable fusion;
+    // Код ROM, переведённый в Java при сборке (null - только интерпретатор)
+    private CompiledRom compiled;
+    // Такты, пропущенные в циклах ожидания и в HLT
+    private long idleCycles;
 
     private static final int[] CYCLES = new int[256];
     static {
@@ -184,15 +217,82 @@ public class CPU8080 {
         this.ioHandler = handler;
     }
 
+    // Адрес следующей команды
+    public int getPC() {
+        return PC;
+    }
+
+    public void setFusionTable(FusionTable fusion) {
+        this.fusion = fusion;
+    }
+
+    public void setCompiledRom(CompiledRom compiled) {
+        this.compiled = compiled;
+    }
+
+    static int cyclesOf(int opcode) {
+        return CYCLES[opcode & 0xFF];
+    }
+
     public void reset() {
-        A = B = C = D = E = H = L = 0;
+        A = F = 0;
+        BC = DE = HL = 0;
         PC = 0;
         SP = 0;
-        signFlag = zeroFlag = parityFlag = carryFlag = auxCarryFlag = false;
         halted = false;
         interruptsEnabled = true;
     }
 
+    // Состояние CPU в виде массива int: A, B, C, D, E, H, L, PC, SP, флаги (PSW), HLT, INTE
+    public static final int STATE_SIZE = 12;
+
+    public void saveState(int[] dst) {
+        dst[0] = A;
+        dst[1] = BC >> 8;
+        dst[2] = BC & 0xFF;
+        dst[3] = DE >> 8;
+        dst[4] = DE & 0xFF;
+        dst[5] = HL >> 8;
+        dst[6] = HL & 0xFF;
+        dst[7] = PC;
+        dst[8] = SP;
+        dst[9] = getFlags();
+        dst[10] = halted ? 1 : 0;
+        dst[11] = interruptsEnabled ? 1 : 0;
+    }
+
+    public void loadState(int[] src) {
+        A = src[0];
+        BC = (src[1] << 8) | src[2];
+        DE = (src[3] << 8) | src[4];
+        HL = (src[5] << 8) | src[6];
+        PC = src[7];
+        SP = src[8];
+        setFlags(src[9]);
+        halted = src[10] != 0;
+        interruptsEnabled = src[11] != 0;
+    }
+
+    public int getA() { return A; }
+    public int getB() { return BC >> 8; }
+    public int getC() { return BC & 0xFF; }
+    public int getD() { return DE >> 8; }
+    public int getE() { return DE & 0xFF; }
+    public int getH() { return HL >> 8; }
+    public int getL() { return HL & 0xFF; }
+    public int getSP() { return SP; }
+    public boolean isHalted() { return halted; }
+    public boolean isInterruptsEnabled() { return interruptsEnabled; }
+
+    // Байт флагов в формате PUSH PSW: S Z 0 AC 0 P 1 CY
+    public int getFlags() {
+        return F | 0x02;
+    }
+
+    private void setFlags(int flags) {
+        F = flags & FLAG_MASK;
+    }
+
     public void enableInterrupts() {
         interruptsEnabled = true;
     }
@@ -200,6 +300,156 @@ public class CPU8080 {
         interruptsEnabled = false;
     }
 
+    // Выполняет команды, пока не набрано budget тактов; возвращает число тактов.
+    // Результат тот же, что у цикла executeInstruction(): суперинструкция
+    // выполняется, только если все её команды, кроме последней, начнутся до
+    // исчерпания бюджета, поэтому граница прерывания не сдвигается.
+    // Циклы ожидания и HLT проматываются сразу до конца бюджета, то есть до
+    // следующего прерывания: видимое состояние при этом то же самое.
+    // Переведённый в Java блок ROM подчиняется тому же правилу, что и
+    // суперинструкция; без блока для PC работает интерпретатор.
+    public int run(int budget) {
+        int cycles = 0;
+        FusionTable f = fusion;
+        CompiledRom code = compiled;
+        while (cycles < budget) {
+            if (halted) {
+                idleCycles += budget - cycles;
+                return budget;
+            }
+            int pc = PC;
+            int kind = f != null && pc < f.limit ? f.kind[pc] : FusionTable.NONE;
+            if (kind == FusionTable.IDLE_LOOP && cycles + f.prefix[pc] < budget) {
+                cycles = runIdleLoop(pc, cycles, budget, f.count[pc], f.total[pc]);
+                continue;
+            }
+            if (code != null && pc < code.limit) {
+                int blockCycles = code.execute(this, pc, budget - cycles);
+                if (blockCycles >= 0) {
+                    cycles += blockCycles;
+                    continue;
+                }
+            }
+            if (kind != FusionTable.NONE && kind != FusionTable.IDLE_LOOP && cycles + f.prefix[pc] < budget) {
+                executeFused(kind);
+                cycles += f.total[pc];
+                continue;
+            }
+            cycles += executeInstruction();
+        }
+        return cycles;
+    }
+
+    // Первая итерация выполняется обычным образом. Если цикл вернулся к началу,
+    // каждая следующая итерация до прерывания повторит то же состояние, и
+    // целые итерации, которые успели бы начаться до конца бюджета, пропускаются.
+    private int runIdleLoop(int pc, int cycles, int budget, int count, int length) {
+        for (int i = 0; i < count; i++) {
+            cycles += executeInstruction();
+        }
+        if (PC == pc && cycles < budget) {
+            int skip = (budget - cycles - 1) / length;
+            cycles += skip * length;
+            idleCycles += (long) skip * length;
+        }
+        return cycles;
+    }
+
+    public long getIdleCycles() {
+        return idleCycles;
+    }
+
+    private void executeFused(int kind) {
+        int op0 = memory.readByte(PC);
+        switch (kind) {
+            case FusionTable.COPY_LOOP:
+            {
+                // LDAX D; MOV M,A; INX H; INX D; DCR B; JNZ addr
+                A = memory.readByte(DE);
+                memory.writeByte(HL, A);
+                HL = (HL + 1) & 0xFFFF;
+                DE = (DE + 1) & 0xFFFF;
+                BC = (decrementByte(BC >> 8) << 8) | (BC & 0xFF);
+                PC = (F & FLAG_Z) != 0 ? (PC + 8) & 0xFFFF : readWord(PC + 6);
+                break;
+            }
+            case FusionTable.SHIFT_STORE:
+            case FusionTable.OUT_IN:
+            {
+                // OUT p; IN q [; MOV M,A]
+                portOut(memory.readByte(PC + 1));
+                A = portIn(memory.readByte(PC + 3));
+                if (kind == FusionTable.SHIFT_STORE) {
+                    memory.writeByte(HL, A);
+                    PC = (PC + 5) & 0xFFFF;
+                } else {
+                    PC = (PC + 4) & 0xFFFF;
+                }
+                break;
+            }
+            case FusionTable.INX_DCR_JNZ:
+            {
+                incrementPair((op0 >> 4) & 0x3);
+                int r = (memory.readByte(PC + 1) >> 3) & 0x7;
+                setRegister(r, decrementByte(getRegister(r)));
+                PC = (F & FLAG_Z) != 0 ? (PC + 5) & 0xFFFF : readWord(PC + 3);
+                break;
+            }
+            case FusionTable.DCR_JNZ:
+            {
+                int r = (op0 >> 3) & 0x7;
+                setRegister(r, decrementByte(getRegister(r)));
+                PC = (F & FLAG_Z) != 0 ? (PC + 4) & 0xFFFF : readWord(PC + 2);
+                break;
+            }
+            case FusionTable.TEST_M_JCC:
+            {
+                // MOV A,M; ANA A; Jcc addr
+                A = memory.readByte(HL);
+                ana(A);
+                int cond = (memory.readByte(PC + 2) >> 3) & 0x7;
+                PC = checkCondition(cond) ? readWord(PC + 3) : (PC + 5) & 0xFFFF;
+                break;
+            }
+            case FusionTable.LXI_H_MVI_M:
+                HL = readWord(PC + 1);
+                memory.writeByte(HL, memory.readByte(PC + 4));
+                PC = (PC + 5) & 0xFFFF;
+                break;
+            case FusionTable.LXI_H_MOV_M:
+                HL = readWord(PC + 1);
+                memory.writeByte(HL, getRegister(memory.readByte(PC + 3) & 0x7));
+                PC = (PC + 4) & 0xFFFF;
+                break;
+            case FusionTable.LDAX_MOV_M:
+                A = memory.readByte(op0 == 0x1A ? DE : BC);
+                memory.writeByte(HL, A);
+                PC = (PC + 2) & 0xFFFF;
+                break;
+        }
+    }
+
+    int readWord(int address) {
+        return memory.readByte(address) | (memory.readByte(address + 1) << 8);
+    }
+
+    private void incrementPair(int rp) {
+        switch (rp) {
+            case 0:
+                BC = (BC + 1) & 0xFFFF;
+                break;
+            case 1:
+                DE = (DE + 1) & 0xFFFF;
+                break;
+            case 2:
+                HL = (HL + 1) & 0xFFFF;
+                break;
+            default:
+                SP = (SP + 1) & 0xFFFF;
+                break;
+        }
+    }
+
     public int executeInstruction() {
         if (halted) {
             return 0;
@@ -212,176 +462,138 @@ public class CPU8080 {
             case 0x00:  /* NOP */
                 break;
             case 0x01:  /* LXI B, d16 */
-                C = memory.readByte(PC) & 0xFF;
-                B = memory.readByte(PC + 1) & 0xFF;
+                BC = readWord(PC);
                 PC += 2;
                 break;
             case 0x02:  /* STAX B (Store A into [BC]) */
-                memory.writeByte((B << 8) | C, A);
+                memory.writeByte(BC, A);
                 break;
             case 0x03:  /* INX B (BC = BC + 1) */
-                int bc = ((B << 8) | C) + 1;
-                bc &= 0xFFFF;
-                B = (bc >> 8) & 0xFF;
-                C = bc & 0xFF;
+                BC = (BC + 1) & 0xFFFF;
                 break;
             case 0x04:  /* INR B (B = B+1) */
-                B = incrementByte(B);
+                BC = (incrementByte(BC >> 8) << 8) | (BC & 0xFF);
                 break;
             case 0x05:  /* DCR B (B = B-1) */
-                B = decrementByte(B);
+                BC = (decrementByte(BC >> 8) << 8) | (BC & 0xFF);
                 break;
             case 0x06:  /* MVI B, d8 */
-                B = memory.readByte(PC) & 0xFF;
+                BC = (memory.readByte(PC) << 8) | (BC & 0xFF);
                 PC += 1;
                 break;
             case 0x07:  /* RLC (Rotate A left) */
                 // Циклический сдвиг A влево: бит7 -> Carry
-                carryFlag = ((A & 0x80) != 0);
-                A = ((A << 1) & 0xFF) | (carryFlag ? 1 : 0);
+                F = (F & ~FLAG_CY) | (A >> 7);
+                A = ((A << 1) & 0xFF) | (A >> 7);
                 break;
             case 0x08:
                 break;
             case 0x09:  /* DAD B (HL = HL + BC) */
-            {
-                int hl = getHL();
-                int bcVal = (B << 8) | C;
-                int result = hl + bcVal;
-                carryFlag = (result & 0x10000) != 0;
-                setHL(result & 0xFFFF);
+                dad(BC);
                 break;
-            }
             case 0x0A:  /* LDAX B (A = [BC]) */
-                A = memory.readByte((B << 8) | C) & 0xFF;
+                A = memory.readByte(BC) & 0xFF;
                 break;
             case 0x0B:  /* DCX B (BC = BC - 1) */
-            {
-                int bcVal = ((B << 8) | C) - 1;
-                bcVal &= 0xFFFF;
-                B = (bcVal >> 8) & 0xFF;
-                C = bcVal & 0xFF;
+                BC = (BC - 1) & 0xFFFF;
                 break;
-            }
             case 0x0C:  /* INR C */
-                C = incrementByte(C);
+                BC = (BC & 0xFF00) | incrementByte(BC & 0xFF);
                 break;
             case 0x0D:  /* DCR C */
-                C = decrementByte(C);
+                BC = (BC & 0xFF00) | decrementByte(BC & 0xFF);
                 break;
             case 0x0E:  /* MVI C, d8 */
-                C = memory.readByte(PC) & 0xFF;
+                BC = (BC & 0xFF00) | memory.readByte(PC);
                 PC += 1;
                 break;
             case 0x0F:  /* RRC (Rotate A right) */
                 // Циклический сдвиг A вправо: бит0 -> Carry
-                carryFlag = ((A & 0x01) != 0);
-                A = ((carryFlag ? 0x80 : 0x00) | (A >> 1)) & 0xFF;
+                F = (F & ~FLAG_CY) | (A & 0x01);
+                A = ((A << 7) & 0x80) | (A >> 1);
                 break;
             case 0x10:  /* NOP (не используется) */
                 break;
             case 0x11:  /* LXI D, d16 */
-                E = memory.readByte(PC) & 0xFF;
-                D = memory.readByte(PC + 1) & 0xFF;
+                DE = readWord(PC);
                 PC += 2;
                 break;
             case 0x12:  /* STAX D (Store A into [DE]) */
-                memory.writeByte((D << 8) | E, A);
+                memory.writeByte(DE, A);
                 break;
             case 0x13:  /* INX D (DE = DE + 1) */
-            {
-                int de = ((D << 8) | E) + 1;
-                de &= 0xFFFF;
-                D = (de >> 8) & 0xFF;
-                E = de & 0xFF;
+                DE = (DE + 1) & 0xFFFF;
                 break;
-            }
             case 0x14:  /* INR D */
-                D = incrementByte(D);
+                DE = (incrementByte(DE >> 8) << 8) | (DE & 0xFF);
                 break;
             case 0x15:  /* DCR D */
-                D = decrementByte(D);
+                DE = (decrementByte(DE >> 8) << 8) | (DE & 0xFF);
                 break;
             case 0x16:  /* MVI D, d8 */
-                D = memory.readByte(PC) & 0xFF;
+                DE = (memory.readByte(PC) << 8) | (DE & 0xFF);
                 PC += 1;
                 break;
             case 0x17:  /* RAL (Rotate A left through carry) */
             {
-                boolean newCarry = (A & 0x80) != 0;
-                A = ((A << 1) & 0xFF) | (carryFlag ? 1 : 0);
-                carryFlag = newCarry;
+                int carry = A >> 7;
+                A = ((A << 1) & 0xFF) | (F & FLAG_CY);
+                F = (F & ~FLAG_CY) | carry;
                 break;
             }
             case 0x18:  /* NOP (не используется) */
                 break;
             case 0x19:  /* DAD D (HL = HL + DE) */
-            {
-                int hl = getHL();
-                int de = (D << 8) | E;
-                int result = hl + de;
-                carryFlag = (result & 0x10000) != 0;
-                setHL(result & 0xFFFF);
+                dad(DE);
                 break;
-            }
             case 0x1A:  /* LDAX D (A = [DE]) */
-                A = memory.readByte((D << 8) | E) & 0xFF;
+                A = memory.readByte(DE) & 0xFF;
                 break;
             case 0x1B:  /* DCX D (DE = DE - 1) */
-            {
-                int de = ((D << 8) | E) - 1;
-                de &= 0xFFFF;
-                D = (de >> 8) & 0xFF;
-                E = de & 0xFF;
+                DE = (DE - 1) & 0xFFFF;
                 break;
-            }
             case 0x1C:  /* INR E */
-                E = incrementByte(E);
+                DE = (DE & 0xFF00) | incrementByte(DE & 0xFF);
                 break;
             case 0x1D:  /* DCR E */
-                E = decrementByte(E);
+                DE = (DE & 0xFF00) | decrementByte(DE & 0xFF);
                 break;
             case 0x1E:  /* MVI E, d8 */
-                E = memory.readByte(PC) & 0xFF;
+                DE = (DE & 0xFF00) | memory.readByte(PC);
                 PC += 1;
                 break;
             case 0x1F:
             {
-                boolean newCarry = (A & 0x01) != 0;
-                A = (carryFlag ? 0x80 : 0x00) | ((A >> 1) & 0x7F);
-                carryFlag = newCarry;
+                int carry = A & 0x01;
+                A = ((F & FLAG_CY) << 7) | (A >> 1);
+                F = (F & ~FLAG_CY) | carry;
                 break;
             }
             case 0x20:
                 break;
             case 0x21:  /* LXI H, d16 */
-                L = memory.readByte(PC) & 0xFF;
-                H = memory.readByte(PC + 1) & 0xFF;
+                HL = readWord(PC);
                 PC += 2;
                 break;
             case 0x22:  /* SHLD addr */
             {
-                int addr = memory.readByte(PC) & 0xFF;
-                addr |= (memory.readByte(PC + 1) & 0xFF) << 8;
+                int addr = readWord(PC);
                 PC += 2;
-                memory.writeByte(addr, L);
-                memory.writeByte(addr + 1, H);
+                memory.writeByte(addr, HL & 0xFF);
+                memory.writeByte(addr + 1, HL >> 8);
                 break;
             }
             case 0x23:  /* INX H (HL = HL + 1) */
-            {
-                int hl = getHL() + 1;
-                hl &= 0xFFFF;
-                setHL(hl);
+                HL = (HL + 1) & 0xFFFF;
                 break;
-            }
             case 0x24:  /* INR H */
-                H = incrementByte(H);
+                HL = (incrementByte(HL >> 8) << 8) | (HL & 0xFF);
                 break;
             case 0x25:  /* DCR H */
-                H = decrementByte(H);
+                HL = (decrementByte(HL >> 8) << 8) | (HL & 0xFF);
                 break;
             case 0x26:  /* MVI H, d8 */
-                H = memory.readByte(PC) & 0xFF;
+                HL = (memory.readByte(PC) << 8) | (HL & 0xFF);
                 PC += 1;
                 break;
             case 0x27:  /* DAA (Decimal Adjust Accumulator) */
@@ -390,37 +602,26 @@ public class CPU8080 {
             case 0x28:  /* NOP (не используется) */
                 break;
             case 0x29:  /* DAD H (HL = HL + HL) */
-            {
-                int hl = getHL();
-                int result = hl + getHL();
-                carryFlag = (result & 0x10000) != 0;
-                setHL(result & 0xFFFF);
+                dad(HL);
                 break;
-            }
             case 0x2A:  /* LHLD addr (Load HL direct) */
             {
-                int addr = memory.readByte(PC) & 0xFF;
-                addr |= (memory.readByte(PC + 1) & 0xFF) << 8;
+                int addr = readWord(PC);
                 PC += 2;
-                L = memory.readByte(addr) & 0xFF;
-                H = memory.readByte(addr + 1) & 0xFF;
+                HL = readWord(addr);
                 break;
             }
             case 0x2B:  /* DCX H (HL = HL - 1) */
-            {
-                int hl = getHL() - 1;
-                hl &= 0xFFFF;
-                setHL(hl);
+                HL = (HL - 1) & 0xFFFF;
                 break;
-            }
             case 0x2C:  /* INR L */
-                L = incrementByte(L);
+                HL = (HL & 0xFF00) | incrementByte(HL & 0xFF);
                 break;
             case 0x2D:  /* DCR L */
-                L = decrementByte(L);
+                HL = (HL & 0xFF00) | decrementByte(HL & 0xFF);
                 break;
             case 0x2E:  /* MVI L, d8 */
-                L = memory.readByte(PC) & 0xFF;
+                HL = (HL & 0xFF00) | memory.readByte(PC);
                 PC += 1;
                 break;
             case 0x2F:  /* CMA */
@@ -445,7 +646,7 @@ public class CPU8080 {
                 break;
             case 0x34:  /* INR M ([HL] = [HL] + 1) */
             {
-                int addr = getHL();
+                int addr = HL;
                 int value = memory.readByte(addr) & 0xFF;
                 value = incrementByte(value);
                 memory.writeByte(addr, value);
@@ -453,7 +654,7 @@ public class CPU8080 {
             }
             case 0x35:  /* DCR M ([HL] = [HL] - 1) */
             {
-                int addr = getHL();
+                int addr = HL;
                 int value = memory.readByte(addr) & 0xFF;
                 value = decrementByte(value);
                 memory.writeByte(addr, value);
@@ -461,25 +662,20 @@ public class CPU8080 {
             }
             case 0x36:  /* MVI M */
             {
-                int addr = getHL();
+                int addr = HL;
                 int byteVal = memory.readByte(PC) & 0xFF;
                 PC += 1;
                 memory.writeByte(addr, byteVal);
                 break;
             }
             case 0x37:  /* STC (Set Carry) */
-                carryFlag = true;
+                F |= FLAG_CY;
                 break;
             case 0x38:
                 break;
             case 0x39:  /* DAD SP (HL = HL + SP) */
-            {
-                int hl = getHL();
-                int result = hl + SP;
-                carryFlag = (result & 0x10000) != 0;
-                setHL(result & 0xFFFF);
+                dad(SP);
                 break;
-            }
             case 0x3A:  /* LDA addr */
             {
                 int addr = memory.readByte(PC) & 0xFF;
@@ -502,7 +698,7 @@ public class CPU8080 {
                 PC += 1;
                 break;
             case 0x3F:  /* CMC (Complement Carry) */
-                carryFlag = !carryFlag;
+                F ^= FLAG_CY;
                 break;
             // 0x40-0x75: MOV r1, r2
             case 0x40: case 0x41: case 0x42: case 0x43: case 0x44: case 0x45: case 0x46: case 0x47:
@@ -518,13 +714,13 @@ public class CPU8080 {
                 int value;
                 if (src == 6) {
                     // источник - память [HL]
-                    value = memory.readByte(getHL()) & 0xFF;
+                    value = memory.readByte(HL) & 0xFF;
                 } else {
                     value = getRegister(src);
                 }
                 if (dest == 6) {
                     // назначение - память [HL]
-                    memory.writeByte(getHL(), value);
+                    memory.writeByte(HL, value);
                 } else {
                     setRegister(dest, value);
                 }
@@ -534,13 +730,13 @@ public class CPU8080 {
                 halted = true;
                 break;
             case 0x77:  /* MOV M, A */
-                memory.writeByte(getHL(), A);
+                memory.writeByte(HL, A);
                 break;
             case 0x78: case 0x79: case 0x7A: case 0x7B: case 0x7C: case 0x7D: case 0x7E: case 0x7F:
             {
                 // MOV A, r (0x78-0x7F)
                 int src = opcode & 0x7;
-                int val = (src == 6) ? memory.readByte(getHL()) & 0xFF : getRegister(src);
+                int val = (src == 6) ? memory.readByte(HL) & 0xFF : getRegister(src);
                 A = val;
                 break;
             }
@@ -556,7 +752,7 @@ public class CPU8080 {
             {
                 int operation = (opcode >> 3) & 0x7;  // (0=ADD,1=ADC,...6=ORA,7=CMP)
                 int regCode = opcode & 0x7;
-                int operand = (regCode == 6) ? memory.readByte(getHL()) & 0xFF : getRegister(regCode);
+                int operand = (regCode == 6) ? memory.readByte(HL) & 0xFF : getRegister(regCode);
                 switch (operation) {
                     case 0: add(operand); break;      // ADD
                     case 1: adc(operand); break;      // ADC
@@ -624,7 +820,7 @@ public class CPU8080 {
                 break;
             }
             case 0xE9:  /* PCHL (PC = HL) */
-                PC = getHL();
+                PC = HL;
                 break;
             case 0xCD:  /* CALL addr */
             {
@@ -667,110 +863,75 @@ public class CPU8080 {
             }
             case 0xC1:  /* POP B (C <- [SP]; B <- [SP+1]) */
             {
-                int value = popWord();
-                B = (value >> 8) & 0xFF;
-                C = value & 0xFF;
+                BC = popWord();
                 break;
             }
             case 0xC5:  /* PUSH B */
             {
-                int value = (B << 8) | C;
-                pushWord(value);
+                pushWord(BC);
                 break;
             }
             case 0xD1:  /* POP D */
             {
-                int value = popWord();
-                D = (value >> 8) & 0xFF;
-                E = value & 0xFF;
+                DE = popWord();
                 break;
             }
             case 0xD5:  /* PUSH D */
             {
-                int value = (D << 8) | E;
-                pushWord(value);
+                pushWord(DE);
                 break;
             }
             case 0xE1:  /* POP H */
             {
-                int value = popWord();
-                H = (value >> 8) & 0xFF;
-                L = value & 0xFF;
+                HL = popWord();
                 break;
             }
             case 0xE5:  /* PUSH H */
             {
-                int value = (H << 8) | L;
-                pushWord(value);
+                pushWord(HL);
                 break;
             }
             case 0xF1:  /* POP PSW (Flags:A from stack) */
             {
                 int value = popWord();
-                A = (value >> 8) & 0xFF;
-                int flags = value & 0xFF;
-                carryFlag    = (flags & 0x01) != 0;
-                parityFlag   = (flags & 0x04) != 0;
-                auxCarryFlag = (flags & 0x10) != 0;
-                zeroFlag     = (flags & 0x40) != 0;
-                signFlag     = (flags & 0x80) != 0;
+                A = value >> 8;
+                F = value & FLAG_MASK;
                 break;
             }
             case 0xF5:  /* PUSH PSW */
             {
-                int flags =
-                        (carryFlag ? 0x01 : 0) |
-                                0x02 |
-                                (parityFlag ? 0x04 : 0) |
-                                (auxCarryFlag ? 0x10 : 0) |
-                                (zeroFlag ? 0x40 : 0) |
-                                (signFlag ? 0x80 : 0);
-                int value = (A << 8) | (flags & 0xFF);
-                pushWord(value);
+                pushWord((A << 8) | F | 0x02);
                 break;
             }
             case 0xE3:  /* XTHL */
             {
                 // L <-> [SP], H <-> [SP+1]
-                int valL = memory.readByte(SP) & 0xFF;
-                int valH = memory.readByte(SP + 1) & 0xFF;
-                int oldL = L, oldH = H;
-                memory.writeByte(SP, oldL);
-                memory.writeByte(SP + 1, oldH);
-                H = valH;
-                L = valL;
+                int value = readWord(SP);
+                memory.writeByte(SP, HL & 0xFF);
+                memory.writeByte(SP + 1, HL >> 8);
+                HL = value;
                 break;
             }
             case 0xEB:  /* XCHG */
             {
-                int oldD = D, oldE = E;
-                D = H;
-                E = L;
-                H = oldD;
-                L = oldE;
+                int de = DE;
+                DE = HL;
+                HL = de;
                 break;
             }
             case 0xF9:  /* SPHL (SP = HL) */
-                SP = getHL();
+                SP = HL;
                 break;
             case 0xDB:  /* IN port */
             {
-                int port = memory.readByte(PC) & 0xFF;
+                A = portIn(memory.readByte(PC));
                 PC += 1;
-                if (ioHandler != null) {
-                    A = ioHandler.portIn(port) & 0xFF;
-                } else {
-                    A = 0;
-                }
                 break;
             }
             case 0xD3:  /* OUT port */
             {
-                int port = memory.readByte(PC) & 0xFF;
+                portOut(memory.readByte(PC));
                 PC += 1;
-                if (ioHandler != null) {
-                    ioHandler.portOut(port, A);
-                }
                 break;
             }
             case 0xFB:  /* EI */
@@ -786,26 +947,26 @@ public class CPU8080 {
         return cycles;
     }
 
-    // Чтение значения 16-битного регистра HL
-    private int getHL() {
-        return ((H & 0xFF) << 8) | (L & 0xFF);
+    int portIn(int port) {
+        return ioHandler != null ? ioHandler.portIn(port) & 0xFF : 0;
     }
-    // Запись значения в HL
-    private void setHL(int value) {
-        H = (value >> 8) & 0xFF;
-        L = value & 0xFF;
+
+    void portOut(int port) {
+        if (ioHandler != null) {
+            ioHandler.portOut(port, A);
+        }
     }
 
     private int getRegister(int code) {
         switch (code) {
-            case 0: return B;
-            case 1: return C;
-            case 2: return D;
-            case 3: return E;
-            case 4: return H;
-            case 5: return L;
+            case 0: return BC >> 8;
+            case 1: return BC & 0xFF;
+            case 2: return DE >> 8;
+            case 3: return DE & 0xFF;
+            case 4: return HL >> 8;
+            case 5: return HL & 0xFF;
             case 6:
-                return memory.readByte(getHL()) & 0xFF;
+                return memory.readByte(HL) & 0xFF;
             case 7: return A;
         }
         return 0;
@@ -814,157 +975,103 @@ public class CPU8080 {
     private void setRegister(int code, int value) {
         value &= 0xFF;
         switch (code) {
-            case 0: B = value; break;
-            case 1: C = value; break;
-            case 2: D = value; break;
-            case 3: E = value; break;
-            case 4: H = value; break;
-            case 5: L = value; break;
+            case 0: BC = (value << 8) | (BC & 0xFF); break;
+            case 1: BC = (BC & 0xFF00) | value; break;
+            case 2: DE = (value << 8) | (DE & 0xFF); break;
+            case 3: DE = (DE & 0xFF00) | value; break;
+            case 4: HL = (value << 8) | (HL & 0xFF); break;
+            case 5: HL = (HL & 0xFF00) | value; break;
             case 6: // M (память [HL])
-                memory.writeByte(getHL(), value);
+                memory.writeByte(HL, value);
                 break;
             case 7: A = value; break;
         }
     }
 
-    private int incrementByte(int val) {
-        val = (val & 0xFF);
+    // Флаги: Z, S, P, AC; флаг Carry не изменяется для INR/DCR
+    int incrementByte(int val) {
         int result = (val + 1) & 0xFF;
-        // Флаги: Z, S, P, AC; флаг Carry не изменяется для INR
-        signFlag = (result & 0x80) != 0;
-        zeroFlag = (result == 0);
-        parityFlag = calculateParity(result);
-        auxCarryFlag = ((val & 0x0F) + 1) > 0x0F;
+        F = (F & FLAG_CY) | INR_FLAGS[result];
         return result;
     }
 
-    private int decrementByte(int val) {
-        val = (val & 0xFF);
+    int decrementByte(int val) {
         int result = (val - 1) & 0xFF;
-        signFlag = (result & 0x80) != 0;
-        zeroFlag = (result == 0);
-        parityFlag = calculateParity(result);
-        auxCarryFlag = (val & 0x0F) < 1;
+        F = (F & FLAG_CY) | DCR_FLAGS[result];
         return result;
     }
 
-    // Установка флагов Z, S, P
-    private void setFlagsZS(int value) {
-        value &= 0xFF;
-        signFlag = (value & 0x80) != 0;
-        zeroFlag = (value == 0);
-        parityFlag = calculateParity(value);
-    }
-
-    private boolean calculateParity(int value) {
-        value &= 0xFF;
-        return (Integer.bitCount(value) % 2 == 0);
+    private boolean checkCondition(int condCode) {
+        return ((F & CONDITION_FLAG[condCode]) != 0) == ((condCode & 1) != 0);
     }
 
-    private boolean checkCondition(int condCode) {
-        switch (condCode) {
-            case 0: return !zeroFlag;       // NZ
-            case 1: return zeroFlag;        // Z
-            case 2: return !carryFlag;      // NC
-            case 3: return carryFlag;       // C
-            case 4: return !parityFlag;     // PO (Parity Odd: P=0)
-            case 5: return parityFlag;      // PE (Parity Even: P=1)
-            case 6: return !signFlag;       // P (Plus: S=0)
-            case 7: return signFlag;        // M (Minus: S=1)
-        }
-        return false;
+    void dad(int value) {
+        int result = HL + value;
+        F = (F & ~FLAG_CY) | (result >>> 16);
+        HL = result & 0xFFFF;
     }
 
-    private void add(int value) {
-        int a = A;
-        int result = a + (value & 0xFF);
-        carryFlag = (result & 0x100) != 0;
-        auxCarryFlag = (((a & 0x0F) + (value & 0x0F)) & 0x10) != 0;
+    // AC - перенос (заём) в бит 4: он виден в (a ^ b ^ result)
+    void add(int value) {
+        int result = A + value;
+        F = SZPC[result] | ((A ^ value ^ result) & FLAG_AC);
         A = result & 0xFF;
-        setFlagsZS(A);
     }
 
-    private void adc(int value) {
-        int a = A;
-        int c = carryFlag ? 1 : 0;
-        int result = a + (value & 0xFF) + c;
-        carryFlag = (result & 0x100) != 0;
-        auxCarryFlag = (((a & 0x0F) + (value & 0x0F) + c) & 0x10) != 0;
+    void adc(int value) {
+        int result = A + value + (F & FLAG_CY);
+        F = SZPC[result] | ((A ^ value ^ result) & FLAG_AC);
         A = result & 0xFF;
-        setFlagsZS(A);
     }
 
-    private void sub(int value) {
-        int a = A;
-        int val = value & 0xFF;
-        int result = a - val;
-        carryFlag = (result & 0x100) != 0;
-        auxCarryFlag = ((a & 0x0F) - (val & 0x0F)) < 0;
+    void sub(int value) {
+        int result = A - value;
+        F = SZPC[result & 0x1FF] | ((A ^ value ^ result) & FLAG_AC);
         A = result & 0xFF;
-        setFlagsZS(A);
     }
 
-    private void sbb(int value) {
-        int a = A;
-        int c = carryFlag ? 1 : 0;
-        int val = value & 0xFF;
-        int result = a - val - c;
-        carryFlag = (result & 0x100) != 0;
-        auxCarryFlag = ((a & 0x0F) - (val & 0x0F) - c) < 0;
+    void sbb(int value) {
+        int result = A - value - (F & FLAG_CY);
+        F = SZPC[result & 0x1FF] | ((A ^ value ^ result) & FLAG_AC);
         A = result & 0xFF;
-        setFlagsZS(A);
     }
 
-    private void ana(int value) {
-        A = A & (value & 0xFF);
-        carryFlag = false;
-        auxCarryFlag = true;
-        setFlagsZS(A);
+    void ana(int value) {
+        A &= value;
+        F = SZP[A] | FLAG_AC;
     }
 
-    private void xra(int value) {
-        A = A ^ (value & 0xFF);
-        carryFlag = false;
-        auxCarryFlag = false;
-        setFlagsZS(A);
+    void xra(int value) {
+        A ^= value;
+        F = SZP[A];
     }
 
-    private void ora(int value) {
-        A = A | (value & 0xFF);
-        carryFlag = false;
-        auxCarryFlag = false;
-        setFlagsZS(A);
+    void ora(int value) {
+        A |= value;
+        F = SZP[A];
     }
 
-    private void cmp(int value) {
-        int val = value & 0xFF;
-        int res = (A - val) & 0x1FF;
-        carryFlag = (res & 0x100) != 0;
-        auxCarryFlag = ((A & 0x0F) - (val & 0x0F)) < 0;
-        int res8 = res & 0xFF;
-        signFlag = (res8 & 0x80) != 0;
-        zeroFlag = (res8 == 0);
-        parityFlag = calculateParity(res8);
+    void cmp(int value) {
+        int result = A - value;
+        F = SZPC[result & 0x1FF] | ((A ^ value ^ result) & FLAG_AC);
     }
 
-    private void decimalAdjustAccumulator() {
+    void decimalAdjustAccumulator() {
         int correction = 0;
-        if (auxCarryFlag || (A & 0x0F) > 0x09) {
+        int carry = F & FLAG_CY;
+        if ((F & FLAG_AC) != 0 || (A & 0x0F) > 0x09) {
             correction |= 0x06;
         }
-        if (carryFlag || (A > 0x99)) {
+        if (carry != 0 || (A > 0x99)) {
             correction |= 0x60;
-            carryFlag = true;
+            carry = FLAG_CY;
         }
         int result = (A + correction) & 0xFF;
-        auxCarryFlag = ((A ^ result) & 0x10) != 0;
+        F = SZP[result] | carry | ((A ^ result) & FLAG_AC);
         A = result;
-        signFlag = (A & 0x80) != 0;
-        zeroFlag = (A == 0);
-        parityFlag = calculateParity(A);
     }
 
-    private void pushWord(int value) {
+    void pushWord(int value) {
         int high = (value >> 8) & 0xFF;
         int low = value & 0xFF;
         SP = (SP - 1) & 0xFFFF;
@@ -973,7 +1080,7 @@ public class CPU8080 {
         memory.writeByte(SP, low);
     }
 
-    private int popWord() {
+    int popWord() {
         int low = memory.readByte(SP) & 0xFF;
         SP = (SP + 1) & 0xFFFF;
         int high = memory.readByte(SP) & 0xFF;
@@ -0,0 +1,48 @@
+package org.emu.cpu;
+
+import org.emu.mem.RomSet;
+
+// Код ROM, заранее переведённый в Java: класс RecompiledRom генерирует
+// Recompiler при сборке (фаза process-classes). Если класса нет (сборка без
+// ROM) или он сделан из другого набора ROM, CPU работает интерпретатором.
+// -Demu.recompiled=false отключает переведённый код.
+public abstract class CompiledRom {
+    static final String GENERATED_CLASS = "org.emu.cpu.RecompiledRom";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("emu.recompiled", "true"));
+
+    // Блоки есть только для адресов ниже limit
+    final int limit;
+
+    protected CompiledRom(int limit) {
+        this.limit = limit;
+    }
+
+    // CRC32 образа ROM, из которого сгенерирован код
+    public abstract long getRomChecksum();
+
+    // Выполняет блок, начинающийся с pc, и возвращает его такты. Блок
+    // выполняется, только если все его команды, кроме последней, начнутся
+    // в remaining тактов; иначе (или если блока для pc нет) возвращается -1.
+    abstract int execute(CPU8080 cpu, int pc, int remaining);
+
+    private static final class Holder {
+        static final CompiledRom INSTANCE = load();
+    }
+
+    private static CompiledRom load() {
+        try {
+            return (CompiledRom) Class.forName(GENERATED_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public static CompiledRom forRomSet(RomSet roms) {
+        if (!ENABLED) {
+            return null;
+        }
+        CompiledRom code = Holder.INSTANCE;
+        return code != null && code.getRomChecksum() == roms.getChecksum() ? code : null;
+    }
+}
@@ -0,0 +1,195 @@
+package org.emu.cpu;
+
+import org.emu.mem.Memory;
+import org.emu.mem.RomSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Таблица суперинструкций: частые последовательности команд в ROM находятся
+// один раз, и CPU выполняет их одним обработчиком без диспетчеризации каждой
+// команды. Таблица зависит только от содержимого ROM и общая для всех CPU.
+public final class FusionTable {
+    static final int NONE = 0;
+    static final int COPY_LOOP = 1;     // LDAX D; MOV M,A; INX H; INX D; DCR B; JNZ a
+    static final int SHIFT_STORE = 2;   // OUT p; IN q; MOV M,A
+    static final int OUT_IN = 3;        // OUT p; IN q
+    static final int INX_DCR_JNZ = 4;   // INX rp; DCR r; JNZ a
+    static final int DCR_JNZ = 5;       // DCR r; JNZ a
+    static final int TEST_M_JCC = 6;    // MOV A,M; ANA A; Jcc a
+    static final int LXI_H_MVI_M = 7;   // LXI H,d16; MVI M,d8
+    static final int LXI_H_MOV_M = 8;   // LXI H,d16; MOV M,r
+    static final int LDAX_MOV_M = 9;    // LDAX B/D; MOV M,A
+    static final int IDLE_LOOP = 10;    // LDA a / MOV A,M; операции над A; Jcc на начало
+
+    private static final int MAX_IDLE_BODY = 6;
+
+    private static final ConcurrentHashMap<Long, FusionTable> CACHE = new ConcurrentHashMap<>();
+
+    final int limit;
+    final byte[] kind;
+    // Такты всей последовательности и такты до начала её последней команды
+    final byte[] total;
+    final byte[] prefix;
+    // Число команд в последовательности
+    final byte[] count;
+
+    private FusionTable(int limit) {
+        this.limit = limit;
+        this.kind = new byte[limit];
+        this.total = new byte[limit];
+        this.prefix = new byte[limit];
+        this.count = new byte[limit];
+    }
+
+    public static FusionTable forRomSet(RomSet roms) {
+        return CACHE.computeIfAbsent(roms.getChecksum(), k -> {
+            byte[] image = new byte[Memory.MEM_SIZE];
+            roms.copyInto(image);
+            return scan(image, roms.getEnd());
+        });
+    }
+
+    // Область [0, end) должна быть неизменяемой (ROM)
+    public static FusionTable scan(byte[] mem, int end) {
+        FusionTable table = new FusionTable(end);
+        for (int pc = 0; pc < end; pc++) {
+            table.match(mem, pc, end);
+        }
+        return table;
+    }
+
+    private void match(byte[] mem, int pc, int end) {
+        if (matchIdleLoop(mem, pc, end)) {
+            return;
+        }
+        int op0 = op(mem, pc, end);
+        switch (op0) {
+            case 0x1A:
+                if (matches(mem, pc + 1, end, 0x77, 0x23, 0x13, 0x05, 0xC2)) {
+                    set(pc, COPY_LOOP, 0x1A, 0x77, 0x23, 0x13, 0x05, 0xC2);
+                    return;
+                }
+                // fall through
+            case 0x0A:
+                if (op(mem, pc + 1, end) == 0x77) {
+                    set(pc, LDAX_MOV_M, op0, 0x77);
+                }
+                return;
+            case 0xD3:
+                if (op(mem, pc + 2, end) == 0xDB) {
+                    if (op(mem, pc + 4, end) == 0x77) {
+                        set(pc, SHIFT_STORE, 0xD3, 0xDB, 0x77);
+                    } else {
+                        set(pc, OUT_IN, 0xD3, 0xDB);
+                    }
+                }
+                return;
+            case 0x03: case 0x13: case 0x23: case 0x33:
+            {
+                int op1 = op(mem, pc + 1, end);
+                if (isDcr(op1) && op(mem, pc + 2, end) == 0xC2) {
+                    set(pc, INX_DCR_JNZ, op0, op1, 0xC2);
+                }
+                return;
+            }
+            case 0x7E:
+                if (op(mem, pc + 1, end) == 0xA7 && isJcc(op(mem, pc + 2, end))) {
+                    set(pc, TEST_M_JCC, 0x7E, 0xA7, op(mem, pc + 2, end));
+                }
+                return;
+            case 0x21:
+            {
+                int op1 = op(mem, pc + 3, end);
+                if (op1 == 0x36) {
+                    set(pc, LXI_H_MVI_M, 0x21, 0x36);
+                } else if (op1 >= 0x70 && op1 <= 0x77 && op1 != 0x76) {
+                    set(pc, LXI_H_MOV_M, 0x21, op1);
+                }
+                return;
+            }
+            default:
+                if (isDcr(op0) && op(mem, pc + 1, end) == 0xC2) {
+                    set(pc, DCR_JNZ, op0, 0xC2);
+                }
+        }
+    }
+
+    // Цикл ожидания: читает флаг из RAM и крутится, пока его не изменит прерывание.
+    // Тело не пишет в память, не обращается к портам и полностью пересчитывает A
+    // и флаги из памяти, поэтому после первой итерации состояние больше не меняется.
+    private boolean matchIdleLoop(byte[] mem, int pc, int end) {
+        int[] ops = new int[MAX_IDLE_BODY];
+        int n = 0;
+        int address = pc;
+        int first = op(mem, address, end);
+        if (first == 0x3A) {
+            address += 3;
+        } else if (first == 0x7E) {
+            address += 1;
+        } else {
+            return false;
+        }
+        ops[n++] = first;
+        while (n < MAX_IDLE_BODY) {
+            int op = op(mem, address, end);
+            if (op < 0) {
+                return false;
+            }
+            switch (op) {
+                case 0xA7: case 0xB7: case 0x3C: case 0x3D: case 0x07: case 0x0F: case 0x2F:
+                    ops[n++] = op;
+                    address += 1;
+                    continue;
+                case 0xFE: case 0xE6: case 0xF6: case 0xEE:
+                    ops[n++] = op;
+                    address += 2;
+                    continue;
+                default:
+                    break;
+            }
+            if ((op == 0xC3 || isJcc(op))
+                    && ((mem[address + 1] & 0xFF) | ((mem[address + 2] & 0xFF) << 8)) == pc) {
+                ops[n++] = op;
+                int[] body = new int[n];
+                System.arraycopy(ops, 0, body, 0, n);
+                set(pc, IDLE_LOOP, body);
+                return true;
+            }
+            return false;
+        }
+        return false;
+    }
+
+    private void set(int pc, int k, int... opcodes) {
+        int sum = 0;
+        for (int opcode : opcodes) {
+            sum += CPU8080.cyclesOf(opcode);
+        }
+        kind[pc] = (byte) k;
+        count[pc] = (byte) opcodes.length;
+        total[pc] = (byte) sum;
+        prefix[pc] = (byte) (sum - CPU8080.cyclesOf(opcodes[opcodes.length - 1]));
+    }
+
+    private static boolean matches(byte[] mem, int pc, int end, int... opcodes) {
+        for (int i = 0; i < opcodes.length; i++) {
+            if (op(mem, pc + i, end) != opcodes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Последовательность целиком, включая операнды, должна лежать в ROM
+    private static int op(byte[] mem, int address, int end) {
+        return address + 2 < end ? mem[address] & 0xFF : -1;
+    }
+
+    private static boolean isDcr(int op) {
+        return op >= 0 && (op & 0xC7) == 0x05;
+    }
+
+    private static boolean isJcc(int op) {
+        return op >= 0 && (op & 0xC7) == 0xC2;
+    }
+}
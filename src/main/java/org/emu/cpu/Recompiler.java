@@ -0,0 +1,456 @@
+package org.emu.cpu;
+
+import org.emu.mem.Memory;
+import org.emu.mem.RomSet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.TreeMap;
+
+// Статический перевод ROM в Java. От вектора сброса и векторов RST
+// прослеживается достижимый код (переходы, вызовы, возвраты после вызовов);
+// каждый линейный участок до команды передачи управления становится
+// отдельным методом класса RecompiledRom с операндами-константами.
+// Косвенные переходы (PCHL, RET) находят блок по адресу во время работы,
+// а адреса без блока (код в RAM, непрослеженные цели PCHL) выполняет
+// интерпретатор. Семантика каждой команды та же, что в CPU8080.executeInstruction.
+public final class Recompiler {
+    // Длиннее блок не делается, чтобы метод оставался небольшим для JIT
+    private static final int MAX_BLOCK = 24;
+    private static final String[] PAIRS = {"BC", "DE", "HL", "SP"};
+    private static final String[] CONDITION_FLAG_NAMES = {"FLAG_Z", "FLAG_Z", "FLAG_CY", "FLAG_CY",
+            "FLAG_P", "FLAG_P", "FLAG_S", "FLAG_S"};
+
+    private final byte[] mem;
+    private final int end;
+    // Адреса начала прослеженных команд
+    private final boolean[] reachable;
+    // Исходный текст блоков по адресу начала
+    private final TreeMap<Integer, String> blocks = new TreeMap<>();
+
+    public Recompiler(byte[] mem, int end) {
+        this.mem = mem;
+        this.end = end;
+        this.reachable = new boolean[end];
+    }
+
+    // Генерация: args[0] - каталог сгенерированных исходников
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Использование: Recompiler <каталог исходников>");
+            System.exit(1);
+        }
+        RomSet roms;
+        try {
+            roms = RomSet.getDefault();
+        } catch (IOException e) {
+            // Без ROM сборка продолжается, CPU просто останется интерпретатором
+            System.err.println("ROM не загружены, перевод пропущен: " + e.getMessage());
+            return;
+        }
+        byte[] image = new byte[Memory.MEM_SIZE];
+        roms.copyInto(image);
+        Recompiler recompiler = new Recompiler(image, roms.getEnd());
+        String source = recompiler.generate(roms.getChecksum());
+        Path file = Path.of(args[0], "org", "emu", "cpu", "RecompiledRom.java");
+        // Неизменный файл не переписывается, чтобы не перекомпилировать его каждый раз
+        if (Files.exists(file) && Files.readString(file, StandardCharsets.UTF_8).equals(source)) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, source, StandardCharsets.UTF_8);
+        System.out.println("Переведено блоков ROM: " + recompiler.blocks.size() + " -> " + file);
+    }
+
+    public String generate(long romChecksum) {
+        trace();
+        buildBlocks();
+        StringBuilder out = new StringBuilder(1 << 20);
+        out.append("package org.emu.cpu;\n\n");
+        out.append(String.format("// Сгенерировано org.emu.cpu.Recompiler из ROM с CRC32 %08x. Не редактировать.\n",
+                romChecksum));
+        out.append("final class RecompiledRom extends CompiledRom {\n");
+        out.append("    public RecompiledRom() {\n");
+        out.append("        super(").append(hex(end)).append(");\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    public long getRomChecksum() {\n");
+        out.append(String.format("        return 0x%08xL;\n", romChecksum));
+        out.append("    }\n\n");
+        // Диспетчер в два уровня по 256 адресов: каждый метод остаётся меньше
+        // предела, после которого HotSpot перестаёт компилировать методы
+        out.append("    @Override\n");
+        out.append("    int execute(CPU8080 c, int pc, int remaining) {\n");
+        out.append("        switch (pc >> 8) {\n");
+        for (int page = 0; page <= (end - 1) >> 8; page++) {
+            if (!blocks.subMap(page << 8, (page + 1) << 8).isEmpty()) {
+                out.append("            case ").append(hex2(page)).append(": return page")
+                        .append(hex2(page).substring(2)).append("(c, pc, remaining);\n");
+            }
+        }
+        out.append("            default: return -1;\n");
+        out.append("        }\n");
+        out.append("    }\n");
+        for (int page = 0; page <= (end - 1) >> 8; page++) {
+            if (blocks.subMap(page << 8, (page + 1) << 8).isEmpty()) {
+                continue;
+            }
+            out.append("\n    private static int page").append(hex2(page).substring(2))
+                    .append("(CPU8080 c, int pc, int remaining) {\n");
+            out.append("        switch (pc) {\n");
+            for (int address : blocks.subMap(page << 8, (page + 1) << 8).keySet()) {
+                out.append("            case ").append(hex(address)).append(": return b")
+                        .append(hex(address).substring(2)).append("(c, remaining);\n");
+            }
+            out.append("            default: return -1;\n");
+            out.append("        }\n");
+            out.append("    }\n");
+        }
+        for (String block : blocks.values()) {
+            out.append('\n').append(block);
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private int op(int address) {
+        return mem[address & 0xFFFF] & 0xFF;
+    }
+
+    private int word(int address) {
+        return op(address + 1) << 8 | op(address);
+    }
+
+    // Длина команды так, как её разбирает интерпретатор (неизвестные коды - однобайтные NOP)
+    static int length(int opcode) {
+        switch (opcode) {
+            case 0x01: case 0x11: case 0x21: case 0x31:
+            case 0x22: case 0x2A: case 0x32: case 0x3A:
+            case 0xC3: case 0xCD:
+            case 0xC2: case 0xCA: case 0xD2: case 0xDA: case 0xE2: case 0xEA: case 0xF2: case 0xFA:
+            case 0xC4: case 0xCC: case 0xD4: case 0xDC: case 0xE4: case 0xEC: case 0xF4: case 0xFC:
+                return 3;
+            case 0x06: case 0x0E: case 0x16: case 0x1E: case 0x26: case 0x2E: case 0x36: case 0x3E:
+            case 0xC6: case 0xCE: case 0xD6: case 0xDE: case 0xE6: case 0xEE: case 0xF6: case 0xFE:
+            case 0xD3: case 0xDB:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    // Команда завершает блок: после неё PC не равен адресу следующей команды
+    static boolean endsBlock(int opcode) {
+        switch (opcode) {
+            case 0x76: case 0xC3: case 0xCD: case 0xC9: case 0xE9:
+                return true;
+            default:
+                // Jcc, Ccc, Rcc, RST
+                int low = opcode & 0xC7;
+                return low == 0xC2 || low == 0xC4 || low == 0xC0 || low == 0xC7;
+        }
+    }
+
+    private boolean fits(int address) {
+        return address + length(op(address)) <= end;
+    }
+
+    private void trace() {
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for (int vector = 0; vector < 0x40; vector += 8) {
+            work.add(vector);
+        }
+        while (!work.isEmpty()) {
+            int address = work.poll();
+            if (address >= end || reachable[address] || !fits(address)) {
+                continue;
+            }
+            reachable[address] = true;
+            int opcode = op(address);
+            int next = address + length(opcode);
+            int low = opcode & 0xC7;
+            if (opcode == 0xC3 || opcode == 0xCD || low == 0xC2 || low == 0xC4) {
+                work.add(word(address + 1));
+            } else if (low == 0xC7) {
+                work.add(opcode & 0x38);
+            }
+            // После HLT выполнение продолжается возвратом из прерывания
+            if (opcode != 0xC3 && opcode != 0xC9 && opcode != 0xE9) {
+                work.add(next);
+            }
+        }
+    }
+
+    // Блок начинается с каждой цели перехода, с каждого адреса после команды
+    // передачи управления и с места, где предыдущий блок упёрся в MAX_BLOCK.
+    // Блоки могут перекрываться: проход через чужое начало не прерывает блок.
+    private void buildBlocks() {
+        ArrayDeque<Integer> leaders = new ArrayDeque<>();
+        for (int address = 0; address < end; address++) {
+            if (reachable[address] && isLeader(address)) {
+                leaders.add(address);
+            }
+        }
+        while (!leaders.isEmpty()) {
+            int start = leaders.poll();
+            if (blocks.containsKey(start)) {
+                continue;
+            }
+            int next = emitBlock(start);
+            if (next >= 0 && next < end && reachable[next] && !blocks.containsKey(next)) {
+                leaders.add(next);
+            }
+        }
+    }
+
+    private boolean isLeader(int address) {
+        if (address < 0x40 && (address & 7) == 0) {
+            return true;
+        }
+        // Цель перехода или адрес после команды, завершающей блок
+        for (int from = Math.max(0, address - 3); from < address; from++) {
+            if (reachable[from] && from + length(op(from)) == address && endsBlock(op(from))) {
+                return true;
+            }
+        }
+        return isTarget(address);
+    }
+
+    private boolean[] targets;
+
+    private boolean isTarget(int address) {
+        if (targets == null) {
+            targets = new boolean[end];
+            for (int from = 0; from < end; from++) {
+                if (!reachable[from]) {
+                    continue;
+                }
+                int opcode = op(from);
+                int low = opcode & 0xC7;
+                if (opcode == 0xC3 || opcode == 0xCD || low == 0xC2 || low == 0xC4) {
+                    int target = word(from + 1);
+                    if (target < end) {
+                        targets[target] = true;
+                    }
+                }
+            }
+        }
+        return targets[address];
+    }
+
+    // Возвращает адрес, на котором блок прерван из-за MAX_BLOCK, или -1
+    private int emitBlock(int start) {
+        StringBuilder body = new StringBuilder();
+        int address = start;
+        int total = 0;
+        int prefix = 0;
+        int count = 0;
+        int cut = -1;
+        while (true) {
+            int opcode = op(address);
+            int next = (address + length(opcode)) & 0xFFFF;
+            prefix = total;
+            total += CPU8080.cyclesOf(opcode);
+            body.append("        // ").append(hex(address).substring(2)).append(':');
+            for (int i = 0; i < length(opcode); i++) {
+                body.append(' ').append(hex2(op(address + i)).substring(2));
+            }
+            body.append('\n');
+            emit(body, address, opcode, next);
+            count++;
+            if (endsBlock(opcode)) {
+                break;
+            }
+            if (count == MAX_BLOCK || next >= end || !reachable[next] || !fits(next)) {
+                body.append("        c.PC = ").append(hex(next)).append(";\n");
+                cut = next;
+                break;
+            }
+            address = next;
+        }
+        StringBuilder block = new StringBuilder();
+        block.append("    private static int b").append(hex(start).substring(2)).append("(CPU8080 c, int remaining) {\n");
+        block.append("        if (remaining <= ").append(prefix).append(") {\n");
+        block.append("            return -1;\n");
+        block.append("        }\n");
+        block.append(body);
+        block.append("        return ").append(total).append(";\n");
+        block.append("    }\n");
+        blocks.put(start, block.toString());
+        return cut;
+    }
+
+    private static String reg(int code) {
+        switch (code) {
+            case 0: return "(c.BC >> 8)";
+            case 1: return "(c.BC & 0xFF)";
+            case 2: return "(c.DE >> 8)";
+            case 3: return "(c.DE & 0xFF)";
+            case 4: return "(c.HL >> 8)";
+            case 5: return "(c.HL & 0xFF)";
+            case 6: return "c.memory.readByte(c.HL)";
+            default: return "c.A";
+        }
+    }
+
+    private static String setReg(int code, String value) {
+        switch (code) {
+            case 0: return "c.BC = (" + value + " << 8) | (c.BC & 0xFF);";
+            case 1: return "c.BC = (c.BC & 0xFF00) | " + value + ";";
+            case 2: return "c.DE = (" + value + " << 8) | (c.DE & 0xFF);";
+            case 3: return "c.DE = (c.DE & 0xFF00) | " + value + ";";
+            case 4: return "c.HL = (" + value + " << 8) | (c.HL & 0xFF);";
+            case 5: return "c.HL = (c.HL & 0xFF00) | " + value + ";";
+            case 6: return "c.memory.writeByte(c.HL, " + value + ");";
+            default: return "c.A = " + value + ";";
+        }
+    }
+
+    private static String condition(int code) {
+        return "(c.F & CPU8080." + CONDITION_FLAG_NAMES[code] + ") " + ((code & 1) != 0 ? "!=" : "==") + " 0";
+    }
+
+    private static final String[] ALU = {"add", "adc", "sub", "sbb", "ana", "xra", "ora", "cmp"};
+
+    private void emit(StringBuilder out, int address, int opcode, int next) {
+        int d8 = op(address + 1);
+        int d16 = word(address + 1);
+        String line;
+        if (opcode >= 0x40 && opcode <= 0x7F && opcode != 0x76) {
+            int dest = (opcode >> 3) & 7;
+            int src = opcode & 7;
+            line = dest == src ? null : setReg(dest, reg(src));
+        } else if (opcode >= 0x80 && opcode <= 0xBF) {
+            line = "c." + ALU[(opcode >> 3) & 7] + "(" + reg(opcode & 7) + ");";
+        } else {
+            line = emitOther(opcode, d8, d16, next);
+        }
+        if (line != null) {
+            out.append("        ").append(line).append('\n');
+        }
+    }
+
+    private String emitOther(int opcode, int d8, int d16, int next) {
+        String pair = PAIRS[(opcode >> 4) & 3];
+        int low = opcode & 0xC7;
+        switch (low) {
+            case 0x04:
+            {
+                int r = (opcode >> 3) & 7;
+                return r == 6
+                        ? "c.memory.writeByte(c.HL, c.incrementByte(c.memory.readByte(c.HL)));"
+                        : setReg(r, "c.incrementByte(" + reg(r) + ")");
+            }
+            case 0x05:
+            {
+                int r = (opcode >> 3) & 7;
+                return r == 6
+                        ? "c.memory.writeByte(c.HL, c.decrementByte(c.memory.readByte(c.HL)));"
+                        : setReg(r, "c.decrementByte(" + reg(r) + ")");
+            }
+            case 0x06:
+                return setReg((opcode >> 3) & 7, hex2(d8));
+            case 0xC2:
+                return "c.PC = " + condition((opcode >> 3) & 7) + " ? " + hex(d16) + " : " + hex(next) + ";";
+            case 0xC4:
+                return "if (" + condition((opcode >> 3) & 7) + ") { c.pushWord(" + hex(next) + "); c.PC = "
+                        + hex(d16) + "; } else { c.PC = " + hex(next) + "; }";
+            case 0xC0:
+                return "c.PC = " + condition((opcode >> 3) & 7) + " ? c.popWord() : " + hex(next) + ";";
+            case 0xC7:
+                return "c.pushWord(" + hex(next) + "); c.PC = " + hex2(opcode & 0x38) + ";";
+            default:
+                break;
+        }
+        switch (opcode) {
+            case 0x01: case 0x11: case 0x21: case 0x31:
+                return "c." + pair + " = " + hex(d16) + ";";
+            case 0x02: case 0x12:
+                return "c.memory.writeByte(c." + pair + ", c.A);";
+            case 0x0A: case 0x1A:
+                return "c.A = c.memory.readByte(c." + pair + ");";
+            case 0x03: case 0x13: case 0x23: case 0x33:
+                return "c." + pair + " = (c." + pair + " + 1) & 0xFFFF;";
+            case 0x0B: case 0x1B: case 0x2B: case 0x3B:
+                return "c." + pair + " = (c." + pair + " - 1) & 0xFFFF;";
+            case 0x09: case 0x19: case 0x29: case 0x39:
+                return "c.dad(c." + pair + ");";
+            case 0x07:
+                return "c.F = (c.F & ~CPU8080.FLAG_CY) | (c.A >> 7); c.A = ((c.A << 1) & 0xFF) | (c.A >> 7);";
+            case 0x0F:
+                return "c.F = (c.F & ~CPU8080.FLAG_CY) | (c.A & 0x01); c.A = ((c.A << 7) & 0x80) | (c.A >> 1);";
+            case 0x17:
+                return "{ int carry = c.A >> 7; c.A = ((c.A << 1) & 0xFF) | (c.F & CPU8080.FLAG_CY);"
+                        + " c.F = (c.F & ~CPU8080.FLAG_CY) | carry; }";
+            case 0x1F:
+                return "{ int carry = c.A & 0x01; c.A = ((c.F & CPU8080.FLAG_CY) << 7) | (c.A >> 1);"
+                        + " c.F = (c.F & ~CPU8080.FLAG_CY) | carry; }";
+            case 0x22:
+                return "c.memory.writeByte(" + hex(d16) + ", c.HL & 0xFF); c.memory.writeByte("
+                        + hex((d16 + 1) & 0xFFFF) + ", c.HL >> 8);";
+            case 0x2A:
+                return "c.HL = c.readWord(" + hex(d16) + ");";
+            case 0x27:
+                return "c.decimalAdjustAccumulator();";
+            case 0x2F:
+                return "c.A = ~c.A & 0xFF;";
+            case 0x32:
+                return "c.memory.writeByte(" + hex(d16) + ", c.A);";
+            case 0x3A:
+                return "c.A = c.memory.readByte(" + hex(d16) + ");";
+            case 0x37:
+                return "c.F |= CPU8080.FLAG_CY;";
+            case 0x3F:
+                return "c.F ^= CPU8080.FLAG_CY;";
+            case 0x76:
+                return "c.halted = true; c.PC = " + hex(next) + ";";
+            case 0xC6: case 0xCE: case 0xD6: case 0xDE: case 0xE6: case 0xEE: case 0xF6: case 0xFE:
+                return "c." + ALU[(opcode >> 3) & 7] + "(" + hex2(d8) + ");";
+            case 0xC3:
+                return "c.PC = " + hex(d16) + ";";
+            case 0xCD:
+                return "c.pushWord(" + hex(next) + "); c.PC = " + hex(d16) + ";";
+            case 0xC9:
+                return "c.PC = c.popWord();";
+            case 0xE9:
+                return "c.PC = c.HL;";
+            case 0xC1: case 0xD1: case 0xE1:
+                return "c." + pair + " = c.popWord();";
+            case 0xC5: case 0xD5: case 0xE5:
+                return "c.pushWord(c." + pair + ");";
+            case 0xF1:
+                return "{ int value = c.popWord(); c.A = value >> 8; c.F = value & CPU8080.FLAG_MASK; }";
+            case 0xF5:
+                return "c.pushWord((c.A << 8) | c.F | 0x02);";
+            case 0xE3:
+                return "{ int value = c.readWord(c.SP); c.memory.writeByte(c.SP, c.HL & 0xFF);"
+                        + " c.memory.writeByte(c.SP + 1, c.HL >> 8); c.HL = value; }";
+            case 0xEB:
+                return "{ int de = c.DE; c.DE = c.HL; c.HL = de; }";
+            case 0xF9:
+                return "c.SP = c.HL;";
+            case 0xDB:
+                return "c.A = c.portIn(" + hex2(d8) + ");";
+            case 0xD3:
+                return "c.portOut(" + hex2(d8) + ");";
+            case 0xFB:
+                return "c.interruptsEnabled = true;";
+            case 0xF3:
+                return "c.interruptsEnabled = false;";
+            default:
+                // NOP и коды, которые интерпретатор выполняет как NOP
+                return null;
+        }
+    }
+
+    private static String hex(int value) {
+        return String.format("0x%04X", value);
+    }
+
+    private static String hex2(int value) {
+        return String.format("0x%02X", value);
+    }
+}
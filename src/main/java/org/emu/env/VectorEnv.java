@@ -0,0 +1,237 @@
+package org.emu.env;
+
+import org.emu.machine.DipSwitches;
+import org.emu.machine.FastBoot;
+import org.emu.machine.GameState;
+import org.emu.machine.MachineState;
+import org.emu.machine.SpaceInvadersMachine;
+import org.emu.mem.Memory;
+import org.emu.mem.OffHeapMemory;
+import org.emu.video.FrameDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Векторное окружение в стиле Gym для пакетного обучения с подкреплением.
+// Наблюдения - экран каждого автомата по биту на пиксель (строки сверху вниз по
+// 28 байт, см. FrameDecoder.decodePacked), лежащие подряд в одном direct-буфере;
+// буфер, награды и флаги завершения переиспользуются между шагами.
+public class VectorEnv implements AutoCloseable {
+    public static final int ACTION_NOOP = 0;
+    public static final int ACTION_FIRE = 1;
+    public static final int ACTION_RIGHT = 2;
+    public static final int ACTION_LEFT = 3;
+    public static final int ACTION_RIGHT_FIRE = 4;
+    public static final int ACTION_LEFT_FIRE = 5;
+    public static final int ACTION_COUNT = 6;
+
+    public static final int OBS_BYTES = FrameDecoder.PACKED_BYTES;
+
+    private static final int COIN_FRAMES = 3;
+    private static final int MAX_START_FRAMES = 300;
+
+    private static final int MODE_STEP = 0;
+    private static final int MODE_RESET = 1;
+
+    private final SpaceInvadersMachine[] machines;
+    private final ByteBuffer observations;
+    private final float[] rewards;
+    private final boolean[] dones;
+    private final int[] scores;
+    private final boolean[] resetMask;
+    private final int frameSkip;
+    private final ForkJoinPool pool;
+    private final Chunk[] chunks;
+    private final Batch batch = new Batch();
+    private final MachineState bootState;
+    private int[] actions;
+    private int mode;
+
+    public VectorEnv(int count, int frameSkip, int threads) throws IOException {
+        this(count, frameSkip, threads, null);
+    }
+
+    // Если задан sharedMemory, память среды i лежит в слоте i этого файла, и
+    // внешний процесс может наблюдать все автоматы без копирования
+    public VectorEnv(int count, int frameSkip, int threads, Path sharedMemory) throws IOException {
+        if (count <= 0 || frameSkip <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры окружения");
+        }
+        this.frameSkip = frameSkip;
+        bootState = loadBootState();
+        machines = new SpaceInvadersMachine[count];
+        for (int i = 0; i < count; i++) {
+            Memory memory = sharedMemory != null ? OffHeapMemory.map(sharedMemory, i) : new Memory();
+            machines[i] = new SpaceInvadersMachine(memory, new DipSwitches());
+            machines[i].loadRoms();
+        }
+        observations = ByteBuffer.allocateDirect(count * OBS_BYTES);
+        rewards = new float[count];
+        dones = new boolean[count];
+        scores = new int[count];
+        resetMask = new boolean[count];
+        pool = new ForkJoinPool(threads);
+        // Несколько чанков на поток, чтобы work-stealing выравнивал нагрузку
+        int chunkCount = Math.min(count, threads * 4);
+        chunks = new Chunk[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            chunks[c] = new Chunk(c * count / chunkCount, (c + 1) * count / chunkCount);
+        }
+    }
+
+    private static MachineState loadBootState() {
+        try {
+            return FastBoot.getSnapshot();
+        } catch (IOException e) {
+            // Без снимка среды просто проходят инициализацию ROM при каждом сбросе
+            return null;
+        }
+    }
+
+    public int size() {
+        return machines.length;
+    }
+
+    public SpaceInvadersMachine getMachine(int id) {
+        return machines[id];
+    }
+
+    // Наблюдение среды i - байты [i * OBS_BYTES, (i + 1) * OBS_BYTES)
+    public ByteBuffer observations() {
+        return observations;
+    }
+
+    public float[] rewards() {
+        return rewards;
+    }
+
+    public boolean[] dones() {
+        return dones;
+    }
+
+    // Перезапускает выбранные среды и доводит каждую до начала игры одного игрока
+    public void reset(int[] ids) {
+        for (int id : ids) {
+            resetMask[id] = true;
+        }
+        run(MODE_RESET, null);
+    }
+
+    // Один шаг для всех сред; завершённые среды пропускаются до вызова reset
+    public void step(int[] actions) {
+        if (actions.length != machines.length) {
+            throw new IllegalArgumentException("Ожидалось " + machines.length + " действий, получено " + actions.length);
+        }
+        run(MODE_STEP, actions);
+    }
+
+    private void run(int mode, int[] actions) {
+        this.mode = mode;
+        this.actions = actions;
+        batch.reinitialize();
+        pool.invoke(batch);
+        this.actions = null;
+    }
+
+    private void resetOne(int i, Chunk chunk) {
+        resetMask[i] = false;
+        SpaceInvadersMachine m = machines[i];
+        if (bootState != null) {
+            m.loadState(bootState);
+        } else {
+            m.reset();
+        }
+        applyAction(m, ACTION_NOOP);
+        GameState game = m.getGameState();
+        m.setCoinInserted(true);
+        for (int f = 0; f < COIN_FRAMES; f++) {
+            m.executeFrame();
+        }
+        m.setCoinInserted(false);
+        m.setStart1Pressed(true);
+        for (int f = 0; f < MAX_START_FRAMES && !gameStarted(game); f++) {
+            m.executeFrame();
+        }
+        m.setStart1Pressed(false);
+        scores[i] = game.getScore(1);
+        rewards[i] = 0f;
+        dones[i] = !gameStarted(game);
+        chunk.copyObservation(i, m);
+    }
+
+    private void stepOne(int i, Chunk chunk) {
+        if (dones[i]) {
+            rewards[i] = 0f;
+            return;
+        }
+        SpaceInvadersMachine m = machines[i];
+        applyAction(m, actions[i]);
+        for (int f = 0; f < frameSkip; f++) {
+            m.executeFrame();
+        }
+        GameState game = m.getGameState();
+        int score = game.getScore(1);
+        rewards[i] = score - scores[i];
+        scores[i] = score;
+        dones[i] = !game.isPlayerAlive(1);
+        chunk.copyObservation(i, m);
+    }
+
+    private static void applyAction(SpaceInvadersMachine m, int action) {
+        m.setFirePressed(action == ACTION_FIRE || action == ACTION_RIGHT_FIRE || action == ACTION_LEFT_FIRE);
+        m.setRightPressed(action == ACTION_RIGHT || action == ACTION_RIGHT_FIRE);
+        m.setLeftPressed(action == ACTION_LEFT || action == ACTION_LEFT_FIRE);
+    }
+
+    // Корабли появляются в RAM, когда ROM действительно начал игру
+    private static boolean gameStarted(GameState game) {
+        return game.getLives(1) > 1;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private final class Batch extends RecursiveAction {
+        @Override
+        protected void compute() {
+            for (Chunk chunk : chunks) {
+                chunk.reinitialize();
+            }
+            invokeAll(chunks);
+        }
+    }
+
+    private final class Chunk extends RecursiveAction {
+        private final int from;
+        private final int to;
+        // Чанк выполняется одним потоком за раз, поэтому рабочие буферы свои
+        private final byte[] vram = new byte[Memory.VIDEO_RAM_END - Memory.VIDEO_RAM_START];
+        private final FrameDecoder decoder = new FrameDecoder();
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void copyObservation(int i, SpaceInvadersMachine m) {
+            m.getMemory().copyTo(Memory.VIDEO_RAM_START, vram, 0, vram.length);
+            decoder.decodePacked(vram, observations, i * OBS_BYTES);
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = from; i < to; i++) {
+                if (mode == MODE_STEP) {
+                    stepOne(i, this);
+                } else if (resetMask[i]) {
+                    resetOne(i, this);
+                }
+            }
+        }
+    }
+}
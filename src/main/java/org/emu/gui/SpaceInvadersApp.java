@@ -4,33 +4,64 @@ import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import javafx.animation.AnimationTimer;
+import java.nio.file.Path;
+import org.emu.machine.DipSwitches;
+import org.emu.machine.InputQueue;
+import org.emu.machine.RunAhead;
 import org.emu.machine.SpaceInvadersMachine;
+import org.emu.machine.SpaceInvadersMachine.Button;
+import org.emu.sound.JavaSoundSink;
+import org.emu.sound.NullSoundSink;
+import org.emu.sound.SoundEngine;
+import org.emu.video.ScreenRenderer;
 
 public class SpaceInvadersApp extends Application {
-    private static final int WIDTH = 224;
-    private static final int HEIGHT = 256;
-    private static final int SCALE = 2;
+    // Масштаб может быть дробным: -Demu.scale=4 или -Demu.scale=2.5
+    private static final double SCALE = Double.parseDouble(System.getProperty("emu.scale", "2"));
+    private static final int AUDIO_BUFFER_FRAMES = Integer.getInteger("emu.audio.buffer", 512);
+    private static final int RUN_AHEAD_FRAMES = Integer.getInteger("emu.runahead", 0);
 
     private SpaceInvadersMachine machine;
     private Canvas canvas;
     private GraphicsContext gc;
+    private SoundEngine sound;
+    private RunAhead runAhead;
+    private final InputQueue inputs = new InputQueue();
+    private ScreenRenderer renderer;
+    private final byte[] vram = new byte[ScreenRenderer.VRAM_BYTES];
 
     @Override
     public void start(Stage primaryStage) {
-        machine = new SpaceInvadersMachine();
         try {
-            machine.loadRoms();
+            // Профиль автомата с DIP-переключателями: -Demu.profile=cabinet.properties
+            String profile = System.getProperty("emu.profile");
+            DipSwitches dips = profile != null ? DipSwitches.load(Path.of(profile)) : new DipSwitches();
+            machine = new SpaceInvadersMachine(dips);
+            if (Boolean.getBoolean("emu.fastboot")) {
+                machine.fastBoot();
+            } else {
+                machine.loadRoms();
+            }
         } catch (Exception e) {
             System.err.println("Ошибка загрузки ROM: " + e.getMessage());
             return;
         }
+        startSound();
+        runAhead = new RunAhead(machine, RUN_AHEAD_FRAMES);
+        Runnable present = this::renderFrame;
+
+        renderer = new ScreenRenderer(SCALE);
+        renderer.setOverlay(Boolean.getBoolean("emu.overlay"));
+        renderer.setScanlines(Boolean.getBoolean("emu.scanlines"));
+        renderer.setPersistence(Double.parseDouble(System.getProperty("emu.persistence", "0")));
 
-        canvas = new Canvas(WIDTH * SCALE, HEIGHT * SCALE);
+        canvas = new Canvas(renderer.getWidth(), renderer.getHeight());
         gc = canvas.getGraphicsContext2D();
         gc.setFill(Color.BLACK);
         gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
@@ -38,54 +69,36 @@ public class SpaceInvadersApp extends Application {
         StackPane root = new StackPane(canvas);
         Scene scene = new Scene(root);
 
+        // Кнопки автомата идут через очередь с отметкой времени и применяются
+        // в следующем кадре на такте, соответствующем моменту нажатия
         scene.setOnKeyPressed(event -> {
             KeyCode code = event.getCode();
+            Button button = buttonFor(code);
+            if (button != null) {
+                inputs.post(button, true);
+                return;
+            }
             switch (code) {
-                case LEFT:
-                    machine.setLeftPressed(true);
-                    break;
-                case RIGHT:
-                    machine.setRightPressed(true);
+                case R:
+                    runAhead.setFrames((runAhead.getFrames() + 1) % (RunAhead.MAX_FRAMES + 1));
                     break;
-                case SPACE:
-                    machine.setFirePressed(true);
+                case O:
+                    renderer.setOverlay(!renderer.isOverlay());
                     break;
-                case C:
-                    machine.setCoinInserted(true);
+                case L:
+                    renderer.setScanlines(!renderer.isScanlines());
                     break;
-                case DIGIT1:
-                    machine.setStart1Pressed(true);
-                    break;
-                case DIGIT2:
-                    machine.setStart2Pressed(true);
+                case P:
+                    renderer.setPersistence(renderer.getPersistence() > 0 ? 0 : 0.6);
                     break;
                 default:
                     break;
             }
         });
         scene.setOnKeyReleased(event -> {
-            KeyCode code = event.getCode();
-            switch (code) {
-                case LEFT:
-                    machine.setLeftPressed(false);
-                    break;
-                case RIGHT:
-                    machine.setRightPressed(false);
-                    break;
-                case SPACE:
-                    machine.setFirePressed(false);
-                    break;
-                case C:
-                    machine.setCoinInserted(false);
-                    break;
-                case DIGIT1:
-                    machine.setStart1Pressed(false);
-                    break;
-                case DIGIT2:
-                    machine.setStart2Pressed(false);
-                    break;
-                default:
-                    break;
+            Button button = buttonFor(event.getCode());
+            if (button != null) {
+                inputs.post(button, false);
             }
         });
 
@@ -97,41 +110,67 @@ public class SpaceInvadersApp extends Application {
         AnimationTimer timer = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                machine.executeFrame();
-                renderFrame();
+                inputs.beginFrame(machine, System.nanoTime());
+                runAhead.runFrame(present);
             }
         };
         timer.start();
     }
 
-    private void renderFrame() {
-        var writer = gc.getPixelWriter();
-        gc.setFill(Color.BLACK);
-        gc.fillRect(0, 0, WIDTH * SCALE, HEIGHT * SCALE);
-
-        byte[] memory = machine.getMemory().getRaw();
-
-        for (int i = 0; i < 0x1C00; i++) {
-            int addr = 0x2400 + i;
-            int byteValue = memory[addr] & 0xFF;
-
-            int x = (i * 8) / HEIGHT;
-            int yBase = (i * 8) % HEIGHT;
+    private static Button buttonFor(KeyCode code) {
+        switch (code) {
+            case LEFT:
+                return Button.LEFT;
+            case RIGHT:
+                return Button.RIGHT;
+            case SPACE:
+                return Button.FIRE;
+            case C:
+                return Button.COIN;
+            case DIGIT1:
+                return Button.START1;
+            case DIGIT2:
+                return Button.START2;
+            case A:
+                return Button.P2_LEFT;
+            case D:
+                return Button.P2_RIGHT;
+            case W:
+                return Button.P2_FIRE;
+            default:
+                return null;
+        }
+    }
 
-            for (int bit = 0; bit < 8; bit++) {
-                boolean pixelOn = (byteValue & (1 << bit)) != 0;
-                if (pixelOn) {
-                    int y = yBase + bit;
-                    int drawX = x * SCALE;
-                    int drawY = (HEIGHT - 1 - y) * SCALE;
-                    for (int dx = 0; dx < SCALE; dx++) {
-                        for (int dy = 0; dy < SCALE; dy++) {
-                            writer.setColor(drawX + dx, drawY + dy, Color.WHITE);
-                        }
-                    }
-                }
+    private void startSound() {
+        sound = new SoundEngine(new JavaSoundSink(), AUDIO_BUFFER_FRAMES);
+        try {
+            sound.start();
+        } catch (Exception e) {
+            System.err.println("Звук недоступен: " + e.getMessage());
+            sound = new SoundEngine(new NullSoundSink(), AUDIO_BUFFER_FRAMES);
+            try {
+                sound.start();
+            } catch (Exception fallback) {
+                System.err.println("Звук не запущен: " + fallback.getMessage());
             }
         }
+        machine.setSoundEngine(sound);
+    }
+
+    @Override
+    public void stop() {
+        if (sound != null) {
+            sound.stop();
+        }
+    }
+
+    private void renderFrame() {
+        machine.getMemory().copyTo(0x2400, vram, 0, vram.length);
+        int[] pixels = renderer.render(vram);
+        int width = renderer.getWidth();
+        gc.getPixelWriter().setPixels(0, 0, width, renderer.getHeight(),
+                PixelFormat.getIntArgbInstance(), pixels, 0, width);
     }
 
     public static void main(String[] args) {
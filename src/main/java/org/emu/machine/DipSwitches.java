@@ -0,0 +1,73 @@
+package org.emu.machine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+// DIP-переключатели платы Space Invaders (читаются через порт 2)
+public class DipSwitches {
+    private int lives = 3;
+    private int bonusLifeScore = 1500;
+    private boolean coinInfo = true;
+
+    public int getLives() {
+        return lives;
+    }
+
+    public void setLives(int lives) {
+        if (lives < 3 || lives > 6) {
+            throw new IllegalArgumentException("Число жизней должно быть от 3 до 6: " + lives);
+        }
+        this.lives = lives;
+    }
+
+    public int getBonusLifeScore() {
+        return bonusLifeScore;
+    }
+
+    public void setBonusLifeScore(int score) {
+        if (score != 1000 && score != 1500) {
+            throw new IllegalArgumentException("Бонусная жизнь возможна только на 1000 или 1500: " + score);
+        }
+        this.bonusLifeScore = score;
+    }
+
+    public boolean isCoinInfo() {
+        return coinInfo;
+    }
+
+    public void setCoinInfo(boolean coinInfo) {
+        this.coinInfo = coinInfo;
+    }
+
+    // Биты 0-1: жизни (3..6), бит 3: бонус (0 = 1500, 1 = 1000),
+    // бит 7: показ информации о монетах в демо-режиме (0 = показывать)
+    public int toPort2Bits() {
+        int bits = (lives - 3) & 0x03;
+        if (bonusLifeScore == 1000) bits |= 0x08;
+        if (!coinInfo) bits |= 0x80;
+        return bits;
+    }
+
+    // Профиль автомата: lives=3..6, bonusLife=1000|1500, coinInfo=true|false
+    public static DipSwitches fromProperties(Properties props) {
+        DipSwitches dips = new DipSwitches();
+        String value = props.getProperty("lives");
+        if (value != null) dips.setLives(Integer.parseInt(value.trim()));
+        value = props.getProperty("bonusLife");
+        if (value != null) dips.setBonusLifeScore(Integer.parseInt(value.trim()));
+        value = props.getProperty("coinInfo");
+        if (value != null) dips.setCoinInfo(Boolean.parseBoolean(value.trim()));
+        return dips;
+    }
+
+    public static DipSwitches load(Path profile) throws IOException {
+        Properties props = new Properties();
+        try (InputStream is = Files.newInputStream(profile)) {
+            props.load(is);
+        }
+        return fromProperties(props);
+    }
+}
@@ -0,0 +1,79 @@
+package org.emu.machine;
+
+import org.emu.mem.RomSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Быстрый старт: вместо прогона инициализации ROM после cpu.reset()
+// восстанавливается заранее записанное состояние автомата в демо-режиме.
+// Снимок пересобирается из ROM командой mvn -Pboot-snapshot process-classes.
+public final class FastBoot {
+    public static final String RESOURCE = "/snapshots/invaders-boot.state";
+    // Инициализация RAM и экрана занимает первые кадры; запас до устойчивого демо-режима
+    public static final int BOOT_FRAMES = 60;
+
+    private static volatile MachineState snapshot;
+
+    private FastBoot() {
+    }
+
+    // Снимок читается один раз на JVM; автоматы только копируют его в себя
+    public static MachineState getSnapshot() throws IOException {
+        MachineState state = snapshot;
+        if (state == null) {
+            synchronized (FastBoot.class) {
+                state = snapshot;
+                if (state == null) {
+                    state = read();
+                    snapshot = state;
+                }
+            }
+        }
+        return state;
+    }
+
+    private static MachineState read() throws IOException {
+        InputStream is = FastBoot.class.getResourceAsStream(RESOURCE);
+        if (is == null) {
+            throw new IOException("Снимок быстрого старта не найден: " + RESOURCE);
+        }
+        MachineState state = new MachineState();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            state.read(in, RomSet.getDefault().getChecksum());
+        }
+        return state;
+    }
+
+    // Генерация снимка: args[0] - путь к файлу, args[1] - число кадров (необязательно)
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Использование: FastBoot <файл снимка> [кадров]");
+            System.exit(1);
+        }
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : BOOT_FRAMES;
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        for (int i = 0; i < frames; i++) {
+            machine.executeFrame();
+        }
+        MachineState state = new MachineState();
+        machine.saveState(state);
+        Path out = Path.of(args[0]);
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        try (OutputStream os = Files.newOutputStream(out);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(os))) {
+            state.write(data, RomSet.getDefault().getChecksum());
+        }
+        System.out.println("Снимок быстрого старта записан: " + out + " (" + frames + " кадров)");
+    }
+}
@@ -0,0 +1,109 @@
+package org.emu.machine;
+
+import org.emu.mem.Memory;
+
+// Представление переменных игры Space Invaders только для чтения.
+// Значения декодируются прямо из памяти автомата при каждом вызове, без копий.
+public class GameState {
+    public static final int PLAYER1_ALIVE = 0x20E7;
+    public static final int PLAYER2_ALIVE = 0x20E8;
+    public static final int NUM_COINS     = 0x20EB;
+    public static final int GAME_MODE     = 0x20EF;
+    public static final int HI_SCORE_LSB  = 0x20F4;
+    public static final int HI_SCORE_MSB  = 0x20F5;
+    public static final int P1_SCORE_LSB  = 0x20F8;
+    public static final int P1_SCORE_MSB  = 0x20F9;
+    public static final int P2_SCORE_LSB  = 0x20FC;
+    public static final int P2_SCORE_MSB  = 0x20FD;
+    public static final int P1_SHIPS      = 0x21FF;
+    public static final int P2_SHIPS      = 0x22FF;
+
+    public enum Field {
+        PLAYER1_ALIVE, PLAYER2_ALIVE, CREDITS, GAME_MODE, HIGH_SCORE, P1_SCORE, P2_SCORE, P1_SHIPS, P2_SHIPS
+    }
+
+    public interface ChangeListener {
+        void onChange(Field field, GameState state);
+    }
+
+    private final Memory memory;
+    private Memory.WriteListener writeListener;
+
+    public GameState(Memory memory) {
+        this.memory = memory;
+    }
+
+    public int getScore(int player) {
+        return player == 2 ? bcdWord(P2_SCORE_LSB) : bcdWord(P1_SCORE_LSB);
+    }
+
+    public int getHighScore() {
+        return bcdWord(HI_SCORE_LSB);
+    }
+
+    public int getCredits() {
+        return bcd(memory.readByte(NUM_COINS));
+    }
+
+    // Запасные корабли плюс текущий, если игрок ещё в игре
+    public int getLives(int player) {
+        if (!isPlayerAlive(player)) {
+            return 0;
+        }
+        return memory.readByte(player == 2 ? P2_SHIPS : P1_SHIPS) + 1;
+    }
+
+    public boolean isPlayerAlive(int player) {
+        return memory.readByte(player == 2 ? PLAYER2_ALIVE : PLAYER1_ALIVE) != 0;
+    }
+
+    public boolean isGameRunning() {
+        return memory.readByte(GAME_MODE) != 0;
+    }
+
+    // Подписка на изменения переменных. Проверка встроена в Memory.writeByte
+    // и срабатывает только для адресов перечисленных выше полей; подписки
+    // других компонентов на ту же память не затрагиваются.
+    public void setChangeListener(ChangeListener listener) {
+        if (writeListener != null) {
+            memory.removeWriteListener(writeListener);
+            writeListener = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        writeListener = (address, value) -> listener.onChange(fieldAt(address), this);
+        memory.addWriteListener(writeListener, PLAYER1_ALIVE, PLAYER2_ALIVE, NUM_COINS, GAME_MODE,
+                HI_SCORE_LSB, HI_SCORE_MSB, P1_SCORE_LSB, P1_SCORE_MSB, P2_SCORE_LSB, P2_SCORE_MSB, P1_SHIPS, P2_SHIPS);
+    }
+
+    private static Field fieldAt(int address) {
+        switch (address) {
+            case PLAYER1_ALIVE: return Field.PLAYER1_ALIVE;
+            case PLAYER2_ALIVE: return Field.PLAYER2_ALIVE;
+            case NUM_COINS:     return Field.CREDITS;
+            case GAME_MODE:     return Field.GAME_MODE;
+            case HI_SCORE_LSB:
+            case HI_SCORE_MSB:  return Field.HIGH_SCORE;
+            case P1_SCORE_LSB:
+            case P1_SCORE_MSB:  return Field.P1_SCORE;
+            case P2_SCORE_LSB:
+            case P2_SCORE_MSB:  return Field.P2_SCORE;
+            case P1_SHIPS:      return Field.P1_SHIPS;
+            default:            return Field.P2_SHIPS;
+        }
+    }
+
+    // Счёт хранится в BCD: 4 десятичные цифры в двух байтах (младший байт первым)
+    private int bcdWord(int lsbAddress) {
+        return bcdWord(memory.readByte(lsbAddress), memory.readByte(lsbAddress + 1));
+    }
+
+    static int bcdWord(int lsb, int msb) {
+        return bcd(msb) * 100 + bcd(lsb);
+    }
+
+    private static int bcd(int b) {
+        return ((b >> 4) & 0x0F) * 10 + (b & 0x0F);
+    }
+}
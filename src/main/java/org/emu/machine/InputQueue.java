@@ -0,0 +1,140 @@
+package org.emu.machine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.emu.machine.SpaceInvadersMachine.Button;
+
+// Очередь ввода с отметками времени хоста. Поток интерфейса кладёт нажатия в
+// момент события, а цикл эмуляции перед каждым кадром переводит время
+// нажатия внутри прошлого интервала кадров хоста в такт кадра эмуляции.
+// Задержка ввода при этом постоянна (один кадр хоста), а расстояние между
+// нажатиями внутри кадра сохраняется. Применённые события можно записать
+// и воспроизвести тем же путём, уже без зависимости от времени хоста.
+public class InputQueue {
+    // Нажатия старше этого интервала попадают в начало кадра
+    private static final long MAX_INTERVAL_NANOS = 50_000_000L;
+
+    public static final class Event {
+        private final long frame;
+        private final int cycle;
+        private final Button button;
+        private final boolean pressed;
+
+        public Event(long frame, int cycle, Button button, boolean pressed) {
+            if (cycle < 0 || cycle >= SpaceInvadersMachine.FRAME_CYCLES) {
+                throw new IllegalArgumentException("Такт вне кадра: " + cycle);
+            }
+            this.frame = frame;
+            this.cycle = cycle;
+            this.button = button;
+            this.pressed = pressed;
+        }
+
+        public long getFrame() {
+            return frame;
+        }
+
+        public int getCycle() {
+            return cycle;
+        }
+
+        public Button getButton() {
+            return button;
+        }
+
+        public boolean isPressed() {
+            return pressed;
+        }
+
+        @Override
+        public String toString() {
+            return frame + ":" + cycle + " " + button + (pressed ? " down" : " up");
+        }
+    }
+
+    private static final class Posted {
+        final long nanos;
+        final Button button;
+        final boolean pressed;
+
+        Posted(long nanos, Button button, boolean pressed) {
+            this.nanos = nanos;
+            this.button = button;
+            this.pressed = pressed;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Posted> posted = new ConcurrentLinkedQueue<>();
+    private final List<Event> replay;
+    private int replayIndex;
+    private List<Event> recording;
+    private long frame;
+    private long previousNanos = Long.MIN_VALUE;
+
+    public InputQueue() {
+        this.replay = null;
+    }
+
+    private InputQueue(List<Event> replay) {
+        this.replay = replay;
+    }
+
+    // Очередь, которая вместо событий хоста выдаёт записанные (по кадрам и тактам)
+    public static InputQueue replay(List<Event> events) {
+        List<Event> sorted = new ArrayList<>(events);
+        sorted.sort((a, b) -> a.frame != b.frame ? Long.compare(a.frame, b.frame) : Integer.compare(a.cycle, b.cycle));
+        return new InputQueue(sorted);
+    }
+
+    // Вызывается из любого потока в момент события
+    public void post(Button button, boolean pressed) {
+        post(System.nanoTime(), button, pressed);
+    }
+
+    public void post(long nanos, Button button, boolean pressed) {
+        posted.add(new Posted(nanos, button, pressed));
+    }
+
+    // Применённые события будут добавляться в список (null - не записывать)
+    public void setRecording(List<Event> recording) {
+        this.recording = recording;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    // Назначает автомату события для следующего кадра; nowNanos - время
+    // начала этого кадра по часам System.nanoTime()
+    public void beginFrame(SpaceInvadersMachine machine, long nowNanos) {
+        if (replay != null) {
+            while (replayIndex < replay.size() && replay.get(replayIndex).frame <= frame) {
+                Event event = replay.get(replayIndex++);
+                if (event.frame == frame) {
+                    schedule(machine, event);
+                }
+            }
+        } else {
+            long start = Math.max(previousNanos, nowNanos - MAX_INTERVAL_NANOS);
+            long interval = Math.max(1, nowNanos - start);
+            Posted next;
+            while ((next = posted.peek()) != null && next.nanos < nowNanos) {
+                posted.poll();
+                long offset = Math.max(0, next.nanos - start);
+                int cycle = (int) (offset * SpaceInvadersMachine.FRAME_CYCLES / interval);
+                schedule(machine, new Event(frame, cycle, next.button, next.pressed));
+            }
+            previousNanos = nowNanos;
+        }
+        frame++;
+    }
+
+    private void schedule(SpaceInvadersMachine machine, Event event) {
+        machine.scheduleInput(event.cycle, event.button, event.pressed);
+        if (recording != null) {
+            recording.add(event);
+        }
+    }
+}
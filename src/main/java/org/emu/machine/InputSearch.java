@@ -0,0 +1,446 @@
+package org.emu.machine;
+
+import org.emu.cpu.CPU8080;
+import org.emu.mem.Memory;
+import org.emu.mem.RomSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// Параллельный поиск последовательностей ввода, приводящих игру в нужное
+// состояние. Узел поиска хранит RAM страницами по 256 байт: потомок делит с
+// родителем все страницы, в которые за шаг не было записи (копирование при
+// записи), поэтому снимок стоит несколько страниц, а не 8 КБ. Раскрытия узлов
+// распределяются по ForkJoinPool с перехватом работы; у каждого потока свой
+// автомат, и при загрузке узла в него копируются только страницы, которых
+// там ещё нет. Совпадающие состояния отсекаются по хэшу StateHasher без
+// входных портов. Результат не зависит от числа потоков.
+public class InputSearch implements AutoCloseable {
+    private static final int FIRST_PAGE = StateHasher.FIRST_PAGE;
+    private static final int PAGES = StateHasher.PAGES;
+    // Раскрытий на одну задачу пула; соседние раскрытия - братья с общими страницами
+    private static final int GRAIN = 4;
+
+    private static final Comparator<Node> BY_SCORE = Comparator.comparingDouble((Node n) -> n.score).reversed();
+
+    // Оценка узла по RAM: больше - лучше
+    public interface Objective {
+        double score(Node node);
+    }
+
+    public static final class Node {
+        final Node parent;
+        final int input;
+        final int depth;
+        final int[] cpu;
+        final int[] board;
+        final byte[][] pages;
+        final long[] pageHashes;
+        final long hash;
+        // Ключ поиска повторов
+        final long key;
+        double score;
+        boolean goal;
+
+        Node(Node parent, int input, int[] cpu, int[] board, byte[][] pages, long[] pageHashes) {
+            this.parent = parent;
+            this.input = input;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+            this.cpu = cpu;
+            this.board = board;
+            this.pages = pages;
+            this.pageHashes = pageHashes;
+            this.hash = StateHasher.combine(pageHashes, cpu, board);
+            this.key = key(pageHashes, cpu, board);
+        }
+
+        // Как хэш, но без портов 1 и 2: входы в них expand перезаписывает перед
+        // каждым шагом, поэтому состояния с одинаковыми RAM и CPU, пришедшие
+        // разным последним вводом, дальше ведут себя одинаково. Звуковые
+        // порты на эмуляцию не влияют и тоже не учитываются.
+        static long key(long[] pageHashes, int[] cpu, int[] board) {
+            int[] state = board.clone();
+            state[1] = 0;
+            state[2] = 0;
+            state[6] = 0;
+            state[7] = 0;
+            return StateHasher.combine(pageHashes, cpu, state);
+        }
+
+        public int readByte(int address) {
+            int offset = address - Memory.RAM_START;
+            if (offset < 0 || offset >= PAGES * Memory.PAGE_SIZE) {
+                throw new IllegalArgumentException(String.format("Адрес вне RAM: %04x", address));
+            }
+            return pages[offset >> Memory.PAGE_SHIFT][offset & (Memory.PAGE_SIZE - 1)] & 0xFF;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public boolean isGoal() {
+            return goal;
+        }
+
+        // Вход на каждом шаге от корня до этого узла
+        public int[] getInputs() {
+            int[] inputs = new int[depth];
+            for (Node n = this; n.parent != null; n = n.parent) {
+                inputs[n.depth - 1] = n.input;
+            }
+            return inputs;
+        }
+
+        public MachineState toMachineState() {
+            MachineState state = new MachineState();
+            System.arraycopy(cpu, 0, state.cpu, 0, cpu.length);
+            System.arraycopy(board, 0, state.board, 0, board.length);
+            for (int p = 0; p < PAGES; p++) {
+                System.arraycopy(pages[p], 0, state.ram, p * Memory.PAGE_SIZE, Memory.PAGE_SIZE);
+            }
+            return state;
+        }
+    }
+
+    public static final class Result {
+        public final Node best;
+        public final boolean goalReached;
+        public final long frames;
+        public final long duplicates;
+        public final long nanos;
+
+        Result(Node best, boolean goalReached, long frames, long duplicates, long nanos) {
+            this.best = best;
+            this.goalReached = goalReached;
+            this.frames = frames;
+            this.duplicates = duplicates;
+            this.nanos = nanos;
+        }
+
+        public double getFramesPerMinute() {
+            return nanos > 0 ? frames * 60e9 / nanos : 0;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int[] choices;
+    private final int framesPerStep;
+    private final Objective objective;
+    private final Predicate<Node> goal;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+    private final LongAdder frames = new LongAdder();
+    // Конфигурация автомата корня: автоматы потоков повторяют её
+    private DipSwitches dips;
+    private RomSet roms;
+
+    // choices - варианты входа игрока 1 (INPUT_*), каждый держится framesPerStep кадров
+    public InputSearch(int threads, int[] choices, int framesPerStep, Objective objective, Predicate<Node> goal) {
+        if (choices.length == 0 || framesPerStep < 1) {
+            throw new IllegalArgumentException("Нужен хотя бы один вариант входа и один кадр на шаг");
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.choices = choices.clone();
+        this.framesPerStep = framesPerStep;
+        this.objective = objective;
+        this.goal = goal;
+    }
+
+    // Корень поиска - текущее состояние автомата; автоматы потоков получают
+    // его DIP-переключатели и набор ROM
+    public Node root(SpaceInvadersMachine machine) {
+        if (machine.getRomSet() == null) {
+            throw new IllegalStateException("ROM автомата не загружены");
+        }
+        dips = machine.getDipSwitches();
+        roms = machine.getRomSet();
+        Memory memory = machine.getMemory();
+        byte[][] pages = new byte[PAGES][];
+        long[] hashes = new long[PAGES];
+        for (int p = 0; p < PAGES; p++) {
+            pages[p] = new byte[Memory.PAGE_SIZE];
+            memory.copyTo(Memory.RAM_START + p * Memory.PAGE_SIZE, pages[p], 0, Memory.PAGE_SIZE);
+            hashes[p] = StateHasher.hashPage(pages[p], p);
+        }
+        int[] cpu = new int[CPU8080.STATE_SIZE];
+        int[] board = new int[MachineState.BOARD_STATE_SIZE];
+        machine.getCPU().saveState(cpu);
+        machine.saveBoardState(board);
+        return evaluate(new Node(null, 0, cpu, board, pages, hashes));
+    }
+
+    // Поиск лучом: на каждом шаге раскрываются все узлы луча, из потомков без
+    // повторов остаются width лучших. Останавливается на первом шаге, где
+    // найдена цель (берётся лучший из достигших её узлов).
+    public Result beam(Node root, int maxDepth, int width) {
+        long start = System.nanoTime();
+        long startFrames = frames.sum();
+        long duplicates = 0;
+        Node best = root;
+        List<Node> frontier = List.of(root);
+        for (int depth = 0; depth < maxDepth && !frontier.isEmpty(); depth++) {
+            Node[] children = expandAll(frontier);
+            Map<Long, Node> unique = new HashMap<>(children.length * 2);
+            Node reached = null;
+            for (Node child : children) {
+                if (child.goal && (reached == null || child.score > reached.score)) {
+                    reached = child;
+                }
+                Node other = unique.putIfAbsent(child.key, child);
+                if (other != null) {
+                    duplicates++;
+                }
+            }
+            if (reached != null) {
+                return new Result(reached, true, frames.sum() - startFrames, duplicates, System.nanoTime() - start);
+            }
+            List<Node> next = new ArrayList<>(unique.values());
+            next.sort(BY_SCORE);
+            frontier = next.size() > width ? new ArrayList<>(next.subList(0, width)) : next;
+            // При равной оценке предпочитается более глубокий узел
+            if (!frontier.isEmpty() && frontier.get(0).score >= best.score) {
+                best = frontier.get(0);
+            }
+        }
+        return new Result(best, false, frames.sum() - startFrames, duplicates, System.nanoTime() - start);
+    }
+
+    // Поиск «сначала лучший»: за раз параллельно раскрываются batch лучших
+    // открытых узлов. Раскрытие - один узел со всеми вариантами входа.
+    // Множество посещённых хэшей растёт вместе с числом раскрытий, поэтому
+    // maxExpansions ограничивает и память.
+    public Result bestFirst(Node root, long maxExpansions, int batch) {
+        long start = System.nanoTime();
+        long startFrames = frames.sum();
+        long duplicates = 0;
+        long expanded = 0;
+        Node best = root;
+        PriorityQueue<Node> open = new PriorityQueue<>(BY_SCORE);
+        Set<Long> seen = new HashSet<>();
+        open.add(root);
+        seen.add(root.key);
+        while (!open.isEmpty() && expanded < maxExpansions) {
+            List<Node> parents = new ArrayList<>(batch);
+            while (parents.size() < batch && expanded + parents.size() < maxExpansions && !open.isEmpty()) {
+                parents.add(open.poll());
+            }
+            Node[] children = expandAll(parents);
+            expanded += parents.size();
+            Node reached = null;
+            for (Node child : children) {
+                if (!seen.add(child.key)) {
+                    duplicates++;
+                    continue;
+                }
+                if (child.goal && (reached == null || child.score > reached.score)) {
+                    reached = child;
+                }
+                if (child.score > best.score || child.score == best.score && child.depth > best.depth) {
+                    best = child;
+                }
+                open.add(child);
+            }
+            if (reached != null) {
+                return new Result(reached, true, frames.sum() - startFrames, duplicates, System.nanoTime() - start);
+            }
+        }
+        return new Result(best, false, frames.sum() - startFrames, duplicates, System.nanoTime() - start);
+    }
+
+    // Всего кадров, эмулированных этим поиском
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    private Node evaluate(Node node) {
+        node.score = objective.score(node);
+        node.goal = goal.test(node);
+        return node;
+    }
+
+    // Потомки в порядке (родитель, вариант входа) - порядок не зависит от потоков
+    private Node[] expandAll(List<Node> parents) {
+        Node[] out = new Node[parents.size() * choices.length];
+        pool.invoke(new Expand(parents, out, 0, out.length));
+        return out;
+    }
+
+    private final class Expand extends RecursiveAction {
+        private final List<Node> parents;
+        private final Node[] out;
+        private final int from;
+        private final int to;
+
+        Expand(List<Node> parents, Node[] out, int from, int to) {
+            this.parents = parents;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                Worker worker = workers.get();
+                for (int i = from; i < to; i++) {
+                    out[i] = worker.expand(parents.get(i / choices.length), choices[i % choices.length]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Expand(parents, out, from, mid), new Expand(parents, out, mid, to));
+        }
+    }
+
+    // Автомат потока пула. RAM автомата всегда совпадает со страницами loaded
+    private final class Worker {
+        private final SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        private final Memory memory = machine.getMemory();
+        private final long[] dirty = new long[Memory.PAGE_COUNT / 64];
+        private final byte[] scratch = new byte[Memory.PAGE_SIZE];
+        private byte[][] loaded = new byte[PAGES][];
+        private DipSwitches configuredDips;
+        private RomSet configuredRoms;
+
+        Node expand(Node parent, int input) {
+            configure();
+            load(parent);
+            machine.setPlayerInputs(input, 0);
+            for (int i = 0; i < framesPerStep; i++) {
+                machine.executeFrame();
+            }
+            frames.add(framesPerStep);
+
+            byte[][] pages = parent.pages.clone();
+            long[] hashes = parent.pageHashes.clone();
+            takeDirty();
+            for (int p = 0; p < PAGES; p++) {
+                int pageIndex = FIRST_PAGE + p;
+                if ((dirty[pageIndex >>> 6] & (1L << pageIndex)) == 0) {
+                    continue;
+                }
+                memory.copyTo(Memory.RAM_START + p * Memory.PAGE_SIZE, scratch, 0, Memory.PAGE_SIZE);
+                // Запись тех же значений страницу не меняет - она остаётся общей
+                if (!Arrays.equals(scratch, pages[p])) {
+                    pages[p] = scratch.clone();
+                    hashes[p] = StateHasher.hashPage(pages[p], p);
+                }
+            }
+            loaded = pages;
+            int[] cpu = new int[CPU8080.STATE_SIZE];
+            int[] board = new int[MachineState.BOARD_STATE_SIZE];
+            machine.getCPU().saveState(cpu);
+            machine.saveBoardState(board);
+            return evaluate(new Node(parent, input, cpu, board, pages, hashes));
+        }
+
+        // Переключатели и ROM корня; после смены ROM страницы RAM загружаются заново
+        private void configure() {
+            if (configuredDips != dips) {
+                machine.setDipSwitches(dips);
+                configuredDips = dips;
+            }
+            if (configuredRoms != roms) {
+                machine.loadRoms(roms);
+                memory.setDirtyTracking(true);
+                configuredRoms = roms;
+                loaded = new byte[PAGES][];
+            }
+        }
+
+        private void load(Node node) {
+            machine.getCPU().loadState(node.cpu);
+            machine.loadBoardState(node.board);
+            for (int p = 0; p < PAGES; p++) {
+                if (loaded[p] != node.pages[p]) {
+                    memory.copyFrom(node.pages[p], 0, Memory.RAM_START + p * Memory.PAGE_SIZE, Memory.PAGE_SIZE);
+                }
+            }
+            loaded = node.pages;
+            // Отметки от самой загрузки не нужны
+            takeDirty();
+        }
+
+        private void takeDirty() {
+            Arrays.fill(dirty, 0L);
+            memory.drainDirtyPages(dirty);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // Пример: InputSearch [шагов] [ширина луча] [потоков] - после монеты и
+    // старта ищется ввод, дающий игроку 1 как можно больше очков
+    public static void main(String[] args) throws IOException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.fastBoot();
+        startGame(machine);
+        int[] choices = {
+            0,
+            SpaceInvadersMachine.INPUT_LEFT,
+            SpaceInvadersMachine.INPUT_RIGHT,
+            SpaceInvadersMachine.INPUT_FIRE,
+            SpaceInvadersMachine.INPUT_LEFT | SpaceInvadersMachine.INPUT_FIRE,
+            SpaceInvadersMachine.INPUT_RIGHT | SpaceInvadersMachine.INPUT_FIRE,
+        };
+        // Очки игрока 1 (BCD); каждый запасной корабль дороже любых очков за шаг
+        Objective objective = node -> bcdWord(node, GameState.P1_SCORE_LSB) + 1000.0 * node.readByte(GameState.P1_SHIPS);
+        try (InputSearch search = new InputSearch(threads, choices, 4, objective, node -> false)) {
+            Result result = search.beam(search.root(machine), depth, width);
+            System.out.println(String.format(Locale.ROOT,
+                    "Лучший узел: шаг %d, очки %.0f; кадров %d за %.1f с (%.2f млн кадров/мин), повторов %d",
+                    result.best.getDepth(), result.best.getScore(), result.frames, result.nanos / 1e9,
+                    result.getFramesPerMinute() / 1e6, result.duplicates));
+            System.out.println("Ввод: " + Arrays.toString(result.best.getInputs()));
+        }
+    }
+
+    // Монета и старт одиночной игры
+    static void startGame(SpaceInvadersMachine machine) {
+        pulse(machine, SpaceInvadersMachine.INPUT_COIN);
+        pulse(machine, SpaceInvadersMachine.INPUT_START);
+    }
+
+    private static void pulse(SpaceInvadersMachine machine, int input) {
+        machine.setPlayerInputs(input, 0);
+        for (int i = 0; i < 5; i++) {
+            machine.executeFrame();
+        }
+        machine.setPlayerInputs(0, 0);
+        for (int i = 0; i < 30; i++) {
+            machine.executeFrame();
+        }
+    }
+
+    private static int bcdWord(Node node, int lsb) {
+        return GameState.bcdWord(node.readByte(lsb), node.readByte(lsb + 1));
+    }
+}
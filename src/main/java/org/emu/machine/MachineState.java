@@ -0,0 +1,73 @@
+package org.emu.machine;
+
+import org.emu.cpu.CPU8080;
+import org.emu.mem.Memory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Снимок состояния автомата. Массивы выделяются один раз, сохранение и
+// восстановление только копируют данные (регистры CPU, 8 КБ RAM, порты платы).
+public class MachineState {
+    public static final int BOARD_STATE_SIZE = 8;
+
+    private static final int MAGIC = 0x53493830; // "SI80"
+    private static final int VERSION = 2;
+    // В версии 1 не было звуковых портов (board[6], board[7])
+    private static final int V1_BOARD_STATE_SIZE = 6;
+
+    final int[] cpu = new int[CPU8080.STATE_SIZE];
+    final byte[] ram = new byte[Memory.RAM_END - Memory.RAM_START];
+    final int[] board = new int[BOARD_STATE_SIZE];
+
+    public int[] getCpuState() {
+        return cpu;
+    }
+
+    public byte[] getRam() {
+        return ram;
+    }
+
+    public int[] getBoardState() {
+        return board;
+    }
+
+    public void copyFrom(MachineState other) {
+        System.arraycopy(other.cpu, 0, cpu, 0, cpu.length);
+        System.arraycopy(other.ram, 0, ram, 0, ram.length);
+        System.arraycopy(other.board, 0, board, 0, board.length);
+    }
+
+    // Формат файла: MAGIC, версия, CRC32 набора ROM, регистры CPU, порты, RAM
+    public void write(DataOutput out, long romChecksum) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(romChecksum);
+        for (int v : cpu) {
+            out.writeInt(v);
+        }
+        for (int v : board) {
+            out.writeInt(v);
+        }
+        out.write(ram);
+    }
+
+    public void read(DataInput in, long romChecksum) throws IOException {
+        int version = in.readInt() == MAGIC ? in.readInt() : -1;
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Неизвестный формат снимка состояния");
+        }
+        if (in.readLong() != romChecksum) {
+            throw new IOException("Снимок состояния сделан для другого набора ROM");
+        }
+        for (int i = 0; i < cpu.length; i++) {
+            cpu[i] = in.readInt();
+        }
+        int boardSize = version == 1 ? V1_BOARD_STATE_SIZE : BOARD_STATE_SIZE;
+        for (int i = 0; i < board.length; i++) {
+            board[i] = i < boardSize ? in.readInt() : 0;
+        }
+        in.readFully(ram);
+    }
+}
@@ -0,0 +1,52 @@
+package org.emu.machine;
+
+import org.emu.sound.SoundEngine;
+
+// Run-ahead: после каждого настоящего кадра состояние сохраняется, автомат
+// прогоняется на несколько кадров вперёд с текущими входами, показывается
+// этот будущий кадр, и состояние откатывается. Задержка ввода, которую
+// создаёт покадровый опрос в ROM, сокращается на целые кадры.
+public class RunAhead {
+    public static final int MAX_FRAMES = 2;
+
+    private final SpaceInvadersMachine machine;
+    private final MachineState snapshot = new MachineState();
+    private int frames;
+
+    public RunAhead(SpaceInvadersMachine machine, int frames) {
+        this.machine = machine;
+        setFrames(frames);
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public void setFrames(int frames) {
+        if (frames < 0 || frames > MAX_FRAMES) {
+            throw new IllegalArgumentException("Run-ahead допускает от 0 до " + MAX_FRAMES + " кадров: " + frames);
+        }
+        this.frames = frames;
+    }
+
+    public void runFrame(Runnable present) {
+        machine.executeFrame();
+        if (frames == 0) {
+            present.run();
+            return;
+        }
+        machine.saveState(snapshot);
+        int watchdogResets = machine.getWatchdogResets();
+        // Звуки из будущих кадров не должны звучать: они повторятся после отката
+        SoundEngine sound = machine.getSoundEngine();
+        machine.setSoundEngine(null);
+        for (int i = 0; i < frames; i++) {
+            machine.executeFrame();
+        }
+        present.run();
+        machine.loadState(snapshot);
+        // Сброс в будущем кадре ещё не произошёл
+        machine.setWatchdogResets(watchdogResets);
+        machine.setSoundEngine(sound);
+    }
+}
@@ -0,0 +1,371 @@
+package org.emu.machine;
+
+import org.emu.cpu.CPU8080;
+import org.emu.mem.Memory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Хранилище снимков состояния с дедупликацией по содержимому. RAM снимка
+// делится на 256-байтные страницы; одинаковые страницы хранятся один раз в
+// pack-файле, таблицы из 8 ссылок на страницы - так же в groups.pack, а
+// запись состояния в states.idx занимает 42 байта: 4 ссылки на таблицы и
+// упакованные регистры CPU и порты платы. Состояния, отличающиеся в
+// нескольких страницах, добавляют только эти страницы. Все файлы только
+// дописываются и отображены в память, поэтому чтение идёт без копирования
+// (getPage), а номер страницы однозначно определяет её содержимое.
+// Запись - из одного потока за раз (put синхронизирован), чтение - из любых.
+public class SnapshotStore implements Closeable {
+    private static final int PAGE_SIZE = Memory.PAGE_SIZE;
+    private static final int PAGES = StateHasher.PAGES;
+    private static final int GROUP_PAGES = 8;
+    private static final int GROUPS = PAGES / GROUP_PAGES;
+    private static final int GROUP_SIZE = GROUP_PAGES * 4;
+    // Запись: ссылки на таблицы, затем A B C D E H L F, PC, SP, HLT|INTE<<1,
+    // порты 0-2, сдвиговый регистр, смещение сдвига, сторожевой таймер, звуковые порты 3 и 5
+    private static final int RECORD_SIZE = 42;
+    private static final int REGISTERS = GROUPS * 4;
+    private static final int DEFAULT_SEGMENT_BYTES = 1 << 26;
+    private static final int FULL_STATE_BYTES = PAGES * PAGE_SIZE
+            + 4 * (CPU8080.STATE_SIZE + MachineState.BOARD_STATE_SIZE);
+
+    private final PackFile pages;
+    private final PackFile groups;
+    private final PackFile records;
+    private final ContentTable pageTable;
+    private final ContentTable groupTable;
+    private final byte[] group = new byte[GROUP_SIZE];
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final MachineState scratch = new MachineState();
+
+    public SnapshotStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    // Файлы отображаются сегментами по segmentBytes (округляется вниз до целых записей)
+    SnapshotStore(Path directory, int segmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        pages = new PackFile(directory.resolve("pages.pack"), PAGE_SIZE, segmentBytes);
+        groups = new PackFile(directory.resolve("groups.pack"), GROUP_SIZE, segmentBytes);
+        records = new PackFile(directory.resolve("states.idx"), RECORD_SIZE, segmentBytes);
+        pageTable = new ContentTable(pages);
+        groupTable = new ContentTable(groups);
+    }
+
+    // Сохраняет состояние и возвращает его номер (номера идут подряд с 0)
+    public synchronized long put(MachineState state) {
+        // Сначала проверяются и упаковываются регистры: некорректное
+        // состояние не должно оставить в pack-файлах страниц без ссылок
+        int[] cpu = state.cpu;
+        for (int i = 0; i < 7; i++) {
+            record.put(REGISTERS + i, toByte(cpu[i]));
+        }
+        record.put(REGISTERS + 7, toByte(cpu[9]));
+        record.putShort(REGISTERS + 8, toShort(cpu[7]));
+        record.putShort(REGISTERS + 10, toShort(cpu[8]));
+        record.put(REGISTERS + 12, (byte) ((cpu[10] != 0 ? 1 : 0) | (cpu[11] != 0 ? 2 : 0)));
+        int[] board = state.board;
+        record.put(REGISTERS + 13, toByte(board[0]));
+        record.put(REGISTERS + 14, toByte(board[1]));
+        record.put(REGISTERS + 15, toByte(board[2]));
+        record.putShort(REGISTERS + 16, toShort(board[3]));
+        record.put(REGISTERS + 18, toByte(board[4]));
+        record.put(REGISTERS + 19, toByte(board[5]));
+        record.put(REGISTERS + 20, toByte(board[6]));
+        record.put(REGISTERS + 21, toByte(board[7]));
+        byte[] ram = state.ram;
+        for (int g = 0; g < GROUPS; g++) {
+            for (int k = 0; k < GROUP_PAGES; k++) {
+                long page = pageTable.intern(ram, (g * GROUP_PAGES + k) * PAGE_SIZE);
+                setInt(group, k * 4, (int) page);
+            }
+            record.putInt(g * 4, (int) groupTable.intern(group, 0));
+        }
+        return records.append(record.array(), 0);
+    }
+
+    public synchronized long put(SpaceInvadersMachine machine) {
+        machine.saveState(scratch);
+        return put(scratch);
+    }
+
+    public void get(long id, MachineState state) {
+        ByteBuffer segment = records.segment(checkId(id));
+        int base = records.offset(id);
+        for (int g = 0; g < GROUPS; g++) {
+            long groupId = Integer.toUnsignedLong(segment.getInt(base + g * 4));
+            ByteBuffer groupSegment = groups.segment(groupId);
+            int groupBase = groups.offset(groupId);
+            for (int k = 0; k < GROUP_PAGES; k++) {
+                long page = Integer.toUnsignedLong(groupSegment.getInt(groupBase + k * 4));
+                pages.segment(page).get(pages.offset(page), state.ram, (g * GROUP_PAGES + k) * PAGE_SIZE, PAGE_SIZE);
+            }
+        }
+        base += REGISTERS;
+        int[] cpu = state.cpu;
+        for (int i = 0; i < 7; i++) {
+            cpu[i] = segment.get(base + i) & 0xFF;
+        }
+        cpu[9] = segment.get(base + 7) & 0xFF;
+        cpu[7] = segment.getShort(base + 8) & 0xFFFF;
+        cpu[8] = segment.getShort(base + 10) & 0xFFFF;
+        cpu[10] = segment.get(base + 12) & 1;
+        cpu[11] = (segment.get(base + 12) >> 1) & 1;
+        int[] board = state.board;
+        board[0] = segment.get(base + 13) & 0xFF;
+        board[1] = segment.get(base + 14) & 0xFF;
+        board[2] = segment.get(base + 15) & 0xFF;
+        board[3] = segment.getShort(base + 16) & 0xFFFF;
+        board[4] = segment.get(base + 18) & 0xFF;
+        board[5] = segment.get(base + 19) & 0xFF;
+        board[6] = segment.get(base + 20) & 0xFF;
+        board[7] = segment.get(base + 21) & 0xFF;
+    }
+
+    // Номер страницы p (от RAM_START) состояния id в pack-файле: у страниц
+    // с одинаковым содержимым номер один и тот же
+    public long getPageId(long id, int p) {
+        if (p < 0 || p >= PAGES) {
+            throw new IllegalArgumentException("Нет страницы RAM " + p);
+        }
+        ByteBuffer segment = records.segment(checkId(id));
+        long groupId = Integer.toUnsignedLong(segment.getInt(records.offset(id) + p / GROUP_PAGES * 4));
+        return Integer.toUnsignedLong(groups.segment(groupId).getInt(groups.offset(groupId) + p % GROUP_PAGES * 4));
+    }
+
+    // Страница p состояния id без копирования: буфер только для чтения над pack-файлом
+    public ByteBuffer getPage(long id, int p) {
+        long page = getPageId(id, p);
+        return pages.segment(page).slice(pages.offset(page), PAGE_SIZE).asReadOnlyBuffer();
+    }
+
+    public long size() {
+        return records.count;
+    }
+
+    public long getUniquePages() {
+        return pages.count;
+    }
+
+    // Занято данными во всех файлах хранилища
+    public long getStoredBytes() {
+        return pages.count * PAGE_SIZE + groups.count * GROUP_SIZE + records.count * RECORD_SIZE;
+    }
+
+    // Столько заняли бы те же состояния полными снимками (RAM, регистры и порты)
+    public long getFullStateBytes() {
+        return records.count * FULL_STATE_BYTES;
+    }
+
+    // Сбрасывает отображённые страницы на диск
+    public synchronized void sync() {
+        pages.sync();
+        groups.sync();
+        records.sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        pages.close();
+        groups.close();
+        records.close();
+    }
+
+    private long checkId(long id) {
+        if (id < 0 || id >= records.count) {
+            throw new IllegalArgumentException("Нет состояния с номером " + id);
+        }
+        return id;
+    }
+
+    private static byte toByte(int value) {
+        if ((value & ~0xFF) != 0) {
+            throw new IllegalArgumentException("Значение не помещается в байт: " + value);
+        }
+        return (byte) value;
+    }
+
+    private static short toShort(int value) {
+        if ((value & ~0xFFFF) != 0) {
+            throw new IllegalArgumentException("Значение не помещается в 16 бит: " + value);
+        }
+        return (short) value;
+    }
+
+    private static void setInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+
+    // Файл записей одного размера, который только дописывается. Заголовок:
+    // MAGIC, версия, размер записи, число записей. Записи отображаются
+    // сегментами; сегмент добавляется, когда предыдущий заполнен.
+    private static final class PackFile implements Closeable {
+        private static final int MAGIC = 0x53495053; // "SIPS"
+        private static final int VERSION = 1;
+        private static final int HEADER = 64;
+        private static final int COUNT = 16;
+
+        final int entrySize;
+        private final int perSegment;
+        private final long segmentBytes;
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        volatile long count;
+
+        PackFile(Path file, int entrySize, int segmentBytes) throws IOException {
+            this.entrySize = entrySize;
+            this.perSegment = segmentBytes / entrySize;
+            if (perSegment < 1) {
+                throw new IllegalArgumentException("Сегмент меньше записи: " + segmentBytes);
+            }
+            this.segmentBytes = (long) perSegment * entrySize;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) == 0) {
+                header.putInt(4, VERSION);
+                header.putInt(8, entrySize);
+                header.putLong(COUNT, 0);
+                header.putInt(0, MAGIC);
+            } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != entrySize) {
+                channel.close();
+                throw new IOException("Неизвестный формат файла хранилища: " + file);
+            }
+            long stored = header.getLong(COUNT);
+            while ((long) segments.length * perSegment < stored) {
+                addSegment();
+            }
+            count = stored;
+        }
+
+        ByteBuffer segment(long index) {
+            return segments[(int) (index / perSegment)];
+        }
+
+        int offset(long index) {
+            return (int) (index % perSegment) * entrySize;
+        }
+
+        void read(long index, byte[] dst) {
+            segment(index).get(offset(index), dst, 0, entrySize);
+        }
+
+        // Вызывается под блокировкой хранилища. Сегмент публикуется раньше
+        // счётчика, поэтому читатель видит только записанные данные.
+        long append(byte[] src, int offset) {
+            long index = count;
+            if (index == (long) segments.length * perSegment) {
+                addSegment();
+            }
+            segment(index).put(offset(index), src, offset, entrySize);
+            count = index + 1;
+            header.putLong(COUNT, index + 1);
+            return index;
+        }
+
+        private void addSegment() {
+            MappedByteBuffer[] current = segments;
+            MappedByteBuffer[] next = Arrays.copyOf(current, current.length + 1);
+            try {
+                next[current.length] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER + current.length * segmentBytes, segmentBytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("Не удалось расширить файл хранилища", e);
+            }
+            next[current.length].order(ByteOrder.LITTLE_ENDIAN);
+            segments = next;
+        }
+
+        void sync() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            header.force();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Открытая адресация: хэш содержимого -> номер записи в pack-файле.
+    // Совпадение хэша проверяется сравнением байт, так что коллизии не
+    // склеивают разные страницы. При открытии таблица строится заново по файлу.
+    private static final class ContentTable {
+        private final PackFile pack;
+        private final byte[] stored;
+        private long[] hashes = new long[1 << 10];
+        private long[] refs = new long[1 << 10];
+        private int size;
+
+        ContentTable(PackFile pack) {
+            this.pack = pack;
+            this.stored = new byte[pack.entrySize];
+            for (long i = 0; i < pack.count; i++) {
+                pack.read(i, stored);
+                insert(StateHasher.hash(stored, 0, stored.length, 0), i);
+            }
+        }
+
+        // Номер записи с тем же содержимым; если такой нет, запись дописывается
+        long intern(byte[] data, int offset) {
+            long hash = StateHasher.hash(data, offset, pack.entrySize, 0);
+            int mask = hashes.length - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long ref = refs[slot];
+                if (ref == 0) {
+                    long index = pack.append(data, offset);
+                    insert(hash, index);
+                    return index;
+                }
+                if (hashes[slot] == hash && sameContent(ref - 1, data, offset)) {
+                    return ref - 1;
+                }
+            }
+        }
+
+        private boolean sameContent(long index, byte[] data, int offset) {
+            pack.read(index, stored);
+            return Arrays.equals(stored, 0, stored.length, data, offset, offset + stored.length);
+        }
+
+        private void insert(long hash, long index) {
+            if (++size * 2 > hashes.length) {
+                long[] oldHashes = hashes;
+                long[] oldRefs = refs;
+                hashes = new long[oldHashes.length * 2];
+                refs = new long[oldRefs.length * 2];
+                for (int i = 0; i < oldRefs.length; i++) {
+                    if (oldRefs[i] != 0) {
+                        place(oldHashes[i], oldRefs[i]);
+                    }
+                }
+            }
+            place(hash, index + 1);
+        }
+
+        private void place(long hash, long ref) {
+            int mask = hashes.length - 1;
+            int slot = (int) hash & mask;
+            while (refs[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            refs[slot] = ref;
+        }
+    }
+}
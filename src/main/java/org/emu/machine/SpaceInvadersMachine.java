@@ -1,32 +1,134 @@
 package org.emu.machine;
 
 import org.emu.cpu.CPU8080;
+import org.emu.cpu.CompiledRom;
+import org.emu.cpu.FusionTable;
 import org.emu.mem.Memory;
+import org.emu.mem.RomSet;
+import org.emu.sound.SoundEngine;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class SpaceInvadersMachine implements CPU8080.IOHandler {
+    // Сторожевой таймер платы сбрасывает CPU, если порт 6 не записывался ~255 кадров
+    public static final int WATCHDOG_FRAMES = 255;
+
+    // Байт входов одного игрока (для сетевой игры и записи повторов)
+    public static final int INPUT_COIN  = 0x01;
+    public static final int INPUT_START = 0x02;
+    public static final int INPUT_FIRE  = 0x10;
+    public static final int INPUT_LEFT  = 0x20;
+    public static final int INPUT_RIGHT = 0x40;
+
+    // Половина кадра: между прерываниями RST 1 и RST 2
+    public static final int HALF_FRAME_CYCLES = 16667;
+    public static final int FRAME_CYCLES = 2 * HALF_FRAME_CYCLES;
+
+    // Кнопки платы: порт и бит
+    public enum Button {
+        COIN(1, 0x01), START1(1, 0x04), START2(1, 0x02), FIRE(1, 0x10), LEFT(1, 0x20), RIGHT(1, 0x40),
+        TILT(2, 0x04), P2_FIRE(2, 0x10), P2_LEFT(2, 0x20), P2_RIGHT(2, 0x40);
+
+        final int port;
+        final int mask;
+
+        Button(int port, int mask) {
+            this.port = port;
+            this.mask = mask;
+        }
+    }
+
+    private static final Button[] BUTTONS = Button.values();
+
+    public interface InPort {
+        int read();
+    }
+
+    public interface OutPort {
+        void write(int value);
+    }
+
+    private static final InPort NO_INPUT = () -> 0;
+    private static final OutPort NO_OUTPUT = value -> { };
+
     private CPU8080 cpu;
     private Memory memory;
     private int port0;
     private int port1;
     private int port2;
+    private DipSwitches dips;
+    private int dipBits;
+    private RomSet romSet;
     private int shiftData;
     private int shiftOffset;
+    private int watchdogCounter;
+    private int watchdogResets;
+    // Последние значения, записанные в звуковые порты 3 и 5
+    private int soundPort3;
+    private int soundPort5;
+    private SoundEngine sound;
+    private final GameState gameState;
+    private final InPort[] inPorts = new InPort[256];
+    private final OutPort[] outPorts = new OutPort[256];
+    // Нажатия, назначенные на такты следующего кадра, по возрастанию такта:
+    // такт << 32 | кнопка << 1 | нажата
+    private long[] scheduledInputs = new long[16];
+    private int scheduledCount;
 
     public SpaceInvadersMachine() {
-        this.memory = new Memory();
+        this(new DipSwitches());
+    }
+
+    public SpaceInvadersMachine(DipSwitches dips) {
+        this(new Memory(), dips);
+    }
+
+    // Память можно передать снаружи, например OffHeapMemory для общего доступа из другого процесса
+    public SpaceInvadersMachine(Memory memory, DipSwitches dips) {
+        this.memory = memory;
         this.cpu = new CPU8080(memory);
         cpu.setIOHandler(this);
+        this.gameState = new GameState(memory);
+        resetPorts();
+        setDipSwitches(dips);
+        initPorts();
+    }
+
+    private void resetPorts() {
         port0 = 0x00;
         port0 |= 0x02;
         port0 |= 0x04;
         port1 = 0x00;
         port1 |= 0x08;
         port2 = 0x00;
-        port2 |= 0x00;
         shiftData = 0;
         shiftOffset = 0;
+        watchdogCounter = 0;
+        soundPort3 = 0;
+        soundPort5 = 0;
+        syncSound();
+    }
+
+    private void initPorts() {
+        Arrays.fill(inPorts, NO_INPUT);
+        Arrays.fill(outPorts, NO_OUTPUT);
+        inPorts[0] = () -> port0;
+        inPorts[1] = () -> port1;
+        inPorts[2] = () -> port2 | dipBits;
+        inPorts[3] = () -> (shiftData >> (8 - shiftOffset)) & 0xFF;
+        outPorts[2] = value -> shiftOffset = value & 0x07;
+        outPorts[3] = value -> {
+            soundPort3 = value;
+            if (sound != null) sound.writePort3(value);
+        };
+        outPorts[4] = value -> shiftData = (value << 8) | ((shiftData >> 8) & 0xFF);
+        outPorts[5] = value -> {
+            soundPort5 = value;
+            if (sound != null) sound.writePort5(value);
+        };
+        outPorts[6] = value -> watchdogCounter = 0;
+        // Порт 7 на плате не подключён
     }
 
     public CPU8080 getCPU() {
@@ -36,52 +138,134 @@ public class SpaceInvadersMachine implements CPU8080.IOHandler {
         return memory;
     }
 
+    public GameState getGameState() {
+        return gameState;
+    }
+
+    public SoundEngine getSoundEngine() {
+        return sound;
+    }
+
+    // Подключённый звук принимает текущие значения портов 3 и 5 без фронтов
+    public void setSoundEngine(SoundEngine sound) {
+        this.sound = sound;
+        syncSound();
+    }
+
+    private void syncSound() {
+        if (sound != null) {
+            sound.syncPorts(soundPort3, soundPort5);
+        }
+    }
+
+    public void setDipSwitches(DipSwitches dips) {
+        this.dips = dips;
+        dipBits = dips.toPort2Bits();
+    }
+
+    public DipSwitches getDipSwitches() {
+        return dips;
+    }
+
+    // Набор ROM, загруженный последним; null, пока ROM не загружены
+    public RomSet getRomSet() {
+        return romSet;
+    }
+
+    public void setInPort(int port, InPort handler) {
+        inPorts[port & 0xFF] = handler != null ? handler : NO_INPUT;
+    }
+
+    public void setOutPort(int port, OutPort handler) {
+        outPorts[port & 0xFF] = handler != null ? handler : NO_OUTPUT;
+    }
+
+    public int getWatchdogResets() {
+        return watchdogResets;
+    }
+
+    // Счётчик сбросов - статистика, а не состояние платы, и в снимок не входит:
+    // код, откатывающий автомат к снимку, восстанавливает его сам
+    public void setWatchdogResets(int watchdogResets) {
+        this.watchdogResets = watchdogResets;
+    }
+
     public void loadRoms() throws IOException {
-        memory.loadROMs();
+        loadRoms(RomSet.getDefault());
+    }
+
+    // Загрузка ROM и восстановление снимка состояния после инициализации
+    public void fastBoot() throws IOException {
+        RomSet roms = RomSet.getDefault();
+        memory.loadROMs(roms);
+        romSet = roms;
+        cpu.setFusionTable(FusionTable.forRomSet(roms));
+        cpu.setCompiledRom(CompiledRom.forRomSet(roms));
+        loadState(FastBoot.getSnapshot());
+    }
+
+    public void loadRoms(RomSet roms) {
+        memory.loadROMs(roms);
+        romSet = roms;
+        cpu.setFusionTable(FusionTable.forRomSet(roms));
+        cpu.setCompiledRom(CompiledRom.forRomSet(roms));
         cpu.reset();
         cpu.enableInterrupts();
-}
+    }
+
+    // Холодный перезапуск без перезагрузки ROM: RAM очищается, входы отпускаются
+    public void reset() {
+        memory.clearRam();
+        resetPorts();
+        cpu.reset();
+        cpu.enableInterrupts();
+    }
+
+    public void saveState(MachineState state) {
+        cpu.saveState(state.cpu);
+        memory.copyRam(state.ram);
+        saveBoardState(state.board);
+    }
+
+    // Порты, сдвиговый регистр, сторожевой счётчик и звуковые порты в формате MachineState.getBoardState()
+    public void saveBoardState(int[] board) {
+        board[0] = port0;
+        board[1] = port1;
+        board[2] = port2;
+        board[3] = shiftData;
+        board[4] = shiftOffset;
+        board[5] = watchdogCounter;
+        board[6] = soundPort3;
+        board[7] = soundPort5;
+    }
+
+    public void loadState(MachineState state) {
+        cpu.loadState(state.cpu);
+        memory.restoreRam(state.ram);
+        loadBoardState(state.board);
+    }
+
+    public void loadBoardState(int[] board) {
+        port0 = board[0];
+        port1 = board[1];
+        port2 = board[2];
+        shiftData = board[3];
+        shiftOffset = board[4];
+        watchdogCounter = board[5];
+        soundPort3 = board[6];
+        soundPort5 = board[7];
+        // После восстановления фронты считаются от восстановленных значений
+        syncSound();
+    }
 
     @Override
     public int portIn(int port) {
-        port &= 0xFF;
-        switch (port) {
-            case 0:  return port0;
-            case 1:  return port1;
-            case 2:  return port2;
-            case 3:
-            {
-                int result = (shiftData >> (8 - shiftOffset)) & 0xFF;
-                return result;
-            }
-            case 4:
-            case 5:
-            case 6:
-            default:
-                return 0;
-        }
+        return inPorts[port & 0xFF].read();
     }
 
     @Override
     public void portOut(int port, int value) {
-        port &= 0xFF;
-        value &= 0xFF;
-        switch (port) {
-            case 2:
-                shiftOffset = value & 0x07;
-                break;
-            case 3:
-                break;
-            case 4:
-                shiftData = ((value & 0xFF) << 8) | ((shiftData >> 8) & 0xFF);
-                break;
-            case 5:
-                break;
-            case 6:
-                break;
-            case 7:
-                break;
-        }
+        outPorts[port & 0xFF].write(value & 0xFF);
     }
 
     public void setCoinInserted(boolean inserted) {
@@ -114,17 +298,107 @@ public class SpaceInvadersMachine implements CPU8080.IOHandler {
         else port1 &= ~0x10;
     }
 
-    public void executeFrame() {
-        int cyclesPerHalfFrame = 16667;
-        int cycles = 0;
-        while (cycles < cyclesPerHalfFrame) {
-            cycles += cpu.executeInstruction();
+    public void setTilt(boolean tilt) {
+        if (tilt) port2 |= 0x04;
+        else port2 &= ~0x04;
+    }
+
+    public void setP2FirePressed(boolean pressed) {
+        if (pressed) port2 |= 0x10;
+        else port2 &= ~0x10;
+    }
+
+    public void setP2LeftPressed(boolean pressed) {
+        if (pressed) port2 |= 0x20;
+        else port2 &= ~0x20;
+    }
+
+    public void setP2RightPressed(boolean pressed) {
+        if (pressed) port2 |= 0x40;
+        else port2 &= ~0x40;
+    }
+
+    // Выставляет порты 1 и 2 целиком по входам обоих игроков; наклон сохраняется
+    public void setPlayerInputs(int p1, int p2) {
+        int controls = INPUT_FIRE | INPUT_LEFT | INPUT_RIGHT;
+        port1 = 0x08 | (p1 & controls) | ((p1 | p2) & INPUT_COIN)
+                | ((p1 & INPUT_START) << 1) | (p2 & INPUT_START);
+        port2 = (port2 & 0x04) | (p2 & controls);
+    }
+
+    public void setButton(Button button, boolean pressed) {
+        if (button.port == 1) {
+            if (pressed) port1 |= button.mask;
+            else port1 &= ~button.mask;
+        } else {
+            if (pressed) port2 |= button.mask;
+            else port2 &= ~button.mask;
+        }
+    }
+
+    // Назначает нажатие или отпускание на такт cycle следующего кадра (от 0 до
+    // FRAME_CYCLES). executeFrame() делит бюджет CPU так, что кнопка меняется
+    // на границе первой команды, начинающейся не раньше этого такта.
+    // События одного такта применяются в порядке назначения.
+    public void scheduleInput(int cycle, Button button, boolean pressed) {
+        if (cycle < 0 || cycle >= FRAME_CYCLES) {
+            throw new IllegalArgumentException("Такт вне кадра: " + cycle);
+        }
+        if (scheduledCount == scheduledInputs.length) {
+            scheduledInputs = Arrays.copyOf(scheduledInputs, scheduledCount * 2);
         }
-        cpu.requestInterrupt(1);
-        cycles = 0;
-        while (cycles < cyclesPerHalfFrame) {
-            cycles += cpu.executeInstruction();
+        long event = (long) cycle << 32 | button.ordinal() << 1 | (pressed ? 1 : 0);
+        int i = scheduledCount++;
+        while (i > 0 && scheduledInputs[i - 1] >>> 32 > cycle) {
+            scheduledInputs[i] = scheduledInputs[i - 1];
+            i--;
+        }
+        scheduledInputs[i] = event;
+    }
+
+    public void executeFrame() {
+        if (scheduledCount == 0) {
+            cpu.run(HALF_FRAME_CYCLES);
+            cpu.requestInterrupt(1);
+            cpu.run(HALF_FRAME_CYCLES);
+        } else {
+            int next = runHalfFrame(0, 0);
+            cpu.requestInterrupt(1);
+            runHalfFrame(HALF_FRAME_CYCLES, next);
+            scheduledCount = 0;
         }
         cpu.requestInterrupt(2);
+        if (++watchdogCounter >= WATCHDOG_FRAMES) {
+            // Программа зависла: плата перезапускает CPU, содержимое RAM сохраняется
+            watchdogCounter = 0;
+            watchdogResets++;
+            cpu.reset();
+            cpu.enableInterrupts();
+        }
+    }
+
+    // Выполняет половину кадра, начинающуюся с такта start, останавливаясь на
+    // тактах назначенных событий. Как и без событий, перебор тактов в конце
+    // первой половины не переносится во вторую. Возвращает индекс первого
+    // неприменённого события.
+    private int runHalfFrame(int start, int next) {
+        int end = start + HALF_FRAME_CYCLES;
+        int position = start;
+        while (next < scheduledCount) {
+            long event = scheduledInputs[next];
+            int cycle = (int) (event >>> 32);
+            if (cycle >= end) {
+                break;
+            }
+            if (cycle > position) {
+                position += cpu.run(cycle - position);
+            }
+            setButton(BUTTONS[(int) event >>> 1], (event & 1) != 0);
+            next++;
+        }
+        if (position < end) {
+            cpu.run(end - position);
+        }
+        return next;
     }
 }
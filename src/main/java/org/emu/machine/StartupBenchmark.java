@@ -0,0 +1,59 @@
+package org.emu.machine;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Locale;
+
+// Замер холодного старта для коротких пакетных задач: время от запуска
+// процесса до первого кадра. Тот же прогон служит тренировочным для архива
+// AppCDS (mvn -Pappcds verify) и точкой входа образа native-image (-Pnative).
+// Запуск: StartupBenchmark [кадров] [--cold]; --cold - прогон инициализации
+// ROM вместо снимка быстрого старта.
+public final class StartupBenchmark {
+    private static final int DEFAULT_FRAMES = 60;
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        long mainNanos = System.nanoTime();
+        long mainMillis = System.currentTimeMillis();
+        boolean cold = false;
+        int frames = DEFAULT_FRAMES;
+        for (String arg : args) {
+            if (arg.equals("--cold")) {
+                cold = true;
+            } else {
+                frames = Integer.parseInt(arg);
+            }
+        }
+        if (frames < 1) {
+            throw new IllegalArgumentException("Число кадров должно быть положительным: " + frames);
+        }
+        // Время запуска процесса известно с точностью до тика планировщика;
+        // если ОС его не сообщает, отсчёт идёт от входа в main
+        long processStart = ProcessHandle.current().info().startInstant()
+                .map(Instant::toEpochMilli).orElse(mainMillis);
+
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        if (cold) {
+            machine.loadRoms();
+        } else {
+            machine.fastBoot();
+        }
+        long loaded = System.nanoTime();
+        machine.executeFrame();
+        long firstFrame = System.nanoTime();
+        for (int i = 1; i < frames; i++) {
+            machine.executeFrame();
+        }
+        long done = System.nanoTime();
+
+        long toFirstFrame = mainMillis - processStart + (firstFrame - mainNanos) / 1_000_000;
+        System.out.println(String.format(Locale.ROOT,
+                "запуск -> main: %d мс, загрузка%s: %.1f мс, первый кадр: %.1f мс, %d кадров: %.1f мс",
+                mainMillis - processStart, cold ? " ROM" : " снимка", (loaded - mainNanos) / 1e6,
+                (firstFrame - loaded) / 1e6, frames, (done - loaded) / 1e6));
+        System.out.println("До первого кадра от запуска процесса: " + toFirstFrame + " мс");
+    }
+}
@@ -0,0 +1,116 @@
+package org.emu.machine;
+
+import org.emu.mem.RomSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Журнал хэшей состояния по кадрам для проверки детерминизма между сборками.
+// Формат: MAGIC, версия, CRC32 набора ROM, затем 8 байт хэша на каждый кадр.
+public class StateHashLog implements Closeable {
+    private static final int MAGIC = 0x5348484C; // "SHHL"
+    private static final int VERSION = 1;
+
+    // Сценарий для record: монета, старт, затем стрельба и движение по кругу
+    private static final int COIN_FRAME = 100;
+    private static final int START_FRAME = 130;
+    private static final int PLAY_FRAME = 200;
+
+    private final DataOutputStream out;
+
+    public StateHashLog(Path file, long romChecksum) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(romChecksum);
+    }
+
+    public void append(long hash) throws IOException {
+        out.writeLong(hash);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public static long[] read(Path file, long romChecksum) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Неизвестный формат журнала хэшей: " + file);
+            }
+            if (in.readLong() != romChecksum) {
+                throw new IOException("Журнал записан для другого набора ROM: " + file);
+            }
+            long[] hashes = new long[(int) Math.max(0, (Files.size(file) - 16) / 8)];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = in.readLong();
+            }
+            return hashes;
+        } catch (EOFException e) {
+            throw new IOException("Журнал хэшей обрезан: " + file, e);
+        }
+    }
+
+    // Первый кадр, на котором журналы расходятся; -1, если они совпадают.
+    // Если один журнал короче, расхождением считается кадр сразу за его концом.
+    public static int firstDivergence(long[] a, long[] b) {
+        return Arrays.mismatch(a, b);
+    }
+
+    // Ввод сценария record для кадра frame; по нему же сверяются режимы исполнения CPU
+    public static int scriptedInput(int frame) {
+        int input = 0;
+        if (frame >= COIN_FRAME && frame < COIN_FRAME + 3) input |= SpaceInvadersMachine.INPUT_COIN;
+        if (frame >= START_FRAME && frame < START_FRAME + 3) input |= SpaceInvadersMachine.INPUT_START;
+        if (frame > PLAY_FRAME) {
+            if ((frame / 7) % 2 == 0) input |= SpaceInvadersMachine.INPUT_FIRE;
+            input |= (frame / 90) % 2 == 0 ? SpaceInvadersMachine.INPUT_LEFT : SpaceInvadersMachine.INPUT_RIGHT;
+        }
+        return input;
+    }
+
+    // record <журнал> <кадров>: прогнать сценарий и записать хэш каждого кадра
+    // compare <журнал A> <журнал B>: найти первый расходящийся кадр (код выхода 1)
+    public static void main(String[] args) throws IOException {
+        long romChecksum = RomSet.getDefault().getChecksum();
+        if (args.length == 3 && args[0].equals("record")) {
+            int frames = Integer.parseInt(args[2]);
+            SpaceInvadersMachine machine = new SpaceInvadersMachine();
+            machine.loadRoms();
+            StateHasher hasher = new StateHasher(machine);
+            try (StateHashLog log = new StateHashLog(Path.of(args[1]), romChecksum)) {
+                for (int frame = 0; frame < frames; frame++) {
+                    machine.setPlayerInputs(scriptedInput(frame), 0);
+                    machine.executeFrame();
+                    log.append(hasher.hash());
+                }
+            }
+            System.out.println("Записано кадров: " + frames);
+        } else if (args.length == 3 && args[0].equals("compare")) {
+            long[] a = read(Path.of(args[1]), romChecksum);
+            long[] b = read(Path.of(args[2]), romChecksum);
+            int frame = firstDivergence(a, b);
+            if (frame < 0) {
+                System.out.println("Журналы совпадают: " + a.length + " кадров");
+                return;
+            }
+            System.out.println("Первое расхождение на кадре " + frame
+                    + (frame < a.length && frame < b.length
+                        ? String.format(": %016x != %016x", a[frame], b[frame])
+                        : " (журналы разной длины: " + a.length + " и " + b.length + ")"));
+            System.exit(1);
+        } else {
+            System.err.println("Использование: StateHashLog record <журнал> <кадров> | compare <журнал A> <журнал B>");
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.emu.machine;
+
+import org.emu.cpu.CPU8080;
+import org.emu.mem.Memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Инкрементальный хэш состояния автомата: регистры и флаги CPU, порты платы и
+// RAM. Хэш каждой 256-байтной страницы RAM хранится и пересчитывается только
+// для страниц, в которые была запись (отслеживание записи в Memory включается
+// конструктором), поэтому кадр обходится в несколько страниц, а не в полные 8 КБ.
+// Отметки записи сбрасываются при чтении, поэтому у памяти может быть только
+// один такой потребитель: второй хэшер на той же памяти отвергается.
+public class StateHasher {
+    static final int FIRST_PAGE = Memory.RAM_START >> Memory.PAGE_SHIFT;
+    static final int PAGES = (Memory.RAM_END - Memory.RAM_START) >> Memory.PAGE_SHIFT;
+    private static final long K1 = 0x9E3779B97F4A7C15L;
+    private static final long K2 = 0xC2B2AE3D27D4EB4FL;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final SpaceInvadersMachine machine;
+    private final Memory memory;
+    private final long[] pageHashes = new long[PAGES];
+    private final long[] dirty = new long[Memory.PAGE_COUNT / 64];
+    private final byte[] page = new byte[Memory.PAGE_SIZE];
+    private final int[] cpu = new int[CPU8080.STATE_SIZE];
+    private final int[] board = new int[MachineState.BOARD_STATE_SIZE];
+    private long rehashedPages;
+
+    public StateHasher(SpaceInvadersMachine machine) {
+        this.machine = machine;
+        this.memory = machine.getMemory();
+        if (memory.isDirtyTracking()) {
+            throw new IllegalStateException("Отслеживание записи в память уже занято другим потребителем");
+        }
+        memory.setDirtyTracking(true);
+        for (int p = 0; p < PAGES; p++) {
+            rehash(p);
+        }
+        Arrays.fill(dirty, 0L);
+    }
+
+    public long hash() {
+        memory.drainDirtyPages(dirty);
+        for (int p = 0; p < PAGES; p++) {
+            int pageIndex = FIRST_PAGE + p;
+            if ((dirty[pageIndex >>> 6] & (1L << pageIndex)) != 0) {
+                rehash(p);
+            }
+        }
+        Arrays.fill(dirty, 0L);
+
+        machine.getCPU().saveState(cpu);
+        machine.saveBoardState(board);
+        return combine(pageHashes, cpu, board);
+    }
+
+    // Хэш состояния по хэшам страниц RAM, регистрам CPU и портам платы
+    static long combine(long[] pageHashes, int[] cpu, int[] board) {
+        long h = K2;
+        for (long pageHash : pageHashes) {
+            h = Long.rotateLeft(h ^ pageHash, 29) * K1;
+        }
+        for (int v : cpu) {
+            h = Long.rotateLeft(h ^ v, 29) * K1;
+        }
+        for (int v : board) {
+            h = Long.rotateLeft(h ^ v, 29) * K1;
+        }
+        return mix(h);
+    }
+
+    // Сколько страниц пересчитано с момента создания (для оценки стоимости)
+    public long getRehashedPages() {
+        return rehashedPages;
+    }
+
+    private void rehash(int p) {
+        memory.copyTo(Memory.RAM_START + p * Memory.PAGE_SIZE, page, 0, Memory.PAGE_SIZE);
+        pageHashes[p] = hashPage(page, p);
+        rehashedPages++;
+    }
+
+    // Хэш p-й страницы RAM (номер считается от RAM_START)
+    static long hashPage(byte[] page, int p) {
+        return hash(page, 0, Memory.PAGE_SIZE, p);
+    }
+
+    // Хэш length байт с offset; length кратна 8
+    static long hash(byte[] data, int offset, int length, long seed) {
+        long h = K1 ^ seed;
+        for (int i = offset, end = offset + length; i < end; i += 8) {
+            h = Long.rotateLeft(h ^ ((long) LONGS.get(data, i) * K2), 31) * K1;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
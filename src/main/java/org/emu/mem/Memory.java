@@ -1,22 +1,64 @@
 package org.emu.mem;
 
-import java.io.InputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class Memory {
     public static final int MEM_SIZE = 65536;
     public static final int VIDEO_RAM_START = 0x2400;
     public static final int VIDEO_RAM_END   = 0x4000;
+    public static final int RAM_START = 0x2000;
+    public static final int RAM_END   = 0x4000;
+    // Страницы для отслеживания записи
+    public static final int PAGE_SHIFT = 8;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    public static final int PAGE_COUNT = MEM_SIZE >> PAGE_SHIFT;
+    private static final int WORDS_PER_PAGE = PAGE_SIZE / 64;
 
-    private final byte[] mem = new byte[MEM_SIZE];
+    private final byte[] mem;
+    // Битовая карта адресов, запись в которые идёт медленным путём: по биту
+    // на байт памяти. Объединяет наблюдаемые адреса, ROM и страницы, взведённые
+    // для отслеживания записи.
+    private final long[] watchMap = new long[MEM_SIZE / 64];
+    // Адреса всех подписчиков на запись (объединение их карт)
+    private final long[] listenMap = new long[MEM_SIZE / 64];
+    // Замороженные адреса и их значения: запись программы в них игнорируется
+    private final long[] freezeMap = new long[MEM_SIZE / 64];
+    private final byte[] frozenValues = new byte[MEM_SIZE];
+    private int frozenCount;
+    // Отслеживание записи по страницам: чистая страница целиком взведена в
+    // watchMap, первая запись уходит в медленный путь, отмечает страницу и
+    // снимает взвод, и дальше запись в неё снова быстрая. Пока отслеживание
+    // выключено, обычная запись не платит за него ничего.
+    private final boolean[] dirtyPages = new boolean[PAGE_COUNT];
+    private boolean dirtyTracking;
+    // Подписчики на запись и их собственные карты адресов
+    private WriteListener[] listeners = new WriteListener[0];
+    private long[][] listenerMaps = new long[0][];
+    // Конец области ROM: запись туда игнорируется, как на плате
+    private int romEnd;
 
+    public interface WriteListener {
+        // Вызывается только если значение по наблюдаемому адресу изменилось
+        void onWrite(int address, int value);
+    }
+
+    // Массив памяти есть только у обычной (on-heap) памяти, и запись в него
+    // минует подписчиков, заморозку и отслеживание страниц. Устарело:
+    // пользуйтесь copyTo/copyFrom
+    @Deprecated
     public byte[] getRaw() {
         return mem;
     }
 
     public Memory() {
-        Arrays.fill(mem, (byte)0);
+        this.mem = new byte[MEM_SIZE];
+    }
+
+    // Для реализаций с внешним хранилищем, которые переопределяют доступ к байтам
+    Memory(byte[] mem) {
+        this.mem = mem;
     }
 
     public int readByte(int address) {
@@ -27,27 +69,262 @@ public class Memory {
     public void writeByte(int address, int value) {
         address &= 0xFFFF;
         value &= 0xFF;
+        if ((watchMap[address >>> 6] & (1L << address)) != 0) {
+            writeWatched(address, value);
+            return;
+        }
         mem[address] = (byte) value;
     }
 
-    public void loadROMs() throws IOException {
-        String[] romFiles = {"invaders.h", "invaders.g", "invaders.f", "invaders.e"};
-        int[] loadAddresses = {0x0000, 0x0800, 0x1000, 0x1800};
-        for (int i = 0; i < romFiles.length; i++) {
-            String romName = romFiles[i];
-            InputStream is = Memory.class.getResourceAsStream("/roms/" + romName);
-            if (is == null) {
-                throw new IOException("ROM файл не найден: " + romName);
+    final void writeWatched(int address, int value) {
+        if (address < romEnd || (freezeMap[address >>> 6] & (1L << address)) != 0) {
+            return;
+        }
+        int page = address >>> PAGE_SHIFT;
+        if (dirtyTracking && !dirtyPages[page]) {
+            setDirty(page);
+        }
+        int old = readByte(address);
+        store(address, value);
+        if (old != value && (listenMap[address >>> 6] & (1L << address)) != 0) {
+            for (int i = 0; i < listeners.length; i++) {
+                if ((listenerMaps[i][address >>> 6] & (1L << address)) != 0) {
+                    listeners[i].onWrite(address, value);
+                }
+            }
+        }
+    }
+
+    // Запись в хранилище в обход наблюдателей и защиты ROM
+    void store(int address, int value) {
+        mem[address] = (byte) value;
+    }
+
+    // Пакетные copyFrom/clearRam идут в обход writeByte: страницы отмечаются,
+    // а замороженные адреса получают своё значение обратно
+    final void bulkWritten(int address, int length) {
+        markDirty(address, length);
+        if (frozenCount == 0) {
+            return;
+        }
+        for (int a = address; a < address + length; a++) {
+            if ((freezeMap[a >>> 6] & (1L << a)) != 0) {
+                store(a, frozenValues[a] & 0xFF);
+            }
+        }
+    }
+
+    private void markDirty(int address, int length) {
+        if (!dirtyTracking) {
+            return;
+        }
+        for (int page = address >>> PAGE_SHIFT; page <= (address + length - 1) >>> PAGE_SHIFT; page++) {
+            if (!dirtyPages[page]) {
+                setDirty(page);
+            }
+        }
+    }
+
+    private void setDirty(int page) {
+        dirtyPages[page] = true;
+        restoreWatch(page);
+    }
+
+    // Взвод страницы: все её адреса уходят в медленный путь
+    private void armPage(int page) {
+        if ((page << PAGE_SHIFT) < romEnd) {
+            return;
+        }
+        Arrays.fill(watchMap, page * WORDS_PER_PAGE, (page + 1) * WORDS_PER_PAGE, -1L);
+    }
+
+    // Снятие взвода: остаются только наблюдаемые и замороженные адреса (ROM не взводится)
+    private void restoreWatch(int page) {
+        if ((page << PAGE_SHIFT) < romEnd) {
+            return;
+        }
+        for (int i = page * WORDS_PER_PAGE; i < (page + 1) * WORDS_PER_PAGE; i++) {
+            watchMap[i] = listenMap[i] | freezeMap[i];
+        }
+    }
+
+    // Включает отслеживание записи; все страницы начинают чистыми
+    public void setDirtyTracking(boolean enabled) {
+        dirtyTracking = enabled;
+        Arrays.fill(dirtyPages, false);
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            if (enabled) {
+                armPage(page);
+            } else {
+                restoreWatch(page);
             }
-            int offset = loadAddresses[i];
-            for (int addr = offset; addr < offset + 0x0800; addr++) {
-                int data = is.read();
-                if (data == -1) {
-                    throw new IOException("Ошибка: ROM файл " + romName + " имеет неправильный размер");
+        }
+    }
+
+    public boolean isDirtyTracking() {
+        return dirtyTracking;
+    }
+
+    // Добавляет в dst (по биту на страницу, PAGE_COUNT / 64 слов) страницы,
+    // изменённые с прошлого вызова, сбрасывает отметки и снова взводит страницы
+    public void drainDirtyPages(long[] dst) {
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            if (dirtyPages[page]) {
+                dst[page >>> 6] |= 1L << page;
+                dirtyPages[page] = false;
+                armPage(page);
+            }
+        }
+    }
+
+    final boolean isWatched(int address) {
+        return (watchMap[address >>> 6] & (1L << address)) != 0;
+    }
+
+    // Подписка на изменения значений по addresses. Подписчиков может быть
+    // несколько, каждому сообщается только о его собственных адресах.
+    public void addWriteListener(WriteListener listener, int... addresses) {
+        long[] map = new long[MEM_SIZE / 64];
+        for (int address : addresses) {
+            address &= 0xFFFF;
+            map[address >>> 6] |= 1L << address;
+        }
+        int count = listeners.length;
+        listeners = Arrays.copyOf(listeners, count + 1);
+        listenerMaps = Arrays.copyOf(listenerMaps, count + 1);
+        listeners[count] = listener;
+        listenerMaps[count] = map;
+        for (int i = 0; i < map.length; i++) {
+            listenMap[i] |= map[i];
+            watchMap[i] |= map[i];
+        }
+    }
+
+    // Снимает подписку; адреса других подписчиков остаются наблюдаемыми
+    public void removeWriteListener(WriteListener listener) {
+        int index = Arrays.asList(listeners).indexOf(listener);
+        if (index < 0) {
+            return;
+        }
+        int count = listeners.length - 1;
+        System.arraycopy(listeners, index + 1, listeners, index, count - index);
+        System.arraycopy(listenerMaps, index + 1, listenerMaps, index, count - index);
+        listeners = Arrays.copyOf(listeners, count);
+        listenerMaps = Arrays.copyOf(listenerMaps, count);
+        Arrays.fill(listenMap, 0L);
+        for (long[] map : listenerMaps) {
+            for (int i = 0; i < map.length; i++) {
+                listenMap[i] |= map[i];
+            }
+        }
+        for (int i = 0; i < watchMap.length; i++) {
+            watchMap[i] = listenMap[i] | freezeMap[i];
+        }
+        protectRom();
+        if (dirtyTracking) {
+            for (int page = 0; page < PAGE_COUNT; page++) {
+                if (!dirtyPages[page]) {
+                    armPage(page);
                 }
-                mem[addr] = (byte) (data & 0xFF);
             }
-            is.close();
         }
     }
+
+    // Заморозка адреса (поиск значений, читы): value записывается сразу, а
+    // запись программы перехватывается в медленном пути writeByte, как у
+    // наблюдаемых адресов. Пакетная запись (восстановление снимка) тоже не
+    // меняет замороженное значение.
+    public void freeze(int address, int value) {
+        address &= 0xFFFF;
+        if (address < romEnd) {
+            throw new IllegalArgumentException(String.format("Адрес %04x в ROM нельзя заморозить", address));
+        }
+        if ((freezeMap[address >>> 6] & (1L << address)) == 0) {
+            frozenCount++;
+        }
+        freezeMap[address >>> 6] |= 1L << address;
+        watchMap[address >>> 6] |= 1L << address;
+        frozenValues[address] = (byte) value;
+        store(address, value & 0xFF);
+        markDirty(address, 1);
+    }
+
+    public void unfreeze(int address) {
+        address &= 0xFFFF;
+        long bit = 1L << address;
+        if ((freezeMap[address >>> 6] & bit) == 0) {
+            return;
+        }
+        frozenCount--;
+        freezeMap[address >>> 6] &= ~bit;
+        // Взведённая для отслеживания страница остаётся в медленном пути
+        boolean armed = dirtyTracking && !dirtyPages[address >>> PAGE_SHIFT];
+        if (!armed && (listenMap[address >>> 6] & bit) == 0) {
+            watchMap[address >>> 6] &= ~bit;
+        }
+    }
+
+    public void unfreezeAll() {
+        for (int address = 0; address < MEM_SIZE && frozenCount > 0; address++) {
+            unfreeze(address);
+        }
+    }
+
+    public boolean isFrozen(int address) {
+        address &= 0xFFFF;
+        return (freezeMap[address >>> 6] & (1L << address)) != 0;
+    }
+
+    // Адреса ROM помечаются в той же карте, поэтому обычная запись в RAM
+    // не платит за защиту лишней проверкой
+    private void protectRom() {
+        Arrays.fill(watchMap, 0, romEnd >>> 6, -1L);
+        for (int address = romEnd & ~63; address < romEnd; address++) {
+            watchMap[address >>> 6] |= 1L << address;
+        }
+    }
+
+    public void clearRam() {
+        Arrays.fill(mem, RAM_START, RAM_END, (byte) 0);
+        bulkWritten(RAM_START, RAM_END - RAM_START);
+    }
+
+    // Быстрое копирование RAM для снимков состояния; наблюдатели записи не вызываются
+    public void copyRam(byte[] dst) {
+        copyTo(RAM_START, dst, 0, RAM_END - RAM_START);
+    }
+
+    public void restoreRam(byte[] src) {
+        copyFrom(src, 0, RAM_START, RAM_END - RAM_START);
+    }
+
+    // Пакетное чтение и запись памяти без наблюдателей и защиты ROM
+    public void copyTo(int address, byte[] dst, int offset, int length) {
+        System.arraycopy(mem, address, dst, offset, length);
+    }
+
+    public void copyTo(int address, ByteBuffer dst, int index, int length) {
+        dst.put(index, mem, address, length);
+    }
+
+    public void copyFrom(byte[] src, int offset, int address, int length) {
+        System.arraycopy(src, offset, mem, address, length);
+        bulkWritten(address, length);
+    }
+
+    public void loadROMs() throws IOException {
+        loadROMs(RomSet.getDefault());
+    }
+
+    public void loadROMs(RomSet roms) {
+        if (mem != null) {
+            roms.copyInto(mem);
+        } else {
+            byte[] image = new byte[MEM_SIZE];
+            roms.copyInto(image);
+            copyFrom(image, 0, 0, roms.getEnd());
+        }
+        romEnd = Math.max(romEnd, roms.getEnd());
+        protectRom();
+    }
 }
@@ -0,0 +1,107 @@
+package org.emu.mem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Память автомата вне кучи: direct-буфер или файл, отображённый в память.
+// Другой процесс на той же машине может отобразить тот же файл и читать
+// видеопамять и RAM без копирования и сериализации. Доступ к байтам идёт
+// абсолютными get/put буфера, и каждый проверяет индекс по limit буфера:
+// побайтовый доступ дороже, чем у памяти в куче.
+public class OffHeapMemory extends Memory {
+    private static final byte[] ZEROS = new byte[MEM_SIZE];
+
+    // Ссылка на буфер удерживает отображение от освобождения, пока жива память
+    private final ByteBuffer buffer;
+
+    public OffHeapMemory() {
+        this(ByteBuffer.allocateDirect(MEM_SIZE));
+    }
+
+    // Буфер должен быть direct и иметь не меньше MEM_SIZE байт; используются первые MEM_SIZE
+    public OffHeapMemory(ByteBuffer buffer) {
+        super(null);
+        if (!buffer.isDirect() || buffer.capacity() < MEM_SIZE) {
+            throw new IllegalArgumentException("Нужен direct-буфер не меньше " + MEM_SIZE + " байт");
+        }
+        this.buffer = buffer.slice(0, MEM_SIZE);
+        clearAll();
+    }
+
+    // Память слота slot в общем файле: по MEM_SIZE байт на автомат, файл
+    // расширяется при необходимости. Канал можно закрыть - отображение остаётся.
+    public static OffHeapMemory map(Path file, int slot) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, (long) slot * MEM_SIZE, MEM_SIZE);
+            return new OffHeapMemory(mapped);
+        }
+    }
+
+    // Массива в куче нет
+    @Deprecated
+    @Override
+    public byte[] getRaw() {
+        throw new UnsupportedOperationException("У памяти вне кучи нет массива: используйте copyTo/copyFrom");
+    }
+
+    // Буфер только для чтения, который можно отдать наблюдателям в этом процессе
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    public int readByte(int address) {
+        return buffer.get(address & 0xFFFF) & 0xFF;
+    }
+
+    @Override
+    public void writeByte(int address, int value) {
+        address &= 0xFFFF;
+        value &= 0xFF;
+        if (isWatched(address)) {
+            writeWatched(address, value);
+            return;
+        }
+        store(address, value);
+    }
+
+    @Override
+    void store(int address, int value) {
+        buffer.put(address, (byte) value);
+    }
+
+    @Override
+    public void clearRam() {
+        fill(RAM_START, RAM_END - RAM_START);
+        bulkWritten(RAM_START, RAM_END - RAM_START);
+    }
+
+    private void clearAll() {
+        fill(0, MEM_SIZE);
+    }
+
+    private void fill(int address, int length) {
+        buffer.put(address, ZEROS, 0, length);
+    }
+
+    @Override
+    public void copyTo(int address, byte[] dst, int offset, int length) {
+        buffer.get(address, dst, offset, length);
+    }
+
+    @Override
+    public void copyTo(int address, ByteBuffer dst, int index, int length) {
+        dst.put(index, buffer, address, length);
+    }
+
+    @Override
+    public void copyFrom(byte[] src, int offset, int address, int length) {
+        buffer.put(address, src, offset, length);
+        bulkWritten(address, length);
+    }
+}
@@ -0,0 +1,147 @@
+package org.emu.mem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+
+// Поиск адресов RAM, в которых лежит переменная игры: набор кандидатов
+// сужается фильтрами между кадрами (точное значение, изменилось, не
+// изменилось, выросло, уменьшилось). Кандидаты хранятся битовой картой по
+// биту на байт RAM, а фильтр сравнивает сразу по 8 байт в long (SWAR) и
+// получает 8 бит результата одним умножением. Слова карты без кандидатов
+// пропускаются целиком, поэтому суженный поиск почти ничего не стоит.
+// Найденный адрес можно заморозить через Memory.freeze.
+public class RamSearch {
+    public enum Filter {
+        EXACT, CHANGED, UNCHANGED, INCREASED, DECREASED
+    }
+
+    private static final int SIZE = Memory.RAM_END - Memory.RAM_START;
+    private static final int WORDS = SIZE / 64;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long ONES = 0x0101010101010101L;
+    // Собирает старшие биты 8 байт в один байт: бит байта i -> бит i
+    private static final long GATHER = 0x0102040810204080L;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Memory memory;
+    private final long[] candidates = new long[WORDS];
+    private byte[] previous = new byte[SIZE];
+    private byte[] current = new byte[SIZE];
+
+    public RamSearch(Memory memory) {
+        this.memory = memory;
+        reset();
+    }
+
+    // Все адреса RAM снова кандидаты, точка сравнения - текущая RAM
+    public void reset() {
+        Arrays.fill(candidates, -1L);
+        memory.copyTo(Memory.RAM_START, previous, 0, SIZE);
+    }
+
+    public int apply(Filter filter) {
+        if (filter == Filter.EXACT) {
+            throw new IllegalArgumentException("Фильтру EXACT нужно значение");
+        }
+        return apply(filter, 0);
+    }
+
+    // Сужает кандидатов по RAM сейчас и при прошлом вызове (или reset);
+    // value используется только фильтром EXACT. Возвращает число кандидатов.
+    public int apply(Filter filter, int value) {
+        memory.copyTo(Memory.RAM_START, current, 0, SIZE);
+        long exact = (value & 0xFF) * ONES;
+        for (int w = 0; w < WORDS; w++) {
+            long word = candidates[w];
+            if (word == 0) {
+                continue;
+            }
+            long bits = 0;
+            for (int k = 0; k < 8; k++) {
+                int offset = (w * 8 + k) * 8;
+                long before = (long) LONGS.get(previous, offset);
+                long now = (long) LONGS.get(current, offset);
+                long high;
+                switch (filter) {
+                    case EXACT:
+                        high = equal(now, exact);
+                        break;
+                    case CHANGED:
+                        high = nonZero(now ^ before);
+                        break;
+                    case UNCHANGED:
+                        high = equal(now, before);
+                        break;
+                    case INCREASED:
+                        high = less(before, now);
+                        break;
+                    default:
+                        high = less(now, before);
+                        break;
+                }
+                bits |= gather(high) << (k * 8);
+            }
+            candidates[w] = word & bits;
+        }
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+        return count();
+    }
+
+    // Один фильтр на множестве автоматов параллельно (например, на всём VectorEnv).
+    // Автоматы не должны выполнять кадр во время вызова.
+    public static void applyAll(Collection<RamSearch> searches, Filter filter, int value) {
+        searches.parallelStream().forEach(search -> search.apply(filter, value));
+    }
+
+    public int count() {
+        int count = 0;
+        for (long word : candidates) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isCandidate(int address) {
+        int offset = address - Memory.RAM_START;
+        return offset >= 0 && offset < SIZE && (candidates[offset >>> 6] & (1L << offset)) != 0;
+    }
+
+    // Адреса кандидатов по возрастанию
+    public int[] getCandidates() {
+        int[] result = new int[count()];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            for (long word = candidates[w]; word != 0; word &= word - 1) {
+                result[n++] = Memory.RAM_START + w * 64 + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return result;
+    }
+
+    // Старший бит каждого ненулевого байта x
+    private static long nonZero(long x) {
+        return (((x & LOW7) + LOW7) | x) & HIGH;
+    }
+
+    private static long equal(long a, long b) {
+        return ~nonZero(a ^ b) & HIGH;
+    }
+
+    // Старший бит каждого байта, где a < b без знака. Младшие 7 бит
+    // сравниваются вычитанием без заёма между байтами, старшие - отдельно.
+    private static long less(long a, long b) {
+        long low = (a | HIGH) - (b & LOW7);
+        long greaterOrEqual = (a & ~b) | (~(a ^ b) & low);
+        return ~greaterOrEqual & HIGH;
+    }
+
+    private static long gather(long high) {
+        return ((high >>> 7) * GATHER) >>> 56;
+    }
+}
@@ -0,0 +1,158 @@
+package org.emu.mem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Набор ROM, описанный манифестом: по строке на файл - имя, адрес загрузки,
+// размер и CRC32 (шестнадцатеричные). Образ читается и проверяется один раз
+// на JVM, после чего все автоматы процесса копируют его в свою память.
+public final class RomSet {
+    public static final String DEFAULT_MANIFEST = "/roms/invaders.romset";
+
+    private static final ConcurrentHashMap<String, RomSet> CACHE = new ConcurrentHashMap<>();
+
+    private final byte[] image;
+    private final int[] starts;
+    private final int[] sizes;
+    private final long checksum;
+
+    private RomSet(byte[] image, int[] starts, int[] sizes) {
+        this.image = image;
+        this.starts = starts;
+        this.sizes = sizes;
+        CRC32 crc = new CRC32();
+        crc.update(image);
+        this.checksum = crc.getValue();
+    }
+
+    public static RomSet getDefault() throws IOException {
+        return load(DEFAULT_MANIFEST);
+    }
+
+    // Манифест и файлы ROM из classpath
+    public static RomSet load(String manifest) throws IOException {
+        return cached("classpath:" + manifest, () -> {
+            String dir = manifest.substring(0, manifest.lastIndexOf('/') + 1);
+            return parse(manifest, name -> RomSet.class.getResourceAsStream(dir + name), openResource(manifest));
+        });
+    }
+
+    // Манифест и файлы ROM с диска (файлы ищутся рядом с манифестом)
+    public static RomSet load(Path manifest) throws IOException {
+        Path absolute = manifest.toAbsolutePath().normalize();
+        return cached("file:" + absolute, () -> {
+            Path dir = absolute.getParent();
+            return parse(absolute.toString(), name -> {
+                Path file = dir.resolve(name);
+                return Files.exists(file) ? Files.newInputStream(file) : null;
+            }, Files.newInputStream(absolute));
+        });
+    }
+
+    public void copyInto(byte[] mem) {
+        for (int i = 0; i < starts.length; i++) {
+            System.arraycopy(image, starts[i], mem, starts[i], sizes[i]);
+        }
+    }
+
+    // CRC32 всего образа; по нему снимки состояния проверяют совместимость с ROM
+    public long getChecksum() {
+        return checksum;
+    }
+
+    // Конец занятой ROM области (адрес первого байта после последнего файла)
+    public int getEnd() {
+        return image.length;
+    }
+
+    private interface Opener {
+        InputStream open(String name) throws IOException;
+    }
+
+    private interface Loader {
+        RomSet load() throws IOException;
+    }
+
+    private static RomSet cached(String key, Loader loader) throws IOException {
+        try {
+            return CACHE.computeIfAbsent(key, k -> {
+                try {
+                    return loader.load();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static InputStream openResource(String name) throws IOException {
+        InputStream is = RomSet.class.getResourceAsStream(name);
+        if (is == null) {
+            throw new IOException("Манифест ROM не найден: " + name);
+        }
+        return is;
+    }
+
+    private static RomSet parse(String manifest, Opener opener, InputStream manifestStream) throws IOException {
+        List<String[]> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(manifestStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length != 4) {
+                    throw new IOException("Ошибка в манифесте " + manifest + ": " + line);
+                }
+                entries.add(parts);
+            }
+        }
+        int end = 0;
+        int[] starts = new int[entries.size()];
+        int[] sizes = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            starts[i] = Integer.parseInt(entries.get(i)[1], 16);
+            sizes[i] = Integer.parseInt(entries.get(i)[2], 16);
+            end = Math.max(end, starts[i] + sizes[i]);
+        }
+        if (end > Memory.MEM_SIZE) {
+            throw new IOException("ROM из манифеста " + manifest + " не помещаются в память");
+        }
+        byte[] image = new byte[end];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < entries.size(); i++) {
+            String name = entries.get(i)[0];
+            long expected = Long.parseLong(entries.get(i)[3], 16);
+            try (InputStream is = opener.open(name)) {
+                if (is == null) {
+                    throw new IOException("ROM файл не найден: " + name);
+                }
+                int read = is.readNBytes(image, starts[i], sizes[i]);
+                if (read != sizes[i] || is.read() != -1) {
+                    throw new IOException("Ошибка: ROM файл " + name + " имеет неправильный размер");
+                }
+            }
+            crc.reset();
+            crc.update(image, starts[i], sizes[i]);
+            if (crc.getValue() != expected) {
+                throw new IOException(String.format("Ошибка: CRC32 ROM файла %s равен %08x, ожидалось %08x",
+                        name, crc.getValue(), expected));
+            }
+        }
+        return new RomSet(image, starts, sizes);
+    }
+}
@@ -0,0 +1,229 @@
+package org.emu.net;
+
+import org.emu.machine.MachineState;
+import org.emu.machine.SpaceInvadersMachine;
+import org.emu.sound.SoundEngine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+// Сетевая игра двух автоматов по UDP с задержкой ввода и откатом.
+// Стороны обмениваются только байтами входов по кадрам. Пока вход соперника
+// не пришёл, он предсказывается повтором последнего известного; при ошибке
+// предсказания автомат откатывается к снимку и быстро пересчитывает кадры.
+public class NetplaySession implements Closeable {
+    public static final int MAX_ROLLBACK = 8;
+    public static final int MAX_INPUT_DELAY = 8;
+
+    private static final int RING = 32;
+    private static final int MASK = RING - 1;
+    private static final byte MAGIC = 'I';
+    private static final int HEADER = 1 + 4 + 4 + 1;
+
+    private final SpaceInvadersMachine machine;
+    private final int localPlayer;
+    private final DatagramChannel channel;
+    private final int inputDelay;
+
+    private final int[] localInputs = new int[RING];
+    private final int[] remoteInputs = new int[RING];
+    private final boolean[] remoteReceived = new boolean[RING];
+    private final int[] predicted = new int[RING];
+    private final MachineState[] states = new MachineState[RING];
+    // Счётчик сбросов сторожевого таймера на начало кадра: в снимок он не входит
+    private final int[] watchdogResets = new int[RING];
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(HEADER + RING);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(512);
+
+    // Следующий кадр для эмуляции
+    private int frame;
+    // Последний кадр, для которого известен локальный вход
+    private int localLatest;
+    // Все входы соперника до этого кадра включительно получены
+    private int remoteConfirmed = -1;
+    // Соперник подтвердил получение наших входов до этого кадра
+    private int remoteAck = -1;
+
+    private long rollbacks;
+    private long rollbackFrames;
+    private long stalls;
+
+    public NetplaySession(SpaceInvadersMachine machine, int localPlayer, DatagramChannel channel, int inputDelay) {
+        if (localPlayer != 1 && localPlayer != 2) {
+            throw new IllegalArgumentException("Номер игрока должен быть 1 или 2: " + localPlayer);
+        }
+        if (inputDelay < 0 || inputDelay > MAX_INPUT_DELAY) {
+            throw new IllegalArgumentException("Задержка ввода должна быть от 0 до " + MAX_INPUT_DELAY + ": " + inputDelay);
+        }
+        this.machine = machine;
+        this.localPlayer = localPlayer;
+        this.channel = channel;
+        this.inputDelay = inputDelay;
+        for (int i = 0; i < RING; i++) {
+            states[i] = new MachineState();
+        }
+        // Первые кадры до истечения задержки идут с пустым вводом
+        localLatest = inputDelay - 1;
+    }
+
+    public static DatagramChannel open(InetSocketAddress local, InetSocketAddress peer) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(local);
+        channel.connect(peer);
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    // Один тик хоста: отправить вход, принять вход соперника, при необходимости
+    // откатиться и эмулировать следующий кадр. Возвращает false, если кадр
+    // пропущен, потому что соперник отстал больше чем на MAX_ROLLBACK кадров.
+    public boolean advance(int localInput) throws IOException {
+        if (localLatest < frame + inputDelay) {
+            localLatest = frame + inputDelay;
+            localInputs[localLatest & MASK] = localInput & 0xFF;
+        }
+        sync();
+        if (frame - remoteConfirmed > MAX_ROLLBACK) {
+            stalls++;
+            return false;
+        }
+        simulate(frame);
+        frame++;
+        return true;
+    }
+
+    // Обмен пакетами и откат без продвижения вперёд
+    public void sync() throws IOException {
+        send();
+        int rollbackFrom = receive();
+        if (rollbackFrom < frame) {
+            rollbacks++;
+            // Звуки пересчитываемых кадров уже прозвучали
+            SoundEngine sound = machine.getSoundEngine();
+            machine.setSoundEngine(null);
+            machine.loadState(states[rollbackFrom & MASK]);
+            machine.setWatchdogResets(watchdogResets[rollbackFrom & MASK]);
+            for (int f = rollbackFrom; f < frame; f++) {
+                simulate(f);
+                rollbackFrames++;
+            }
+            machine.setSoundEngine(sound);
+        }
+    }
+
+    private void simulate(int f) {
+        machine.saveState(states[f & MASK]);
+        watchdogResets[f & MASK] = machine.getWatchdogResets();
+        int remote = f <= remoteConfirmed ? remoteInputs[f & MASK] : lastConfirmedRemote();
+        predicted[f & MASK] = remote;
+        int local = localInputs[f & MASK];
+        if (localPlayer == 1) {
+            machine.setPlayerInputs(local, remote);
+        } else {
+            machine.setPlayerInputs(remote, local);
+        }
+        machine.executeFrame();
+    }
+
+    private int lastConfirmedRemote() {
+        return remoteConfirmed >= 0 ? remoteInputs[remoteConfirmed & MASK] : 0;
+    }
+
+    // Пакет: MAGIC, подтверждение (int), первый кадр (int), число входов, входы
+    private void send() throws IOException {
+        int first = Math.max(remoteAck + 1, localLatest - RING / 2 + 1);
+        int count = localLatest - first + 1;
+        if (count <= 0) {
+            first = localLatest;
+            count = localLatest >= 0 ? 1 : 0;
+        }
+        sendBuffer.clear();
+        sendBuffer.put(MAGIC);
+        sendBuffer.putInt(remoteConfirmed);
+        sendBuffer.putInt(first);
+        sendBuffer.put((byte) count);
+        for (int f = first; f < first + count; f++) {
+            sendBuffer.put((byte) localInputs[f & MASK]);
+        }
+        sendBuffer.flip();
+        try {
+            channel.write(sendBuffer);
+        } catch (IOException e) {
+            // Соперник ещё не открыл порт (ICMP port unreachable) - повторим в следующем тике
+        }
+    }
+
+    // Возвращает самый ранний кадр с ошибкой предсказания или frame, если их нет
+    private int receive() throws IOException {
+        int rollbackFrom = frame;
+        while (true) {
+            receiveBuffer.clear();
+            int read;
+            try {
+                read = channel.read(receiveBuffer);
+            } catch (IOException e) {
+                break;
+            }
+            if (read <= 0) {
+                break;
+            }
+            receiveBuffer.flip();
+            if (read < HEADER || receiveBuffer.get() != MAGIC) {
+                continue;
+            }
+            remoteAck = Math.max(remoteAck, receiveBuffer.getInt());
+            int first = receiveBuffer.getInt();
+            int count = receiveBuffer.get() & 0xFF;
+            if (count > receiveBuffer.remaining()) {
+                continue;
+            }
+            for (int f = first; f < first + count; f++) {
+                int input = receiveBuffer.get() & 0xFF;
+                // Кадры дальше окна отката ещё не нужны и не должны затирать кольцо
+                if (f <= remoteConfirmed || f > remoteConfirmed + RING / 2) {
+                    continue;
+                }
+                remoteInputs[f & MASK] = input;
+                remoteReceived[f & MASK] = true;
+            }
+            while (remoteReceived[(remoteConfirmed + 1) & MASK]) {
+                int f = ++remoteConfirmed;
+                remoteReceived[f & MASK] = false;
+                if (f < frame && remoteInputs[f & MASK] != predicted[f & MASK] && f < rollbackFrom) {
+                    rollbackFrom = f;
+                }
+            }
+        }
+        return rollbackFrom;
+    }
+
+    public int getFrame() {
+        return frame;
+    }
+
+    public int getRemoteConfirmedFrame() {
+        return remoteConfirmed;
+    }
+
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    public long getRollbackFrames() {
+        return rollbackFrames;
+    }
+
+    public long getStalls() {
+        return stalls;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,354 @@
+package org.emu.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.emu.machine.MachineState;
+import org.emu.machine.SpaceInvadersMachine;
+import org.emu.mem.RomSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Встроенная HTTP/JSON панель управления автоматами:
+//   GET    /machines                    - список автоматов со статусом
+//   POST   /machines                    - новый автомат (быстрый старт)
+//   GET    /machines/{id}               - статус, счётчики кадров и тактов, переменные игры
+//   DELETE /machines/{id}               - остановить и удалить автомат
+//   POST   /machines/{id}/pause|resume  - пауза и продолжение
+//   POST   /machines/{id}/input?p1=&p2= - байты входов игроков (INPUT_*)
+//   GET    /machines/{id}/snapshot      - снимок состояния (формат MachineState)
+//   PUT    /machines/{id}/snapshot      - загрузить снимок
+//   GET    /machines/{id}/frame.png     - кадр как 1-битный PNG
+// Запросы обслуживаются отдельным пулом и не блокируют потоки эмуляции;
+// кадры всех автоматов выполняет общий FrameScheduler.
+public class ControlServer implements AutoCloseable {
+    private static final int REQUEST_THREADS = 16;
+    private static final int REQUEST_QUEUE = 1024;
+    private static final long COMMAND_TIMEOUT_MS = 2000;
+    // Потоки, выполняющие кадры всех автоматов: -Demu.server.workers=N
+    private static final int FRAME_THREADS = Integer.getInteger("emu.server.workers",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final ThreadLocal<Boolean> REJECTED = ThreadLocal.withInitial(() -> false);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final FrameScheduler scheduler;
+    private final boolean throttled;
+    private final Map<Integer, MachineHost> hosts = new ConcurrentHashMap<>();
+    private final Map<Integer, EncodedFrame> frames = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // Последний закодированный кадр: сотни опрашивающих клиентов получают
+    // один и тот же PNG, пока автомат не выдаст новый кадр
+    private static final class EncodedFrame {
+        final long version;
+        final byte[] png;
+
+        EncodedFrame(long version, byte[] png) {
+            this.version = version;
+            this.png = png;
+        }
+    }
+
+    public ControlServer(InetSocketAddress address, boolean throttled) throws IOException {
+        this.throttled = throttled;
+        this.server = HttpServer.create(address, 0);
+        this.executor = newRequestExecutor();
+        this.scheduler = new FrameScheduler(FRAME_THREADS);
+        server.setExecutor(executor);
+        server.createContext("/machines", this::handle);
+    }
+
+    // Виртуальные потоки есть только начиная с Java 21; на Java 17 используется
+    // ограниченный пул, отдельный от потоков эмуляции
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(REQUEST_QUEUE), r -> {
+                        Thread thread = new Thread(r, "http-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, (task, pool) -> {
+                        // Пул и очередь заняты: задача выполняется на потоке
+                        // HttpServer, но только отвечает 503, не дожидаясь автоматов
+                        REJECTED.set(true);
+                        try {
+                            task.run();
+                        } finally {
+                            REJECTED.set(false);
+                        }
+                    });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public MachineHost createMachine() throws IOException {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.fastBoot();
+        MachineHost host = new MachineHost(nextId.getAndIncrement(), machine, throttled, scheduler);
+        hosts.put(host.getId(), host);
+        host.start();
+        return host;
+    }
+
+    public MachineHost getMachine(int id) {
+        return hosts.get(id);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (REJECTED.get()) {
+                sendError(exchange, 503, "Сервер перегружен, повторите запрос позже");
+                return;
+            }
+            route(exchange);
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Некорректное число: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            // В том числе неверные %-последовательности в строке запроса
+            sendError(exchange, 400, "Некорректный запрос: " + e.getMessage());
+        } catch (TimeoutException e) {
+            sendError(exchange, 503, "Автомат не ответил вовремя");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "Запрос прерван");
+        } catch (ExecutionException | IOException | RuntimeException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            sendError(exchange, 500, String.valueOf(cause.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        // path[0] пустой, path[1] = "machines". Контекст HttpServer совпадает
+        // по префиксу, поэтому /machinesXYZ и /machines-foo отсекаются здесь
+        if (path.length < 2 || path.length > 4 || !path[1].equals("machines")) {
+            sendError(exchange, 404, "Неизвестный путь: " + exchange.getRequestURI().getPath());
+            return;
+        }
+        if (path.length == 2) {
+            if (method.equals("GET")) {
+                // Запросы ко всем автоматам отправляются сразу и ждутся с общим
+                // сроком; автомат, не ответивший вовремя, попадает в список без
+                // переменных игры и не мешает остальным
+                List<MachineHost> list = new ArrayList<>(hosts.values());
+                List<CompletableFuture<int[]>> infos = new ArrayList<>(list.size());
+                for (MachineHost host : list) {
+                    infos.add(host.gameInfo());
+                }
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMMAND_TIMEOUT_MS);
+                StringBuilder json = new StringBuilder("{\"machines\":[");
+                for (int i = 0; i < list.size(); i++) {
+                    if (i > 0) json.append(',');
+                    int[] game;
+                    try {
+                        game = infos.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException | ExecutionException e) {
+                        game = null;
+                    }
+                    appendStatus(json, list.get(i), game);
+                }
+                sendJson(exchange, 200, json.append("]}").toString());
+            } else if (method.equals("POST")) {
+                MachineHost host = createMachine();
+                sendJson(exchange, 201, appendStatus(new StringBuilder(), host, await(host.gameInfo())).toString());
+            } else {
+                sendError(exchange, 405, "Метод не поддерживается: " + method);
+            }
+            return;
+        }
+        MachineHost host = hosts.get(Integer.parseInt(path[2]));
+        if (host == null) {
+            sendError(exchange, 404, "Автомат не найден: " + path[2]);
+            return;
+        }
+        String action = path.length > 3 ? path[3] : "";
+        switch (method + " " + action) {
+            case "GET ":
+                sendJson(exchange, 200, appendStatus(new StringBuilder(), host, await(host.gameInfo())).toString());
+                break;
+            case "DELETE ":
+                hosts.remove(host.getId());
+                frames.remove(host.getId());
+                host.close();
+                exchange.sendResponseHeaders(204, -1);
+                break;
+            case "POST pause":
+            case "POST resume":
+                host.setPaused(action.equals("pause"));
+                sendJson(exchange, 200, appendStatus(new StringBuilder(), host, await(host.gameInfo())).toString());
+                break;
+            case "POST input":
+            {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                host.setInputs(Integer.decode(query.getOrDefault("p1", "0")),
+                        Integer.decode(query.getOrDefault("p2", "0")));
+                exchange.sendResponseHeaders(204, -1);
+                break;
+            }
+            case "GET snapshot":
+            {
+                MachineState state = await(host.snapshot());
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                state.write(new DataOutputStream(bytes), RomSet.getDefault().getChecksum());
+                send(exchange, 200, "application/octet-stream", bytes.toByteArray());
+                break;
+            }
+            case "PUT snapshot":
+            {
+                MachineState state = new MachineState();
+                try (InputStream body = exchange.getRequestBody()) {
+                    state.read(new DataInputStream(body), RomSet.getDefault().getChecksum());
+                }
+                await(host.restore(state));
+                exchange.sendResponseHeaders(204, -1);
+                break;
+            }
+            case "GET frame.png":
+                send(exchange, 200, "image/png", encodeFrame(host));
+                break;
+            default:
+                sendError(exchange, 404, "Неизвестный запрос: " + method + " " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private byte[] encodeFrame(MachineHost host) throws IOException {
+        MachineHost.Frame frame = host.getFrame();
+        EncodedFrame cached = frames.get(host.getId());
+        if (cached != null && cached.version == frame.version) {
+            return cached.png;
+        }
+        EncodedFrame encoded = new EncodedFrame(frame.version, FramePng.encode(frame.vram));
+        frames.put(host.getId(), encoded);
+        return encoded.png;
+    }
+
+    // game - ответ gameInfo(); null, если автомат не ответил
+    private static StringBuilder appendStatus(StringBuilder json, MachineHost host, int[] game) {
+        json.append("{\"id\":").append(host.getId())
+                .append(",\"paused\":").append(host.isPaused())
+                .append(",\"throttled\":").append(host.isThrottled())
+                .append(",\"frame\":").append(host.getFrames())
+                .append(",\"fps\":").append(String.format(Locale.ROOT, "%.2f", host.getFramesPerSecond()))
+                .append(",\"cyclesPerSecond\":").append(Math.round(host.getCyclesPerSecond()))
+                .append(",\"deadlineMisses\":").append(host.getDeadlineMisses())
+                .append(",\"droppedFrames\":").append(host.getDroppedFrames());
+        if (game == null) {
+            return json.append(",\"responding\":false}");
+        }
+        json.append(",\"responding\":true")
+                .append(",\"score1\":").append(game[0])
+                .append(",\"score2\":").append(game[1])
+                .append(",\"highScore\":").append(game[2])
+                .append(",\"credits\":").append(game[3])
+                .append(",\"gameRunning\":").append(game[4] != 0)
+                .append('}');
+        return json;
+    }
+
+    private static <T> T await(CompletableFuture<T> future)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query == null) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                result.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        String json = "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+        sendJson(exchange, status, json);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.stop(0);
+        for (MachineHost host : hosts.values()) {
+            host.close();
+        }
+        hosts.clear();
+        scheduler.close();
+        executor.shutdownNow();
+    }
+
+    // Запуск: ControlServer [порт] [число автоматов]; -Demu.throttle=false - без ограничения 60 кадров/с.
+    // Просмотр в браузере - на порту -Demu.stream.port (по умолчанию следующий за портом панели)
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        boolean throttle = Boolean.parseBoolean(System.getProperty("emu.throttle", "true"));
+        ControlServer server = new ControlServer(new InetSocketAddress(port), throttle);
+        for (int i = 0; i < count; i++) {
+            server.createMachine();
+        }
+        server.start();
+        FrameStreamServer stream = new FrameStreamServer(
+                new InetSocketAddress(Integer.getInteger("emu.stream.port", port + 1)), server::getMachine);
+        stream.start();
+        System.out.println("Панель управления: http://localhost:" + server.getPort() + "/machines");
+        System.out.println("Просмотр: http://localhost:" + stream.getPort() + "/?id=0");
+    }
+}
@@ -0,0 +1,27 @@
+package org.emu.server;
+
+import org.emu.video.FrameDecoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+// Кадр в виде 1-битного PNG 224x256: данные TYPE_BYTE_BINARY совпадают с
+// форматом FrameDecoder.decodePacked.
+final class FramePng {
+    static final int WIDTH = FrameDecoder.WIDTH;
+    static final int HEIGHT = FrameDecoder.HEIGHT;
+
+    private FramePng() {
+    }
+
+    static byte[] encode(byte[] vram) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY);
+        FrameDecoder.decodePacked(vram, ((DataBufferByte) image.getRaster().getDataBuffer()).getData(), 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2048);
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,320 @@
+package org.emu.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+// Общий планировщик кадров для тысяч автоматов реального времени. Один поток
+// ведёт иерархическое колесо таймеров (4 уровня по 64 ячейки, шаг tickNanos)
+// и по наступлению срока отдаёт задачу кадра ограниченному пулу потоков.
+// Фазы задач разнесены по периоду (последовательность золотого сечения),
+// чтобы кадры разных автоматов не приходились на один момент.
+// Задача одного автомата никогда не выполняется параллельно сама с собой:
+// если срок наступил, а прошлый кадр ещё идёт, это промах срока, и
+// пропущенный кадр выполняется следом, но не больше maxCatchUp подряд -
+// остальные отбрасываются.
+public class FrameScheduler implements AutoCloseable {
+    public static final long DEFAULT_TICK_NANOS = 250_000L;
+    public static final int DEFAULT_MAX_CATCH_UP = 2;
+
+    private static final int LEVEL_BITS = 6;
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    private static final int LEVELS = 4;
+    private static final double GOLDEN = 0.6180339887498949;
+
+    private final long tickNanos;
+    private final LongSupplier clock;
+    private final long startNanos;
+    private final Handle[][] wheel = new Handle[LEVELS][SLOTS];
+    private final ConcurrentLinkedQueue<Handle> added = new ConcurrentLinkedQueue<>();
+    private final Executor executor;
+    // Пул и поток таймера; в ручном режиме (тесты) их нет
+    private final ThreadPoolExecutor workers;
+    private final Thread timer;
+    private final AtomicInteger registered = new AtomicInteger();
+    private volatile boolean running = true;
+    // Меняется только потоком таймера
+    private long currentTick;
+
+    // Периодическая задача в колесе; статистика читается из любого потока
+    public final class Handle implements Runnable {
+        private final Runnable task;
+        private final long periodNanos;
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile int maxCatchUp = DEFAULT_MAX_CATCH_UP;
+        private volatile long lastDeadline;
+        private volatile long runs;
+        private volatile long misses;
+        private volatile long dropped;
+        private volatile long maxLatenessNanos;
+        private volatile long totalLatenessNanos;
+        // Срок следующего запуска и связь в ячейке колеса - только поток таймера
+        private long deadline;
+        private long deadlineTick;
+        private Handle next;
+
+        private Handle(Runnable task, long periodNanos, long firstDeadline) {
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.deadline = firstDeadline;
+        }
+
+        public long getPeriodNanos() {
+            return periodNanos;
+        }
+
+        // Выполненные запуски
+        public long getRuns() {
+            return runs;
+        }
+
+        // Сроки, наступившие, пока прошлый запуск ещё шёл
+        public long getDeadlineMisses() {
+            return misses;
+        }
+
+        // Запуски, отброшенные ограничением догона
+        public long getDropped() {
+            return dropped;
+        }
+
+        // Задержка начала запуска относительно его срока
+        public long getMaxLatenessNanos() {
+            return maxLatenessNanos;
+        }
+
+        public double getMeanLatenessNanos() {
+            long count = runs;
+            return count == 0 ? 0 : (double) totalLatenessNanos / count;
+        }
+
+        public int getMaxCatchUp() {
+            return maxCatchUp;
+        }
+
+        // Сколько отставших запусков выполняется подряд сверх текущего
+        public void setMaxCatchUp(int maxCatchUp) {
+            if (maxCatchUp < 0) {
+                throw new IllegalArgumentException("Догон не может быть отрицательным: " + maxCatchUp);
+            }
+            this.maxCatchUp = maxCatchUp;
+        }
+
+        // Снимает задачу и дожидается завершения идущего запуска
+        public void cancel() {
+            cancelled = true;
+            synchronized (this) {
+                pending.set(0);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Вызывается потоком таймера в срок
+        private void due() {
+            lastDeadline = deadline;
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            } else {
+                misses++;
+            }
+            deadline += periodNanos;
+        }
+
+        // Выполняется потоком пула: все накопившиеся запуски по порядку
+        @Override
+        public synchronized void run() {
+            int owed = pending.get();
+            while (owed > 0 && !cancelled) {
+                int limit = maxCatchUp + 1;
+                if (owed > limit) {
+                    dropped += owed - limit;
+                    owed = pending.addAndGet(limit - owed);
+                }
+                long lateness = clock.getAsLong() - (lastDeadline - (owed - 1) * periodNanos);
+                if (lateness > maxLatenessNanos) {
+                    maxLatenessNanos = lateness;
+                }
+                totalLatenessNanos += Math.max(0, lateness);
+                try {
+                    task.run();
+                } catch (RuntimeException | Error e) {
+                    // Задача в неизвестном состоянии: больше не запускается
+                    cancelled = true;
+                    throw e;
+                }
+                runs++;
+                owed = pending.decrementAndGet();
+            }
+        }
+    }
+
+    public FrameScheduler(int workerThreads) {
+        this(workerThreads, DEFAULT_TICK_NANOS);
+    }
+
+    public FrameScheduler(int workerThreads, long tickNanos) {
+        if (workerThreads < 1 || tickNanos < 1) {
+            throw new IllegalArgumentException("Нужен хотя бы один поток и положительный шаг колеса");
+        }
+        this.tickNanos = tickNanos;
+        this.clock = System::nanoTime;
+        this.startNanos = clock.getAsLong();
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "frame-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor = workers;
+        timer = new Thread(this::loop, "frame-timer");
+        timer.setDaemon(true);
+        timer.setPriority(Thread.MAX_PRIORITY);
+        timer.start();
+    }
+
+    // Ручной режим: время берётся из clock, шаги колеса выполняет poll() на
+    // вызывающем потоке, запуски уходят в executor
+    FrameScheduler(long tickNanos, LongSupplier clock, Executor executor) {
+        this.tickNanos = tickNanos;
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+        this.executor = executor;
+        this.workers = null;
+        this.timer = null;
+    }
+
+    // Запускает task каждые periodNanos; первый запуск сдвинут внутри периода
+    public Handle schedule(Runnable task, long periodNanos) {
+        if (periodNanos < tickNanos) {
+            throw new IllegalArgumentException("Период короче шага колеса: " + periodNanos);
+        }
+        double phase = (registered.getAndIncrement() * GOLDEN) % 1.0;
+        Handle handle = new Handle(task, periodNanos, clock.getAsLong() + (long) (phase * periodNanos));
+        added.add(handle);
+        if (timer != null) {
+            LockSupport.unpark(timer);
+        }
+        return handle;
+    }
+
+    public int getWorkerThreads() {
+        return workers != null ? workers.getCorePoolSize() : 0;
+    }
+
+    // Пройдено шагов колеса
+    long getTicks() {
+        return currentTick;
+    }
+
+    private void loop() {
+        while (running) {
+            poll();
+            long wake = startNanos + (currentTick + 1) * tickNanos;
+            if (added.isEmpty()) {
+                LockSupport.parkNanos(this, wake - clock.getAsLong());
+            }
+        }
+    }
+
+    // Новые задачи - в колесо, затем все шаги до текущего времени
+    void poll() {
+        Handle handle;
+        while ((handle = added.poll()) != null) {
+            insert(handle);
+        }
+        long target = (clock.getAsLong() - startNanos) / tickNanos;
+        while (currentTick < target) {
+            advance();
+        }
+    }
+
+    // Следующий шаг: перенос ячеек старших уровней, затем срабатывание ячейки уровня 0
+    private void advance() {
+        long tick = ++currentTick;
+        for (int level = 1; level < LEVELS; level++) {
+            if ((tick & ((1L << (LEVEL_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            int slot = (int) (tick >>> (LEVEL_BITS * level)) & (SLOTS - 1);
+            Handle list = wheel[level][slot];
+            wheel[level][slot] = null;
+            reinsert(list);
+        }
+        int slot = (int) tick & (SLOTS - 1);
+        Handle list = wheel[0][slot];
+        wheel[0][slot] = null;
+        while (list != null) {
+            Handle handle = list;
+            list = list.next;
+            if (handle.cancelled) {
+                continue;
+            }
+            if (handle.deadlineTick > tick) {
+                // Срок дальше, чем покрывает колесо: задача прошла круг
+                insert(handle);
+                continue;
+            }
+            handle.due();
+            insert(handle);
+        }
+    }
+
+    // Ячейка уровня 0 текущего шага ещё не обработана, поэтому задачи со
+    // сроком на этом шаге попадают в неё же
+    private void reinsert(Handle list) {
+        while (list != null) {
+            Handle handle = list;
+            list = list.next;
+            if (!handle.cancelled) {
+                insert(handle, currentTick);
+            }
+        }
+    }
+
+    private void insert(Handle handle) {
+        insert(handle, currentTick + 1);
+    }
+
+    // earliest - ближайший шаг, ячейка которого ещё будет обработана
+    private void insert(Handle handle, long earliest) {
+        long tick = Math.floorDiv(handle.deadline - startNanos + tickNanos - 1, tickNanos);
+        if (tick < earliest) {
+            // Срок уже прошёл (например, поток таймера задержался): в ближайший шаг
+            tick = earliest;
+        }
+        handle.deadlineTick = tick;
+        long delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (LEVEL_BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (LEVEL_BITS * LEVELS)) {
+            // Дальше последнего уровня: в самую дальнюю ячейку, оттуда снова вниз
+            tick = currentTick + (1L << (LEVEL_BITS * LEVELS)) - 1;
+        }
+        int slot = (int) (tick >>> (LEVEL_BITS * level)) & (SLOTS - 1);
+        handle.next = wheel[level][slot];
+        wheel[level][slot] = handle;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        if (timer != null) {
+            LockSupport.unpark(timer);
+            timer.join();
+            workers.shutdown();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package org.emu.server;
+
+import org.emu.mem.Memory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+// Трансляция кадров автоматов в браузер по WebSocket:
+//   GET /?id=N       - встроенная страница просмотра (web/viewer.html)
+//   GET /stream/{id} - WebSocket с двоичными сообщениями кадров
+// Сообщение: тип (0 - опорный кадр, 1 - разница), номер кадра (4 байта LE);
+// у опорного кадра дальше 7 КБ видеопамяти, у разницы - XOR с последним
+// отправленным кадром: пары varint (длина нулевого участка, длина
+// ненулевого) и байты ненулевого участка, до конца видеопамяти.
+// Каждое соединение обслуживает свой поток с собственными буферами. Он берёт
+// последний опубликованный кадр, а разница считается от последнего
+// отправленного, поэтому медленный клиент просто получает меньше кадров, и
+// очередь не растёт. Не чаще 60 кадров в секунду на соединение.
+public class FrameStreamServer implements AutoCloseable {
+    static final int KEYFRAME = 0;
+    static final int DELTA = 1;
+    static final int MESSAGE_HEADER = 5;
+    static final int VRAM_BYTES = Memory.VIDEO_RAM_END - Memory.VIDEO_RAM_START;
+
+    private static final int MAX_CONNECTIONS = 256;
+    private static final int MAX_LINE = 8192;
+    private static final int REQUEST_TIMEOUT_MS = 10_000;
+    private static final int WAIT_MS = 1000;
+    private static final long FRAME_NANOS = 1_000_000_000L / MachineHost.FRAME_RATE;
+    // Заголовок WebSocket сервера для сообщений до 64 КБ - не больше 4 байт
+    private static final int FRAME_START = 4;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ServerSocket serverSocket;
+    private final IntFunction<MachineHost> machines;
+    private final ThreadPoolExecutor workers;
+    private final Thread acceptor;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final byte[] viewer;
+    private volatile boolean running = true;
+
+    public FrameStreamServer(InetSocketAddress address, IntFunction<MachineHost> machines) throws IOException {
+        this.machines = machines;
+        try (InputStream in = FrameStreamServer.class.getClassLoader().getResourceAsStream("web/viewer.html")) {
+            if (in == null) {
+                throw new IOException("Не найдена страница просмотра web/viewer.html");
+            }
+            viewer = in.readAllBytes();
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "stream-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        acceptor = new Thread(this::accept, "stream-accept");
+        acceptor.setDaemon(true);
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnections() {
+        return sockets.size();
+    }
+
+    private void accept() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // Сокет закрыт в close()
+                return;
+            }
+            try {
+                workers.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                try (Socket rejected = socket) {
+                    sendResponse(rejected.getOutputStream(), 503, "text/plain", "Слишком много соединений".getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        sockets.add(socket);
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String[] request = readLine(in).split(" ");
+            Map<String, String> headers = new HashMap<>();
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+            }
+            if (request.length < 2 || !request[0].equals("GET")) {
+                sendResponse(out, 405, "text/plain", new byte[0]);
+                return;
+            }
+            String path = request[1];
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+            if (path.equals("/") || path.equals("/viewer.html")) {
+                sendResponse(out, 200, "text/html; charset=utf-8", viewer);
+                return;
+            }
+            String key = headers.get("sec-websocket-key");
+            if (!path.startsWith("/stream/") || key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                sendResponse(out, 404, "text/plain", new byte[0]);
+                return;
+            }
+            int id = Integer.parseInt(path.substring("/stream/".length()));
+            MachineHost host = machines.apply(id);
+            if (host == null) {
+                sendResponse(out, 404, "text/plain", new byte[0]);
+                return;
+            }
+            out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            socket.setSoTimeout(0);
+            stream(id, host, in, out);
+        } catch (IOException | NumberFormatException e) {
+            // Клиент ушёл или прислал некорректный запрос: соединение закрывается
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private void stream(int id, MachineHost host, InputStream in, OutputStream out)
+            throws IOException, InterruptedException {
+        byte[] last = new byte[VRAM_BYTES];
+        byte[] message = new byte[FRAME_START + MESSAGE_HEADER + VRAM_BYTES];
+        MachineHost.Frame sent = null;
+        long nextSend = System.nanoTime();
+        while (running) {
+            MachineHost.Frame frame = host.awaitFrame(sent, WAIT_MS);
+            if (in.available() > 0 && !readClientFrame(in, out)) {
+                return;
+            }
+            if (frame == sent) {
+                if (machines.apply(id) != host) {
+                    // Автомат удалён
+                    sendClose(out);
+                    return;
+                }
+                continue;
+            }
+            long wait = nextSend - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                frame = host.getFrame();
+            }
+            int end = sent == null ? -1 : encodeDelta(last, frame.vram, message, FRAME_START + MESSAGE_HEADER);
+            int type = DELTA;
+            if (end < 0) {
+                System.arraycopy(frame.vram, 0, message, FRAME_START + MESSAGE_HEADER, VRAM_BYTES);
+                end = FRAME_START + MESSAGE_HEADER + VRAM_BYTES;
+                type = KEYFRAME;
+            }
+            System.arraycopy(frame.vram, 0, last, 0, VRAM_BYTES);
+            sent = frame;
+            if (end == 0) {
+                // Кадр не изменился
+                continue;
+            }
+            message[FRAME_START] = (byte) type;
+            int number = (int) frame.number;
+            message[FRAME_START + 1] = (byte) number;
+            message[FRAME_START + 2] = (byte) (number >> 8);
+            message[FRAME_START + 3] = (byte) (number >> 16);
+            message[FRAME_START + 4] = (byte) (number >> 24);
+            int start = writeFrameHeader(message, end - FRAME_START);
+            out.write(message, start, end - start);
+            out.flush();
+            // Отставание в расписании отправки не копится дольше одного кадра
+            nextSend = Math.max(nextSend + FRAME_NANOS, System.nanoTime() - FRAME_NANOS);
+        }
+        sendClose(out);
+    }
+
+    // XOR-разница previous и current с offset; возвращает конец записанного,
+    // 0 - если кадры одинаковы, -1 - если разница не меньше опорного кадра.
+    // Одиночный совпавший байт включается в ненулевой участок: так дешевле,
+    // чем закрыть участок и начать новый.
+    static int encodeDelta(byte[] previous, byte[] current, byte[] out, int offset) {
+        int position = offset;
+        int limit = offset + VRAM_BYTES;
+        int i = 0;
+        boolean changed = false;
+        while (i < VRAM_BYTES) {
+            int mismatch = Arrays.mismatch(previous, i, VRAM_BYTES, current, i, VRAM_BYTES);
+            int zeros = mismatch < 0 ? VRAM_BYTES - i : mismatch;
+            i += zeros;
+            int literal = i;
+            while (i < VRAM_BYTES && (previous[i] != current[i]
+                    || i + 1 < VRAM_BYTES && previous[i + 1] != current[i + 1])) {
+                i++;
+            }
+            int length = i - literal;
+            if (position + length + 6 > limit) {
+                return -1;
+            }
+            position = writeVarint(out, position, zeros);
+            position = writeVarint(out, position, length);
+            for (int k = literal; k < i; k++) {
+                out[position++] = (byte) (previous[k] ^ current[k]);
+            }
+            changed |= length > 0;
+        }
+        return changed ? position : 0;
+    }
+
+    // Применяет разницу из data с offset к vram (так же разбирает её страница просмотра)
+    static void applyDelta(byte[] data, int offset, byte[] vram) {
+        int[] position = {offset};
+        int i = 0;
+        while (i < vram.length) {
+            i += readVarint(data, position);
+            int length = readVarint(data, position);
+            for (int k = 0; k < length; k++) {
+                vram[i++] ^= data[position[0]++];
+            }
+        }
+    }
+
+    private static int writeVarint(byte[] out, int position, int value) {
+        while (value >= 0x80) {
+            out[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[position[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // Заголовок двоичного кадра WebSocket перед данными длиной length,
+    // которые начинаются с FRAME_START; возвращает начало заголовка
+    private static int writeFrameHeader(byte[] message, int length) {
+        if (length < 126) {
+            message[FRAME_START - 2] = (byte) 0x82;
+            message[FRAME_START - 1] = (byte) length;
+            return FRAME_START - 2;
+        }
+        message[0] = (byte) 0x82;
+        message[1] = 126;
+        message[2] = (byte) (length >> 8);
+        message[3] = (byte) length;
+        return 0;
+    }
+
+    // Кадры клиента: close завершает трансляцию, на ping отвечаем pong,
+    // остальное пропускается. Возвращает false, если соединение закрывается.
+    private static boolean readClientFrame(InputStream in, OutputStream out) throws IOException {
+        int b0 = in.read();
+        int b1 = in.read();
+        if (b0 < 0 || b1 < 0) {
+            return false;
+        }
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            length = (in.read() << 8) | in.read();
+        } else if (length == 127) {
+            length = 0;
+            for (int k = 0; k < 8; k++) {
+                length = (length << 8) | in.read();
+            }
+        }
+        byte[] mask = (b1 & 0x80) != 0 ? in.readNBytes(4) : new byte[4];
+        int opcode = b0 & 0x0F;
+        if (opcode == 0x9 && length <= 125) {
+            byte[] payload = in.readNBytes((int) length);
+            for (int k = 0; k < payload.length; k++) {
+                payload[k] ^= mask[k & 3];
+            }
+            out.write(0x8A);
+            out.write(payload.length);
+            out.write(payload);
+            out.flush();
+            return true;
+        }
+        in.skipNBytes(length);
+        if (opcode == 0x8) {
+            sendClose(out);
+            return false;
+        }
+        return true;
+    }
+
+    private static void sendClose(OutputStream out) throws IOException {
+        out.write(new byte[]{(byte) 0x88, 0});
+        out.flush();
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 недоступен", e);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Соединение закрыто посреди запроса");
+            }
+            if (line.size() >= MAX_LINE) {
+                throw new IOException("Слишком длинная строка запроса");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void sendResponse(OutputStream out, int status, String contentType, byte[] body) throws IOException {
+        String reason = status == 200 ? "OK" : status == 404 ? "Not Found" : status == 405 ? "Method Not Allowed"
+                : "Service Unavailable";
+        out.write(("HTTP/1.1 " + status + " " + reason + "\r\nContent-Type: " + contentType
+                + "\r\nContent-Length: " + body.length + "\r\nCache-Control: no-store\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        workers.shutdownNow();
+    }
+}
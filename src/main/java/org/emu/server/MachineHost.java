@@ -0,0 +1,270 @@
+package org.emu.server;
+
+import org.emu.machine.GameState;
+import org.emu.machine.MachineState;
+import org.emu.machine.SpaceInvadersMachine;
+import org.emu.mem.Memory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Автомат, кадры которого запускает общий FrameScheduler: с ограничением -
+// один кадр каждые 1/60 с, без ограничения - столько кадров, сколько
+// успевает за период. Потоки HTTP никогда не трогают автомат напрямую: вход
+// передаётся через volatile-поле, снимки и прочие команды выполняются между
+// кадрами. Видеопамять копируется только для потребителей: в конце запуска,
+// если кто-то ждёт кадра, а опубликованный устарел.
+public class MachineHost implements AutoCloseable {
+    public static final int FRAME_RATE = 60;
+
+    private static final long FRAME_NANOS = 1_000_000_000L / FRAME_RATE;
+    private static final int VRAM_BYTES = Memory.VIDEO_RAM_END - Memory.VIDEO_RAM_START;
+    // Сколько getFrame ждёт свежего кадра от остановленного или перегруженного автомата
+    private static final long FRAME_WAIT_MILLIS = 100;
+
+    private final int id;
+    private final SpaceInvadersMachine machine;
+    private final FrameScheduler scheduler;
+    private FrameScheduler.Handle handle;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean paused;
+    // Без ограничения автомат крутится с максимальной скоростью
+    private volatile boolean throttled;
+    private volatile int p1Input;
+    private volatile int p2Input;
+    private volatile long frames;
+    private volatile double framesPerSecond;
+    // Растёт с каждым кадром и восстановлением снимка; пишет только задача кадра
+    private volatile long version;
+    private volatile Frame frame = new Frame(0, 0, new byte[VRAM_BYTES]);
+    private final Object frameLock = new Object();
+    // Потоки, ждущие кадра в getFrame и awaitFrame
+    private final AtomicInteger subscribers = new AtomicInteger();
+    // Счётчик скорости - только в задаче кадра
+    private long rateStart = System.nanoTime();
+    private long rateFrames;
+
+    // Неизменяемая копия видеопамяти с номером кадра; version различает
+    // кадры с одним номером до и после восстановления снимка
+    public static final class Frame {
+        public final long number;
+        public final long version;
+        public final byte[] vram;
+
+        Frame(long number, long version, byte[] vram) {
+            this.number = number;
+            this.version = version;
+            this.vram = vram;
+        }
+    }
+
+    public MachineHost(int id, SpaceInvadersMachine machine, boolean throttled, FrameScheduler scheduler) {
+        this.id = id;
+        this.machine = machine;
+        this.throttled = throttled;
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void start() {
+        if (handle == null) {
+            handle = scheduler.schedule(this::tick, FRAME_NANOS);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    public void setThrottled(boolean throttled) {
+        this.throttled = throttled;
+    }
+
+    public void setInputs(int p1, int p2) {
+        p1Input = p1 & 0xFF;
+        p2Input = p2 & 0xFF;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    public double getCyclesPerSecond() {
+        return framesPerSecond * SpaceInvadersMachine.FRAME_CYCLES;
+    }
+
+    // Последний кадр; устаревший публикуется по запросу в конце ближайшего
+    // запуска. Если автомат не отвечает, возвращается последний опубликованный.
+    public Frame getFrame() {
+        long target = version;
+        Frame current = frame;
+        if (current.version >= target) {
+            return current;
+        }
+        long deadline = System.currentTimeMillis() + FRAME_WAIT_MILLIS;
+        boolean interrupted = false;
+        subscribers.incrementAndGet();
+        try {
+            synchronized (frameLock) {
+                long left;
+                while ((current = frame).version < target && (left = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        frameLock.wait(left);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            subscribers.decrementAndGet();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return current;
+    }
+
+    // Ждёт кадра, отличного от previous (новый кадр или восстановленный снимок);
+    // по истечении времени возвращает текущий
+    public Frame awaitFrame(Frame previous, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        subscribers.incrementAndGet();
+        try {
+            synchronized (frameLock) {
+                long left;
+                while (frame == previous && (left = deadline - System.currentTimeMillis()) > 0) {
+                    frameLock.wait(left);
+                }
+                return frame;
+            }
+        } finally {
+            subscribers.decrementAndGet();
+        }
+    }
+
+    // Кадры, срок которых наступил, пока шёл предыдущий
+    public long getDeadlineMisses() {
+        FrameScheduler.Handle h = handle;
+        return h != null ? h.getDeadlineMisses() : 0;
+    }
+
+    // Кадры, отброшенные ограничением догона после долгой задержки
+    public long getDroppedFrames() {
+        FrameScheduler.Handle h = handle;
+        return h != null ? h.getDropped() : 0;
+    }
+
+    // Выполняет действие над автоматом на потоке эмуляции между кадрами
+    public <T> CompletableFuture<T> submit(Function<SpaceInvadersMachine, T> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        commands.add(() -> {
+            try {
+                result.complete(action.apply(machine));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<MachineState> snapshot() {
+        return submit(m -> {
+            MachineState state = new MachineState();
+            m.saveState(state);
+            return state;
+        });
+    }
+
+    public CompletableFuture<Void> restore(MachineState state) {
+        return submit(m -> {
+            m.loadState(state);
+            version++;
+            return null;
+        });
+    }
+
+    // Сводка для телеметрии; переменные игры читаются на потоке эмуляции
+    public CompletableFuture<int[]> gameInfo() {
+        return submit(m -> {
+            GameState game = m.getGameState();
+            return new int[]{game.getScore(1), game.getScore(2), game.getHighScore(), game.getCredits(),
+                    game.isGameRunning() ? 1 : 0};
+        });
+    }
+
+    // Запуск планировщика: команды, затем кадр (без ограничения - кадры до
+    // конца периода). Во время паузы выполняются только команды.
+    private void tick() {
+        runCommands();
+        if (paused) {
+            framesPerSecond = 0;
+            rateStart = System.nanoTime();
+            rateFrames = 0;
+            publishFrame();
+            return;
+        }
+        long start = System.nanoTime();
+        long now;
+        do {
+            machine.setPlayerInputs(p1Input, p2Input);
+            machine.executeFrame();
+            frames++;
+            version++;
+            rateFrames++;
+            now = System.nanoTime();
+        } while (!throttled && now - start < FRAME_NANOS && commands.isEmpty());
+        if (now - rateStart >= 1_000_000_000L) {
+            framesPerSecond = rateFrames * 1e9 / (now - rateStart);
+            rateStart = now;
+            rateFrames = 0;
+        }
+        publishFrame();
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    // Без ждущих потоков кадр не копируется и блокировка не берётся. Ждущий
+    // увеличивает subscribers до проверки кадра, поэтому пробуждение не теряется.
+    private void publishFrame() {
+        if (frame.version == version || subscribers.get() == 0) {
+            return;
+        }
+        byte[] vram = new byte[VRAM_BYTES];
+        machine.getMemory().copyTo(Memory.VIDEO_RAM_START, vram, 0, VRAM_BYTES);
+        frame = new Frame(frames, version, vram);
+        synchronized (frameLock) {
+            frameLock.notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (handle != null) {
+            handle.cancel();
+        }
+        runCommands();
+    }
+}
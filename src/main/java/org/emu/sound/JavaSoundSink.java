@@ -0,0 +1,33 @@
+package org.emu.sound;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+public class JavaSoundSink implements SoundSink {
+    private SourceDataLine line;
+
+    @Override
+    public void open(int bufferFrames) throws LineUnavailableException {
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        line = AudioSystem.getSourceDataLine(format);
+        // Буфер линии - два блока микшера, чтобы задержка оставалась минимальной
+        line.open(format, bufferFrames * 2 * 2);
+        line.start();
+    }
+
+    @Override
+    public void write(byte[] data, int length) {
+        line.write(data, 0, length);
+    }
+
+    @Override
+    public void close() {
+        if (line != null) {
+            line.stop();
+            line.close();
+            line = null;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.emu.sound;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Приёмник для headless-запусков: данные отбрасываются, темп задаётся паузой
+public class NullSoundSink implements SoundSink {
+    @Override
+    public void open(int bufferFrames) {
+    }
+
+    @Override
+    public void write(byte[] data, int length) {
+        long frames = length / 2;
+        LockSupport.parkNanos(frames * 1_000_000_000L / SAMPLE_RATE);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,98 @@
+package org.emu.sound;
+
+import java.util.Random;
+
+// Синтез звуков автомата. На плате это аналоговые схемы, поэтому сэмплы
+// генерируются один раз при старте и дальше только читаются аудиопотоком.
+final class SampleBank {
+    private static final int RATE = SoundSink.SAMPLE_RATE;
+
+    private SampleBank() {
+    }
+
+    static short[][] create() {
+        short[][] s = new short[SoundEngine.SOUND_COUNT][];
+        s[SoundEngine.UFO] = ufo();
+        s[SoundEngine.SHOT] = shot();
+        s[SoundEngine.PLAYER_DIE] = noiseBurst(1.0, 0.9, 11);
+        s[SoundEngine.INVADER_DIE] = noiseBurst(0.35, 0.7, 17);
+        s[SoundEngine.EXTRA_LIFE] = tone(0.5, 1400, 0.4);
+        s[SoundEngine.FLEET_1] = tone(0.07, 110, 0.8);
+        s[SoundEngine.FLEET_2] = tone(0.07, 98, 0.8);
+        s[SoundEngine.FLEET_3] = tone(0.07, 87, 0.8);
+        s[SoundEngine.FLEET_4] = tone(0.07, 82, 0.8);
+        s[SoundEngine.UFO_HIT] = ufoHit();
+        return s;
+    }
+
+    private static short[] ufo() {
+        // Период сэмпла совпадает с периодом модуляции, чтобы петля была бесшовной
+        int n = RATE / 8;
+        short[] out = new short[n];
+        double phase = 0;
+        for (int i = 0; i < n; i++) {
+            double t = (double) i / n;
+            double freq = 1000 + 400 * Math.sin(2 * Math.PI * t);
+            phase += 2 * Math.PI * freq / RATE;
+            out[i] = (short) (Math.sin(phase) * 0.3 * Short.MAX_VALUE);
+        }
+        return out;
+    }
+
+    private static short[] shot() {
+        int n = (int) (RATE * 0.3);
+        short[] out = new short[n];
+        double phase = 0;
+        for (int i = 0; i < n; i++) {
+            double k = (double) i / n;
+            double freq = 2000 - 1600 * k;
+            phase += 2 * Math.PI * freq / RATE;
+            double square = Math.sin(phase) >= 0 ? 1 : -1;
+            out[i] = (short) (square * (1 - k) * 0.35 * Short.MAX_VALUE);
+        }
+        return out;
+    }
+
+    private static short[] noiseBurst(double seconds, double volume, long seed) {
+        int n = (int) (RATE * seconds);
+        short[] out = new short[n];
+        Random rnd = new Random(seed);
+        double last = 0;
+        for (int i = 0; i < n; i++) {
+            double k = (double) i / n;
+            // Простейший ФНЧ делает шум "гулким", как на плате
+            last = last * 0.7 + (rnd.nextDouble() * 2 - 1) * 0.3;
+            out[i] = clamp(last * (1 - k) * (1 - k) * volume * 2.5);
+        }
+        return out;
+    }
+
+    private static short clamp(double v) {
+        v = Math.max(-1.0, Math.min(1.0, v));
+        return (short) (v * Short.MAX_VALUE);
+    }
+
+    private static short[] tone(double seconds, double freq, double volume) {
+        int n = (int) (RATE * seconds);
+        short[] out = new short[n];
+        for (int i = 0; i < n; i++) {
+            double k = (double) i / n;
+            double v = Math.sin(2 * Math.PI * freq * i / RATE) >= 0 ? 1 : -1;
+            out[i] = (short) (v * (1 - k) * volume * 0.4 * Short.MAX_VALUE);
+        }
+        return out;
+    }
+
+    private static short[] ufoHit() {
+        int n = (int) (RATE * 0.8);
+        short[] out = new short[n];
+        double phase = 0;
+        for (int i = 0; i < n; i++) {
+            double k = (double) i / n;
+            double freq = 700 + 300 * Math.sin(2 * Math.PI * 12 * k);
+            phase += 2 * Math.PI * freq / RATE;
+            out[i] = (short) (Math.sin(phase) * (1 - k) * 0.4 * Short.MAX_VALUE);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,165 @@
+package org.emu.sound;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Звук Space Invaders: порты 3 и 5 управляют аналоговыми звуковыми схемами.
+// Поток эмуляции только выделяет фронты битов и выставляет флаги запуска;
+// микширование и вывод выполняются в отдельном аудиопотоке.
+public class SoundEngine implements Runnable {
+    public static final int UFO = 0;          // порт 3, бит 0 (звучит, пока бит установлен)
+    public static final int SHOT = 1;         // порт 3, бит 1
+    public static final int PLAYER_DIE = 2;   // порт 3, бит 2
+    public static final int INVADER_DIE = 3;  // порт 3, бит 3
+    public static final int EXTRA_LIFE = 4;   // порт 3, бит 4
+    public static final int FLEET_1 = 5;      // порт 5, биты 0-3
+    public static final int FLEET_2 = 6;
+    public static final int FLEET_3 = 7;
+    public static final int FLEET_4 = 8;
+    public static final int UFO_HIT = 9;      // порт 5, бит 4
+    public static final int SOUND_COUNT = 10;
+
+    private static final int PORT3_AMP_ENABLE = 0x20;
+
+    private final SoundSink sink;
+    private final int bufferFrames;
+    private final short[][] samples;
+    private final int[] position = new int[SOUND_COUNT];
+    private final float[] mix;
+    private final byte[] out;
+
+    // Обмен между потоками: только атомарные int, без очередей и аллокаций
+    private final AtomicInteger triggers = new AtomicInteger();
+    private volatile int ufoHeld;
+    private volatile boolean ampEnabled;
+    private volatile boolean running;
+    private Thread thread;
+
+    // Состояние потока эмуляции
+    private int lastPort3;
+    private int lastPort5;
+
+    public SoundEngine(SoundSink sink, int bufferFrames) {
+        this.sink = sink;
+        this.bufferFrames = bufferFrames;
+        this.samples = SampleBank.create();
+        this.mix = new float[bufferFrames];
+        this.out = new byte[bufferFrames * 2];
+        for (int i = 0; i < SOUND_COUNT; i++) {
+            position[i] = -1;
+        }
+    }
+
+    public void start() throws Exception {
+        sink.open(bufferFrames);
+        running = true;
+        thread = new Thread(this, "sound");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        sink.close();
+    }
+
+    public void writePort3(int value) {
+        int rising = value & ~lastPort3;
+        lastPort3 = value;
+        ufoHeld = value & 0x01;
+        ampEnabled = (value & PORT3_AMP_ENABLE) != 0;
+        // Биты 1-4 совпадают с номерами звуков SHOT..EXTRA_LIFE
+        trigger(rising & 0x1E);
+    }
+
+    public void writePort5(int value) {
+        int rising = value & ~lastPort5;
+        lastPort5 = value;
+        // Биты 0-4 -> звуки FLEET_1..UFO_HIT
+        trigger((rising & 0x1F) << FLEET_1);
+    }
+
+    // Принимает значения портов без запуска звуков, например после
+    // восстановления снимка или сброса автомата
+    public void syncPorts(int port3, int port5) {
+        lastPort3 = port3;
+        lastPort5 = port5;
+        ufoHeld = port3 & 0x01;
+        ampEnabled = (port3 & PORT3_AMP_ENABLE) != 0;
+    }
+
+    private void trigger(int bits) {
+        if (bits == 0) {
+            return;
+        }
+        int prev;
+        do {
+            prev = triggers.get();
+        } while (!triggers.compareAndSet(prev, prev | bits));
+    }
+
+    // Звуки, запущенные с прошлого вызова: бит i - звук i
+    int pollTriggers() {
+        return triggers.getAndSet(0);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            int started = pollTriggers();
+            for (int i = 0; i < SOUND_COUNT; i++) {
+                if ((started & (1 << i)) != 0) {
+                    position[i] = 0;
+                }
+            }
+            if (ufoHeld != 0) {
+                if (position[UFO] < 0) position[UFO] = 0;
+            } else {
+                position[UFO] = -1;
+            }
+            mixBuffer();
+            sink.write(out, out.length);
+        }
+    }
+
+    private void mixBuffer() {
+        for (int i = 0; i < bufferFrames; i++) {
+            mix[i] = 0f;
+        }
+        for (int s = 0; s < SOUND_COUNT; s++) {
+            int pos = position[s];
+            if (pos < 0) {
+                continue;
+            }
+            short[] data = samples[s];
+            for (int i = 0; i < bufferFrames; i++) {
+                if (pos >= data.length) {
+                    if (s == UFO) {
+                        pos = 0;
+                    } else {
+                        pos = -1;
+                        break;
+                    }
+                }
+                mix[i] += data[pos++];
+            }
+            position[s] = pos;
+        }
+        boolean amp = ampEnabled;
+        for (int i = 0; i < bufferFrames; i++) {
+            int v = amp ? (int) mix[i] : 0;
+            if (v > Short.MAX_VALUE) v = Short.MAX_VALUE;
+            if (v < Short.MIN_VALUE) v = Short.MIN_VALUE;
+            out[2 * i] = (byte) v;
+            out[2 * i + 1] = (byte) (v >> 8);
+        }
+    }
+}
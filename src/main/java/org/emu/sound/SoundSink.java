@@ -0,0 +1,13 @@
+package org.emu.sound;
+
+public interface SoundSink {
+    // Формат: 16 бит, моно, little-endian
+    int SAMPLE_RATE = 22050;
+
+    void open(int bufferFrames) throws Exception;
+
+    // Вызывается только из аудиопотока; может блокироваться до освобождения буфера
+    void write(byte[] data, int length);
+
+    void close();
+}
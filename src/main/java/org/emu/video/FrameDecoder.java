@@ -0,0 +1,120 @@
+package org.emu.video;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Разбор повёрнутой видеопамяти для всех потребителей: вывод на экран,
+// выгрузка кадров и наблюдения обучения. Байт i видеопамяти - 8 пикселей
+// столбца i / 32 снизу вверх (младший бит ниже).
+//   decodeArgb   - кадр ARGB 224x256 через цветную маску (плёнку); при
+//                  подключённом Vector API идёт через VectorDecoder
+//   decodePacked - 1-битный кадр по строкам сверху вниз, 28 байт на строку,
+//                  старший бит - левый пиксель (формат TYPE_BYTE_BINARY и
+//                  1-битного PNG). Блоки 8x8 бит транспонируются в одном long.
+public final class FrameDecoder {
+    public static final int WIDTH = 224;
+    public static final int HEIGHT = 256;
+    public static final int VRAM_BYTES = WIDTH * HEIGHT / 8;
+    public static final int ROW_BYTES = WIDTH / 8;
+    public static final int PACKED_BYTES = ROW_BYTES * HEIGHT;
+
+    private static final int BLACK = 0xFF000000;
+    private static final int[] WHITE_MAP = new int[WIDTH * HEIGHT];
+    static {
+        Arrays.fill(WHITE_MAP, 0xFFFFFFFF);
+    }
+
+    // Восемь пикселей байта: маска -1 для горящего пикселя, 0 для тёмного
+    private static final int[] PIXEL_RUNS = new int[256 * 8];
+    static {
+        for (int value = 0; value < 256; value++) {
+            for (int bit = 0; bit < 8; bit++) {
+                PIXEL_RUNS[value * 8 + bit] = (value & (1 << bit)) != 0 ? -1 : 0;
+            }
+        }
+    }
+
+    // Vector API доступен, если JVM запущена с --add-modules jdk.incubator.vector;
+    // -Demu.vector=false оставляет скалярный разбор
+    static final boolean VECTOR_DECODE = vectorDecodeAvailable();
+
+    private static boolean vectorDecodeAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("emu.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorDecoder.isSupported();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    // Рабочие массивы одного потока
+    private final int[] vramRows = VECTOR_DECODE ? new int[VRAM_BYTES] : null;
+    private final byte[] packed = new byte[PACKED_BYTES];
+
+    // Белые пиксели на чёрном
+    public void decodeArgb(byte[] vram, int[] frame) {
+        decodeArgb(vram, WHITE_MAP, frame);
+    }
+
+    // Горящий пиксель получает цвет overlayMap в той же точке
+    public void decodeArgb(byte[] vram, int[] overlayMap, int[] frame) {
+        if (vramRows != null) {
+            VectorDecoder.decode(vram, vramRows, overlayMap, frame);
+        } else {
+            decodeScalar(vram, overlayMap, frame);
+        }
+    }
+
+    // То же в буфер с позиции index (например, direct-буфер наблюдений)
+    public void decodePacked(byte[] vram, ByteBuffer out, int index) {
+        decodePacked(vram, packed, 0);
+        out.put(index, packed, 0, PACKED_BYTES);
+    }
+
+    public static void decodePacked(byte[] vram, byte[] out, int offset) {
+        for (int c = 0; c < ROW_BYTES; c++) {
+            int base = c * 8 * 32;
+            for (int j = 0; j < 32; j++) {
+                // Столбец 8c+k - байт 7-k, чтобы после транспонирования он стал битом 7-k
+                long x = 0;
+                for (int k = 0; k < 8; k++) {
+                    x |= (long) (vram[base + k * 32 + j] & 0xFF) << ((7 - k) * 8);
+                }
+                x = transpose(x);
+                // Байт b результата - строка экрана 255 - 8j - b
+                int row = offset + (HEIGHT - 1 - j * 8) * ROW_BYTES + c;
+                for (int b = 0; b < 8; b++) {
+                    out[row] = (byte) (x >>> (b * 8));
+                    row -= ROW_BYTES;
+                }
+            }
+        }
+    }
+
+    // Транспонирование матрицы 8x8 бит: бит 8r+c переходит в бит 8c+r
+    private static long transpose(long x) {
+        long t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x ^= t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x ^= t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        return x ^ t ^ (t << 28);
+    }
+
+    static void decodeScalar(byte[] vram, int[] overlayMap, int[] frame) {
+        for (int x = 0; x < WIDTH; x++) {
+            int base = x * 32;
+            for (int j = 0; j < 32; j++) {
+                int run = (vram[base + j] & 0xFF) << 3;
+                int index = (HEIGHT - 1 - j * 8) * WIDTH + x;
+                for (int bit = 0; bit < 8; bit++) {
+                    frame[index] = (PIXEL_RUNS[run + bit] & overlayMap[index]) | BLACK;
+                    index -= WIDTH;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.emu.video;
+
+import java.util.Arrays;
+
+// Конвейер вывода кадра: видеопамять -> кадр 224x256 с цветной плёнкой и
+// послесвечением -> масштабирование с линиями развёртки в буфер ARGB.
+// Видеопамять разбирает FrameDecoder, остальные попиксельные решения вынесены
+// в таблицы, посчитанные заранее: цвет плёнки для каждой точки экрана,
+// исходные столбец и строка для каждой точки результата. Одинаковые строки
+// результата не считаются заново, а копируются через System.arraycopy.
+public class ScreenRenderer {
+    public static final int WIDTH = FrameDecoder.WIDTH;
+    public static final int HEIGHT = FrameDecoder.HEIGHT;
+    public static final int VRAM_BYTES = FrameDecoder.VRAM_BYTES;
+
+    private static final int BLACK = 0xFF000000;
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int RED = 0xFFFF3030;
+    private static final int GREEN = 0xFF30FF30;
+
+    private final int outWidth;
+    private final int outHeight;
+    private final int[] sourceColumn;
+    private final int[] sourceRow;
+    private final boolean[] scanlineRow;
+    private final int[] output;
+    private final int[] frame = new int[WIDTH * HEIGHT];
+    private final int[] previous = new int[WIDTH * HEIGHT];
+    private final int[] overlayMap = new int[WIDTH * HEIGHT];
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    private boolean overlay;
+    private boolean scanlines;
+    // Доля яркости, остающаяся от прошлого кадра (0 - без послесвечения), в 1/256
+    private int persistence;
+
+    public ScreenRenderer(double scale) {
+        if (!(scale >= 1.0) || scale > 8.0) {
+            throw new IllegalArgumentException("Масштаб должен быть от 1 до 8: " + scale);
+        }
+        outWidth = (int) Math.round(WIDTH * scale);
+        outHeight = (int) Math.round(HEIGHT * scale);
+        output = new int[outWidth * outHeight];
+        sourceColumn = new int[outWidth];
+        for (int x = 0; x < outWidth; x++) {
+            sourceColumn[x] = Math.min(WIDTH - 1, (int) (x * WIDTH / (long) outWidth));
+        }
+        sourceRow = new int[outHeight];
+        scanlineRow = new boolean[outHeight];
+        for (int y = 0; y < outHeight; y++) {
+            sourceRow[y] = Math.min(HEIGHT - 1, (int) (y * HEIGHT / (long) outHeight));
+        }
+        // Линия развёртки - последняя строка результата у каждой исходной строки,
+        // если исходная строка растянута хотя бы на две
+        for (int y = 1; y < outHeight; y++) {
+            boolean last = y == outHeight - 1 || sourceRow[y + 1] != sourceRow[y];
+            scanlineRow[y] = last && sourceRow[y - 1] == sourceRow[y];
+        }
+        setOverlay(false);
+    }
+
+    public int getWidth() {
+        return outWidth;
+    }
+
+    public int getHeight() {
+        return outHeight;
+    }
+
+    public boolean isOverlay() {
+        return overlay;
+    }
+
+    // Плёнка автомата: красная полоса НЛО сверху, зелёная полоса укрытий и
+    // игрока снизу, зелёные запасные корабли в левой части нижней строки
+    public void setOverlay(boolean overlay) {
+        this.overlay = overlay;
+        Arrays.fill(overlayMap, WHITE);
+        if (!overlay) {
+            return;
+        }
+        Arrays.fill(overlayMap, 32 * WIDTH, 64 * WIDTH, RED);
+        Arrays.fill(overlayMap, 184 * WIDTH, 240 * WIDTH, GREEN);
+        for (int y = 240; y < HEIGHT; y++) {
+            Arrays.fill(overlayMap, y * WIDTH + 16, y * WIDTH + 134, GREEN);
+        }
+    }
+
+    public boolean isScanlines() {
+        return scanlines;
+    }
+
+    public void setScanlines(boolean scanlines) {
+        this.scanlines = scanlines;
+    }
+
+    public double getPersistence() {
+        return persistence / 256.0;
+    }
+
+    public void setPersistence(double persistence) {
+        if (!(persistence >= 0.0) || persistence >= 1.0) {
+            throw new IllegalArgumentException("Послесвечение должно быть от 0 до 1: " + persistence);
+        }
+        this.persistence = (int) (persistence * 256);
+    }
+
+    // Возвращает внутренний буфер ARGB размером getWidth() x getHeight();
+    // он перезаписывается при следующем вызове
+    public int[] render(byte[] vram) {
+        decoder.decodeArgb(vram, overlayMap, frame);
+        if (persistence > 0) {
+            applyPersistence();
+        }
+        scale();
+        return output;
+    }
+
+    // Погасший пиксель тускнеет постепенно, а не сразу
+    private void applyPersistence() {
+        int keep = persistence;
+        for (int i = 0; i < frame.length; i++) {
+            int color = frame[i];
+            int old = previous[i];
+            if (color == BLACK && old != BLACK) {
+                int r = (((old >> 16) & 0xFF) * keep) >> 8;
+                int g = (((old >> 8) & 0xFF) * keep) >> 8;
+                int b = ((old & 0xFF) * keep) >> 8;
+                color = BLACK | (r << 16) | (g << 8) | b;
+                frame[i] = color;
+            }
+            previous[i] = color;
+        }
+    }
+
+    private void scale() {
+        int lastSource = -1;
+        for (int y = 0; y < outHeight; y++) {
+            int row = y * outWidth;
+            int source = sourceRow[y];
+            if (source == lastSource) {
+                System.arraycopy(output, row - outWidth, output, row, outWidth);
+            } else {
+                int src = source * WIDTH;
+                for (int x = 0; x < outWidth; x++) {
+                    output[row + x] = frame[src + sourceColumn[x]];
+                }
+                lastSource = source;
+            }
+            if (scanlines && scanlineRow[y]) {
+                // Следующая строка с тем же источником не бывает, поэтому затемнение не размножится
+                for (int x = row; x < row + outWidth; x++) {
+                    output[x] = ((output[x] >> 1) & 0x7F7F7F) | BLACK;
+                }
+            }
+        }
+    }
+}
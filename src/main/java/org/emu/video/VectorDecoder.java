@@ -0,0 +1,53 @@
+package org.emu.video;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Разбор видеопамяти через Vector API (jdk.incubator.vector). Класс
+// загружается, только если модуль подключён (--add-modules
+// jdk.incubator.vector), иначе FrameDecoder работает скалярным циклом.
+// Сначала видеопамять транспонируется в 32 строки байт по 224 столбца
+// (поворот экрана на 90°), затем каждая строка экрана собирается векторами: бит строки
+// сдвигается в знаковый и растягивается на весь int, маска накладывается
+// на цвет плёнки. Результат побитно совпадает со скалярным.
+final class VectorDecoder {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int WIDTH = FrameDecoder.WIDTH;
+    private static final int HEIGHT = FrameDecoder.HEIGHT;
+    private static final int BLACK = 0xFF000000;
+
+    private VectorDecoder() {
+    }
+
+    // Векторы короче 4 int не быстрее скалярного цикла
+    static boolean isSupported() {
+        return INTS.length() >= 4 && WIDTH % INTS.length() == 0;
+    }
+
+    // rows - рабочий массив VRAM_BYTES: байт j столбца x кладётся в rows[j * WIDTH + x]
+    static void decode(byte[] vram, int[] rows, int[] overlayMap, int[] frame) {
+        for (int x = 0; x < WIDTH; x++) {
+            int base = x * 32;
+            for (int j = 0; j < 32; j++) {
+                rows[j * WIDTH + x] = vram[base + j];
+            }
+        }
+        int step = INTS.length();
+        for (int j = 0; j < 32; j++) {
+            int source = j * WIDTH;
+            for (int bit = 0; bit < 8; bit++) {
+                int row = (HEIGHT - 1 - j * 8 - bit) * WIDTH;
+                int shift = 31 - bit;
+                for (int x = 0; x < WIDTH; x += step) {
+                    IntVector lit = IntVector.fromArray(INTS, rows, source + x)
+                            .lanewise(VectorOperators.LSHL, shift)
+                            .lanewise(VectorOperators.ASHR, 31);
+                    lit.and(IntVector.fromArray(INTS, overlayMap, row + x))
+                            .or(BLACK)
+                            .intoArray(frame, row + x);
+                }
+            }
+        }
+    }
+}
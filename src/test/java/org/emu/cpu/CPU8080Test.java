@@ -0,0 +1,43 @@
+package org.emu.cpu;
+
+import junit.framework.TestCase;
+import org.emu.mem.Memory;
+
+public class CPU8080Test extends TestCase {
+
+    private CPU8080 run(int... program) {
+        Memory memory = new Memory();
+        for (int i = 0; i < program.length; i++) {
+            memory.writeByte(i, program[i]);
+        }
+        memory.writeByte(program.length, 0x76);  // HLT
+        CPU8080 cpu = new CPU8080(memory);
+        cpu.run(10000);
+        return cpu;
+    }
+
+    public void testPairOperations() {
+        // LXI H,FFFF; LXI D,0002; DAD D; XCHG; INX B; DCX H
+        CPU8080 cpu = run(0x21, 0xFF, 0xFF, 0x11, 0x02, 0x00, 0x19, 0xEB, 0x03, 0x2B);
+        assertEquals(0x00, cpu.getH());
+        assertEquals(0x01, cpu.getL());
+        assertEquals(0x00, cpu.getD());
+        assertEquals(0x01, cpu.getE());
+        assertEquals(0x00, cpu.getB());
+        assertEquals(0x01, cpu.getC());
+        assertEquals(0x01, cpu.getFlags() & 0x01);
+    }
+
+    public void testFlagsAndPsw() {
+        // MVI A,99h; ADI 01h; DAA -> 00, CY, Z, P, AC
+        CPU8080 cpu = run(0x3E, 0x99, 0xC6, 0x01, 0x27);
+        assertEquals(0x00, cpu.getA());
+        assertEquals(0x57, cpu.getFlags());
+
+        // LXI SP,3000; LXI B,12FFh; PUSH B; POP PSW; PUSH PSW; POP D
+        cpu = run(0x31, 0x00, 0x30, 0x01, 0xFF, 0x12, 0xC5, 0xF1, 0xF5, 0xD1);
+        assertEquals(0x12, cpu.getA());
+        assertEquals(0xD7, cpu.getFlags());
+        assertEquals(0xD7, cpu.getE());
+    }
+}
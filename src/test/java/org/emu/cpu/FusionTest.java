@@ -0,0 +1,70 @@
+package org.emu.cpu;
+
+import junit.framework.TestCase;
+import org.emu.machine.MachineStates;
+import org.emu.machine.SpaceInvadersMachine;
+import org.emu.machine.StateHashLog;
+import org.emu.mem.Memory;
+
+import java.util.Arrays;
+
+public class FusionTest extends TestCase {
+
+    public void testFusedExecutionMatchesInterpreter() throws Exception {
+        SpaceInvadersMachine plain = new SpaceInvadersMachine();
+        SpaceInvadersMachine fused = new SpaceInvadersMachine();
+        plain.loadRoms();
+        fused.loadRoms();
+        plain.getCPU().setFusionTable(null);
+        plain.getCPU().setCompiledRom(null);
+        // Скомпилированные блоки выполняются раньше слитых команд
+        fused.getCPU().setCompiledRom(null);
+
+        int[] a = new int[CPU8080.STATE_SIZE];
+        int[] b = new int[CPU8080.STATE_SIZE];
+        for (int frame = 0; frame < 1500; frame++) {
+            int input = StateHashLog.scriptedInput(frame);
+            plain.setPlayerInputs(input, 0);
+            fused.setPlayerInputs(input, 0);
+            plain.executeFrame();
+            fused.executeFrame();
+
+            plain.getCPU().saveState(a);
+            fused.getCPU().saveState(b);
+            assertTrue("кадр " + frame, Arrays.equals(a, b));
+            assertTrue("кадр " + frame, Arrays.equals(MachineStates.ram(plain), MachineStates.ram(fused)));
+        }
+    }
+
+    public void testHaltSkipsToInterrupt() {
+        Memory memory = new Memory();
+        memory.writeByte(0x0000, 0xFB);  // EI
+        memory.writeByte(0x0001, 0x76);  // HLT
+        CPU8080 cpu = new CPU8080(memory);
+        assertEquals(1000, cpu.run(1000));
+        assertTrue(cpu.isHalted());
+        assertEquals(2, cpu.getPC());
+        cpu.requestInterrupt(1);
+        assertFalse(cpu.isHalted());
+        assertEquals(8, cpu.getPC());
+    }
+
+    public void testIdleLoopIsSkipped() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        for (int frame = 0; frame < 120; frame++) {
+            machine.executeFrame();
+        }
+        assertTrue(machine.getCPU().getIdleCycles() > 0);
+    }
+
+    public void testRomWritesAreIgnored() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        int before = machine.getMemory().readByte(0x1A32);
+        machine.getMemory().writeByte(0x1A32, before ^ 0xFF);
+        assertEquals(before, machine.getMemory().readByte(0x1A32));
+        machine.getMemory().writeByte(0x2000, 0x55);
+        assertEquals(0x55, machine.getMemory().readByte(0x2000));
+    }
+}
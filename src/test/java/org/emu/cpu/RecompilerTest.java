@@ -0,0 +1,64 @@
+package org.emu.cpu;
+
+import junit.framework.TestCase;
+import org.emu.machine.MachineStates;
+import org.emu.machine.SpaceInvadersMachine;
+import org.emu.machine.StateHashLog;
+import org.emu.mem.Memory;
+import org.emu.mem.RomSet;
+
+import java.util.Arrays;
+
+public class RecompilerTest extends TestCase {
+
+    public void testGeneratedClassMatchesDefaultRoms() throws Exception {
+        CompiledRom code = CompiledRom.forRomSet(RomSet.getDefault());
+        assertNotNull("RecompiledRom не сгенерирован при сборке", code);
+        assertEquals(RomSet.getDefault().getEnd(), code.limit);
+    }
+
+    public void testCompiledExecutionMatchesInterpreter() throws Exception {
+        SpaceInvadersMachine plain = new SpaceInvadersMachine();
+        SpaceInvadersMachine compiled = new SpaceInvadersMachine();
+        plain.loadRoms();
+        compiled.loadRoms();
+        plain.getCPU().setFusionTable(null);
+        plain.getCPU().setCompiledRom(null);
+        compiled.getCPU().setFusionTable(null);
+
+        int[] a = new int[CPU8080.STATE_SIZE];
+        int[] b = new int[CPU8080.STATE_SIZE];
+        for (int frame = 0; frame < 1500; frame++) {
+            int input = StateHashLog.scriptedInput(frame);
+            plain.setPlayerInputs(input, 0);
+            compiled.setPlayerInputs(input, 0);
+            plain.executeFrame();
+            compiled.executeFrame();
+
+            plain.getCPU().saveState(a);
+            compiled.getCPU().saveState(b);
+            assertTrue("кадр " + frame, Arrays.equals(a, b));
+            assertTrue("кадр " + frame, Arrays.equals(MachineStates.ram(plain), MachineStates.ram(compiled)));
+        }
+    }
+
+    public void testTraceFollowsCallsAndSkipsData() {
+        byte[] mem = new byte[Memory.MEM_SIZE];
+        int[] program = {
+            0xCD, 0x10, 0x00,   // 0000: CALL 0010
+            0xC3, 0x00, 0x00,   // 0003: JMP 0000
+            0xFF, 0xFF,         // 0006: данные
+        };
+        for (int i = 0; i < program.length; i++) {
+            mem[i] = (byte) program[i];
+        }
+        mem[0x10] = 0x3C;           // 0010: INR A
+        mem[0x11] = (byte) 0xC9;    // 0011: RET
+        String source = new Recompiler(mem, 0x40).generate(0);
+        assertTrue(source.contains("private static int b0000("));
+        assertTrue(source.contains("private static int b0003("));
+        assertTrue(source.contains("private static int b0010("));
+        assertFalse(source.contains("private static int b0006("));
+        assertTrue(source.contains("c.pushWord(0x0003); c.PC = 0x0010;"));
+    }
+}
@@ -0,0 +1,88 @@
+package org.emu.env;
+
+import junit.framework.TestCase;
+import org.emu.machine.GameState;
+import org.emu.mem.Memory;
+import org.emu.video.FrameDecoder;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class VectorEnvTest extends TestCase {
+    private static final int ENVS = 3;
+    private static final int STEPS = 300;
+
+    // Две среды с одной последовательностью действий из одного зерна проходят одинаково
+    public void testDeterministicForSeed() throws Exception {
+        try (VectorEnv a = new VectorEnv(ENVS, 4, 2);
+             VectorEnv b = new VectorEnv(ENVS, 4, 1)) {
+            int[] all = {0, 1, 2};
+            a.reset(all);
+            b.reset(all);
+            assertEquals(a.observations(), b.observations());
+            Random ra = new Random(28);
+            Random rb = new Random(28);
+            int[] actionsA = new int[ENVS];
+            int[] actionsB = new int[ENVS];
+            for (int step = 0; step < STEPS; step++) {
+                for (int i = 0; i < ENVS; i++) {
+                    actionsA[i] = ra.nextInt(VectorEnv.ACTION_COUNT);
+                    actionsB[i] = rb.nextInt(VectorEnv.ACTION_COUNT);
+                }
+                a.step(actionsA);
+                b.step(actionsB);
+                assertEquals(a.observations(), b.observations());
+                for (int i = 0; i < ENVS; i++) {
+                    assertEquals(a.rewards()[i], b.rewards()[i]);
+                    assertEquals(a.dones()[i], b.dones()[i]);
+                }
+            }
+        }
+    }
+
+    public void testObservationAndRewardMatchGameState() throws Exception {
+        try (VectorEnv env = new VectorEnv(ENVS, 4, 2)) {
+            env.reset(new int[]{0, 1, 2});
+            int[] scores = new int[ENVS];
+            for (int i = 0; i < ENVS; i++) {
+                GameState game = env.getMachine(i).getGameState();
+                assertTrue(game.isGameRunning());
+                assertFalse(env.dones()[i]);
+                scores[i] = game.getScore(1);
+                assertObservation(env, i);
+            }
+            Random random = new Random(7);
+            int[] actions = new int[ENVS];
+            float total = 0;
+            for (int step = 0; step < STEPS; step++) {
+                for (int i = 0; i < ENVS; i++) {
+                    actions[i] = random.nextInt(VectorEnv.ACTION_COUNT);
+                }
+                env.step(actions);
+                for (int i = 0; i < ENVS; i++) {
+                    GameState game = env.getMachine(i).getGameState();
+                    int score = game.getScore(1);
+                    // Завершённая среда не выполняется: награда 0, счёт прежний
+                    assertEquals((float) (score - scores[i]), env.rewards()[i]);
+                    scores[i] = score;
+                    total += env.rewards()[i];
+                    assertEquals(!game.isPlayerAlive(1), env.dones()[i]);
+                    assertObservation(env, i);
+                }
+            }
+            // Случайная стрельба за 1200 кадров сбивает хоть кого-то
+            assertTrue(total > 0);
+        }
+    }
+
+    // Наблюдение - тот же кадр, что FrameDecoder получает из видеопамяти автомата
+    private static void assertObservation(VectorEnv env, int i) {
+        byte[] vram = new byte[Memory.VIDEO_RAM_END - Memory.VIDEO_RAM_START];
+        env.getMachine(i).getMemory().copyTo(Memory.VIDEO_RAM_START, vram, 0, vram.length);
+        byte[] expected = new byte[VectorEnv.OBS_BYTES];
+        FrameDecoder.decodePacked(vram, expected, 0);
+        byte[] actual = new byte[VectorEnv.OBS_BYTES];
+        env.observations().get(i * VectorEnv.OBS_BYTES, actual);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+}
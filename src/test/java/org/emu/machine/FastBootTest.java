@@ -0,0 +1,30 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class FastBootTest extends TestCase {
+
+    public void testSnapshotMatchesColdBoot() throws Exception {
+        SpaceInvadersMachine cold = new SpaceInvadersMachine();
+        cold.loadRoms();
+        for (int i = 0; i < FastBoot.BOOT_FRAMES; i++) {
+            cold.executeFrame();
+        }
+        SpaceInvadersMachine fast = new SpaceInvadersMachine();
+        fast.fastBoot();
+
+        for (int i = 0; i < 120; i++) {
+            cold.executeFrame();
+            fast.executeFrame();
+        }
+        MachineState a = new MachineState();
+        MachineState b = new MachineState();
+        cold.saveState(a);
+        fast.saveState(b);
+        assertTrue(Arrays.equals(a.getCpuState(), b.getCpuState()));
+        assertTrue(Arrays.equals(a.getRam(), b.getRam()));
+        assertTrue(Arrays.equals(a.getBoardState(), b.getBoardState()));
+    }
+}
@@ -0,0 +1,75 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+import org.emu.mem.Memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GameStateTest extends TestCase {
+
+    public void testDecodesBcdFields() {
+        Memory memory = new Memory();
+        GameState state = new GameState(memory);
+        memory.writeByte(GameState.P1_SCORE_MSB, 0x12);
+        memory.writeByte(GameState.P1_SCORE_LSB, 0x40);
+        memory.writeByte(GameState.HI_SCORE_MSB, 0x07);
+        memory.writeByte(GameState.HI_SCORE_LSB, 0x90);
+        memory.writeByte(GameState.NUM_COINS, 0x15);
+        memory.writeByte(GameState.PLAYER1_ALIVE, 1);
+        memory.writeByte(GameState.P1_SHIPS, 2);
+
+        assertEquals(1240, state.getScore(1));
+        assertEquals(790, state.getHighScore());
+        assertEquals(15, state.getCredits());
+        assertEquals(3, state.getLives(1));
+        assertEquals(0, state.getLives(2));
+        assertTrue(state.isPlayerAlive(1));
+        // Режим игры в RAM не выставлен
+        assertFalse(state.isGameRunning());
+        memory.writeByte(GameState.GAME_MODE, 1);
+        assertTrue(state.isGameRunning());
+    }
+
+    public void testNotifiesOnlyOnChange() {
+        Memory memory = new Memory();
+        GameState state = new GameState(memory);
+        List<GameState.Field> changes = new ArrayList<>();
+        state.setChangeListener((field, s) -> changes.add(field));
+
+        memory.writeByte(GameState.P1_SCORE_LSB, 0x10);
+        memory.writeByte(GameState.P1_SCORE_LSB, 0x10);
+        memory.writeByte(GameState.GAME_MODE, 1);
+        memory.writeByte(0x2400, 0xFF);
+
+        assertEquals(2, changes.size());
+        assertEquals(GameState.Field.P1_SCORE, changes.get(0));
+        assertEquals(GameState.Field.GAME_MODE, changes.get(1));
+
+        state.setChangeListener(null);
+        memory.writeByte(GameState.GAME_MODE, 0);
+        assertEquals(2, changes.size());
+    }
+
+    public void testKeepsOtherWriteListeners() {
+        Memory memory = new Memory();
+        GameState state = new GameState(memory);
+        List<Integer> writes = new ArrayList<>();
+        memory.addWriteListener((address, value) -> writes.add(address), 0x2100, GameState.NUM_COINS);
+        List<GameState.Field> changes = new ArrayList<>();
+        state.setChangeListener((field, s) -> changes.add(field));
+        state.setChangeListener(null);
+        state.setChangeListener((field, s) -> changes.add(field));
+
+        memory.writeByte(0x2100, 5);
+        memory.writeByte(GameState.NUM_COINS, 1);
+        assertEquals(List.of(0x2100, GameState.NUM_COINS), writes);
+        assertEquals(List.of(GameState.Field.CREDITS), changes);
+
+        // Снятие подписки GameState не снимает наблюдение за общим адресом
+        state.setChangeListener(null);
+        memory.writeByte(GameState.NUM_COINS, 2);
+        assertEquals(3, writes.size());
+        assertEquals(1, changes.size());
+    }
+}
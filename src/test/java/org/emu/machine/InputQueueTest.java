@@ -0,0 +1,118 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+import org.emu.machine.SpaceInvadersMachine.Button;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class InputQueueTest extends TestCase {
+
+    private static MachineState state(SpaceInvadersMachine machine) {
+        MachineState state = new MachineState();
+        machine.saveState(state);
+        return state;
+    }
+
+    private static void assertSameState(SpaceInvadersMachine a, SpaceInvadersMachine b) {
+        MachineState sa = state(a);
+        MachineState sb = state(b);
+        assertTrue(Arrays.equals(sa.getCpuState(), sb.getCpuState()));
+        assertTrue(Arrays.equals(sa.getRam(), sb.getRam()));
+        assertTrue(Arrays.equals(sa.getBoardState(), sb.getBoardState()));
+    }
+
+    // Событие на такте 0 равносильно нажатию перед кадром
+    public void testEventAtFrameStartMatchesDirectInput() throws Exception {
+        SpaceInvadersMachine direct = new SpaceInvadersMachine();
+        SpaceInvadersMachine scheduled = new SpaceInvadersMachine();
+        direct.loadRoms();
+        scheduled.loadRoms();
+        for (int frame = 0; frame < 200; frame++) {
+            if (frame == 100 || frame == 103) {
+                direct.setCoinInserted(frame == 100);
+                scheduled.scheduleInput(0, Button.COIN, frame == 100);
+            }
+            direct.executeFrame();
+            scheduled.executeFrame();
+        }
+        assertEquals(1, scheduled.getGameState().getCredits());
+        assertSameState(direct, scheduled);
+    }
+
+    // Время хоста переводится в такт пропорционально положению в интервале кадра
+    public void testHostTimeMapsToCycle() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        InputQueue queue = new InputQueue();
+        List<InputQueue.Event> log = new ArrayList<>();
+        queue.setRecording(log);
+        long frameNanos = 16_000_000L;
+        queue.beginFrame(machine, 0);
+        machine.executeFrame();
+        queue.post(frameNanos / 4, Button.FIRE, true);
+        queue.post(frameNanos * 3 / 4, Button.FIRE, false);
+        queue.post(frameNanos + 1, Button.LEFT, true);
+        queue.beginFrame(machine, frameNanos);
+        machine.executeFrame();
+        queue.beginFrame(machine, 2 * frameNanos);
+        machine.executeFrame();
+
+        assertEquals(3, log.size());
+        assertEquals(1, log.get(0).getFrame());
+        assertEquals(SpaceInvadersMachine.FRAME_CYCLES / 4, log.get(0).getCycle());
+        assertEquals(SpaceInvadersMachine.FRAME_CYCLES * 3 / 4, log.get(1).getCycle());
+        assertFalse(log.get(1).isPressed());
+        assertEquals(2, log.get(2).getFrame());
+        assertEquals(Button.LEFT, log.get(2).getButton());
+    }
+
+    // Записанные события воспроизводятся с теми же тактами и дают то же состояние
+    public void testReplayIsDeterministic() throws Exception {
+        SpaceInvadersMachine live = new SpaceInvadersMachine();
+        SpaceInvadersMachine replayed = new SpaceInvadersMachine();
+        live.loadRoms();
+        replayed.loadRoms();
+        InputQueue queue = new InputQueue();
+        List<InputQueue.Event> log = new ArrayList<>();
+        queue.setRecording(log);
+        long frameNanos = 16_683_333L;
+        for (int frame = 0; frame < 400; frame++) {
+            long now = frame * frameNanos;
+            queue.beginFrame(live, now);
+            live.executeFrame();
+            long t = now + (frame * 7_919_000L) % frameNanos;
+            if (frame == 100) queue.post(t, Button.COIN, true);
+            if (frame == 102) queue.post(t, Button.COIN, false);
+            if (frame == 140) queue.post(t, Button.START1, true);
+            if (frame == 142) queue.post(t, Button.START1, false);
+            if (frame >= 200 && frame % 9 == 0) queue.post(t, Button.FIRE, frame % 18 == 0);
+            if (frame >= 200 && frame % 13 == 0) queue.post(t, Button.LEFT, frame % 26 == 0);
+        }
+        assertTrue(live.getGameState().isGameRunning());
+
+        InputQueue replay = InputQueue.replay(log);
+        for (int frame = 0; frame < 400; frame++) {
+            replay.beginFrame(replayed, 0);
+            replayed.executeFrame();
+        }
+        assertSameState(live, replayed);
+    }
+
+    public void testEventsInOneFrameApplyInCycleOrder() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        machine.scheduleInput(30000, Button.FIRE, false);
+        machine.scheduleInput(20000, Button.FIRE, true);
+        machine.executeFrame();
+        int[] board = new int[MachineState.BOARD_STATE_SIZE];
+        machine.saveBoardState(board);
+        assertEquals(0, board[1] & 0x10);
+        try {
+            machine.scheduleInput(SpaceInvadersMachine.FRAME_CYCLES, Button.FIRE, true);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class InputSearchTest extends TestCase {
+    private static final int[] CHOICES = {
+        0,
+        SpaceInvadersMachine.INPUT_LEFT,
+        SpaceInvadersMachine.INPUT_RIGHT,
+        SpaceInvadersMachine.INPUT_FIRE,
+    };
+
+    private static SpaceInvadersMachine startedGame() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.fastBoot();
+        InputSearch.startGame(machine);
+        return machine;
+    }
+
+    private static int p1Score(InputSearch.Node node) {
+        return GameState.bcdWord(node.readByte(GameState.P1_SCORE_LSB), node.readByte(GameState.P1_SCORE_MSB));
+    }
+
+    public void testSearchStateMatchesDirectEmulation() throws Exception {
+        SpaceInvadersMachine machine = startedGame();
+        int[] fire = {SpaceInvadersMachine.INPUT_FIRE};
+        InputSearch.Result result;
+        try (InputSearch search = new InputSearch(2, fire, 3, node -> 0, node -> false)) {
+            result = search.beam(search.root(machine), 20, 1);
+        }
+        assertEquals(20, result.best.getDepth());
+        assertEquals(60, result.frames);
+
+        machine.setPlayerInputs(SpaceInvadersMachine.INPUT_FIRE, 0);
+        for (int i = 0; i < 60; i++) {
+            machine.executeFrame();
+        }
+        MachineState direct = new MachineState();
+        machine.saveState(direct);
+        MachineState searched = result.best.toMachineState();
+        assertTrue(Arrays.equals(direct.getCpuState(), searched.getCpuState()));
+        assertTrue(Arrays.equals(direct.getBoardState(), searched.getBoardState()));
+        assertTrue(Arrays.equals(direct.getRam(), searched.getRam()));
+        StateHasher hasher = new StateHasher(machine);
+        assertEquals(hasher.hash(), result.best.getHash());
+    }
+
+    // Автоматы потоков берут DIP-переключатели корня: число кораблей
+    // читается из порта 2 в момент старта игры
+    public void testWorkersUseRootDipSwitches() throws Exception {
+        DipSwitches dips = new DipSwitches();
+        dips.setLives(6);
+        SpaceInvadersMachine machine = new SpaceInvadersMachine(dips);
+        machine.fastBoot();
+        machine.setPlayerInputs(SpaceInvadersMachine.INPUT_COIN, 0);
+        for (int i = 0; i < 5; i++) {
+            machine.executeFrame();
+        }
+        machine.setPlayerInputs(0, 0);
+        for (int i = 0; i < 30; i++) {
+            machine.executeFrame();
+        }
+        int[] start = {SpaceInvadersMachine.INPUT_START};
+        InputSearch.Result result;
+        try (InputSearch search = new InputSearch(2, start, 5, node -> 0, node -> false)) {
+            result = search.beam(search.root(machine), 12, 1);
+        }
+        machine.setPlayerInputs(SpaceInvadersMachine.INPUT_START, 0);
+        for (int i = 0; i < 60; i++) {
+            machine.executeFrame();
+        }
+        assertEquals(6, machine.getGameState().getLives(1));
+        MachineState direct = new MachineState();
+        machine.saveState(direct);
+        assertTrue(Arrays.equals(direct.getRam(), result.best.toMachineState().getRam()));
+    }
+
+    public void testBestFirstCountsExpandedNodes() throws Exception {
+        try (InputSearch search = new InputSearch(2, CHOICES, 4, InputSearchTest::p1Score, node -> false)) {
+            InputSearch.Result result = search.bestFirst(search.root(startedGame()), 10, 4);
+            // 10 раскрытий по 4 варианта входа, по 4 кадра на потомка
+            assertEquals(10 * CHOICES.length * 4, result.frames);
+        }
+    }
+
+    // Пока выстрел летит, огонь не меняет RAM: два ввода ведут в одно состояние,
+    // отличающееся только защёлкой порта 1
+    public void testInputPathsConverge() throws Exception {
+        SpaceInvadersMachine machine = startedGame();
+        machine.setPlayerInputs(SpaceInvadersMachine.INPUT_FIRE, 0);
+        for (int i = 0; i < 4; i++) {
+            machine.executeFrame();
+        }
+        int[] choices = {0, SpaceInvadersMachine.INPUT_FIRE};
+        try (InputSearch search = new InputSearch(1, choices, 2, node -> 0, node -> false)) {
+            InputSearch.Result result = search.beam(search.root(machine), 1, 2);
+            assertEquals(1, result.duplicates);
+        }
+    }
+
+    public void testResultDoesNotDependOnThreads() throws Exception {
+        InputSearch.Result[] results = new InputSearch.Result[2];
+        int[] threads = {1, 3};
+        for (int i = 0; i < 2; i++) {
+            try (InputSearch search = new InputSearch(threads[i], CHOICES, 4, InputSearchTest::p1Score, node -> false)) {
+                results[i] = search.beam(search.root(startedGame()), 15, 6);
+            }
+        }
+        assertEquals(results[0].best.getHash(), results[1].best.getHash());
+        assertTrue(Arrays.equals(results[0].best.getInputs(), results[1].best.getInputs()));
+    }
+
+    public void testSearchReachesGoal() throws Exception {
+        try (InputSearch search = new InputSearch(2, CHOICES, 4, InputSearchTest::p1Score, node -> p1Score(node) > 0)) {
+            InputSearch.Result result = search.beam(search.root(startedGame()), 150, 16);
+            assertTrue(result.goalReached);
+            assertTrue(p1Score(result.best) > 0);
+            assertEquals(result.best.getDepth(), result.best.getInputs().length);
+
+            // Найденный ввод воспроизводится на обычном автомате
+            SpaceInvadersMachine replay = startedGame();
+            for (int input : result.best.getInputs()) {
+                replay.setPlayerInputs(input, 0);
+                for (int i = 0; i < 4; i++) {
+                    replay.executeFrame();
+                }
+            }
+            assertEquals(p1Score(result.best), replay.getGameState().getScore(1));
+        }
+    }
+}
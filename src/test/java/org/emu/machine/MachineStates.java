@@ -0,0 +1,17 @@
+package org.emu.machine;
+
+// Общее для тестов: сравнение автоматов через снимок MachineState
+public final class MachineStates {
+    private MachineStates() {
+    }
+
+    public static MachineState of(SpaceInvadersMachine machine) {
+        MachineState state = new MachineState();
+        machine.saveState(state);
+        return state;
+    }
+
+    public static byte[] ram(SpaceInvadersMachine machine) {
+        return of(machine).getRam();
+    }
+}
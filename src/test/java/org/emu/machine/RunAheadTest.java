@@ -0,0 +1,81 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+import org.emu.cpu.CPU8080;
+
+import java.util.Arrays;
+
+public class RunAheadTest extends TestCase {
+
+    public void testRunAheadDoesNotChangeEmulation() throws Exception {
+        SpaceInvadersMachine plain = new SpaceInvadersMachine();
+        SpaceInvadersMachine ahead = new SpaceInvadersMachine();
+        plain.loadRoms();
+        ahead.loadRoms();
+        RunAhead runAhead = new RunAhead(ahead, 2);
+        int[] presented = new int[1];
+        Runnable present = () -> presented[0]++;
+
+        for (int frame = 0; frame < 300; frame++) {
+            boolean coin = frame >= 100 && frame < 103;
+            plain.setCoinInserted(coin);
+            ahead.setCoinInserted(coin);
+            plain.executeFrame();
+            runAhead.runFrame(present);
+        }
+
+        assertEquals(300, presented[0]);
+        assertEquals(1, plain.getGameState().getCredits());
+        assertStateEquals(plain, ahead);
+    }
+
+    // Сбросы сторожевого таймера в прогнанных вперёд кадрах не считаются
+    public void testWatchdogResetsNotCountedAhead() throws Exception {
+        SpaceInvadersMachine plain = new SpaceInvadersMachine();
+        SpaceInvadersMachine ahead = new SpaceInvadersMachine();
+        plain.loadRoms();
+        ahead.loadRoms();
+        plain.setOutPort(6, null);
+        ahead.setOutPort(6, null);
+        RunAhead runAhead = new RunAhead(ahead, 2);
+        for (int frame = 0; frame < 2 * SpaceInvadersMachine.WATCHDOG_FRAMES + 10; frame++) {
+            plain.executeFrame();
+            runAhead.runFrame(() -> { });
+        }
+        assertEquals(2, plain.getWatchdogResets());
+        assertEquals(2, ahead.getWatchdogResets());
+        assertStateEquals(plain, ahead);
+    }
+
+    public void testSaveAndLoadRestoresMachine() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        for (int frame = 0; frame < 60; frame++) {
+            machine.executeFrame();
+        }
+        MachineState state = new MachineState();
+        machine.saveState(state);
+        MachineState before = new MachineState();
+        before.copyFrom(state);
+
+        for (int frame = 0; frame < 30; frame++) {
+            machine.executeFrame();
+        }
+        machine.loadState(state);
+        MachineState after = new MachineState();
+        machine.saveState(after);
+
+        assertTrue(Arrays.equals(before.getCpuState(), after.getCpuState()));
+        assertTrue(Arrays.equals(before.getRam(), after.getRam()));
+        assertTrue(Arrays.equals(before.getBoardState(), after.getBoardState()));
+    }
+
+    private static void assertStateEquals(SpaceInvadersMachine expected, SpaceInvadersMachine actual) {
+        int[] a = new int[CPU8080.STATE_SIZE];
+        int[] b = new int[CPU8080.STATE_SIZE];
+        expected.getCPU().saveState(a);
+        actual.getCPU().saveState(b);
+        assertTrue(Arrays.equals(a, b));
+        assertTrue(Arrays.equals(MachineStates.ram(expected), MachineStates.ram(actual)));
+    }
+}
@@ -0,0 +1,109 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+import org.emu.mem.Memory;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class SnapshotStoreTest extends TestCase {
+    private Path dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("snapshots");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void assertSameState(MachineState expected, MachineState actual) {
+        assertTrue(Arrays.equals(expected.getCpuState(), actual.getCpuState()));
+        assertTrue(Arrays.equals(expected.getRam(), actual.getRam()));
+        assertTrue(Arrays.equals(expected.getBoardState(), actual.getBoardState()));
+    }
+
+    // Ветви поиска от одного корня: состояния отличаются в нескольких страницах.
+    // Маленькие сегменты проверяют переход между отображёнными участками файла.
+    public void testRoundTripDeduplicatesAndReopens() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.fastBoot();
+        MachineState root = new MachineState();
+        machine.saveState(root);
+        int[] inputs = {0, SpaceInvadersMachine.INPUT_COIN, SpaceInvadersMachine.INPUT_LEFT,
+                SpaceInvadersMachine.INPUT_RIGHT, SpaceInvadersMachine.INPUT_FIRE};
+        List<MachineState> states = new ArrayList<>();
+        try (SnapshotStore store = new SnapshotStore(dir, 4096)) {
+            for (int branch = 0; branch < 200; branch++) {
+                machine.loadState(root);
+                for (int frame = 0; frame <= branch % 7; frame++) {
+                    machine.setPlayerInputs(inputs[(branch + frame) % inputs.length], 0);
+                    machine.executeFrame();
+                }
+                MachineState state = new MachineState();
+                machine.saveState(state);
+                assertEquals(states.size(), store.put(state));
+                states.add(state);
+            }
+            assertEquals(200, store.size());
+            long pages = store.getUniquePages();
+            assertEquals(200, store.put(states.get(17)));
+            assertEquals(pages, store.getUniquePages());
+            assertEquals(store.getPageId(17, 5), store.getPageId(200, 5));
+            assertTrue(store.getStoredBytes() + " / " + store.getFullStateBytes(),
+                    store.getStoredBytes() * 10 < store.getFullStateBytes());
+
+            MachineState loaded = new MachineState();
+            for (int i = 0; i < states.size(); i += 13) {
+                store.get(i, loaded);
+                assertSameState(states.get(i), loaded);
+            }
+            ByteBuffer page = store.getPage(42, 3);
+            assertTrue(page.isReadOnly());
+            assertEquals(Memory.PAGE_SIZE, page.remaining());
+            assertEquals(states.get(42).getRam()[3 * Memory.PAGE_SIZE + 7], page.get(7));
+        }
+
+        try (SnapshotStore store = new SnapshotStore(dir, 4096)) {
+            assertEquals(201, store.size());
+            MachineState loaded = new MachineState();
+            store.get(199, loaded);
+            assertSameState(states.get(199), loaded);
+            long pages = store.getUniquePages();
+            store.put(states.get(3));
+            assertEquals(pages, store.getUniquePages());
+        }
+    }
+
+    public void testRejectsUnknownIdAndOversizedValues() throws Exception {
+        try (SnapshotStore store = new SnapshotStore(dir)) {
+            try {
+                store.get(0, new MachineState());
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            MachineState state = new MachineState();
+            Arrays.fill(state.getRam(), (byte) 0x5A);
+            state.getBoardState()[3] = 0x10000;
+            try {
+                store.put(state);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            // Отклонённое состояние ничего не дописало в хранилище
+            assertEquals(0, store.size());
+            assertEquals(0, store.getUniquePages());
+            assertEquals(0, store.getStoredBytes());
+        }
+    }
+}
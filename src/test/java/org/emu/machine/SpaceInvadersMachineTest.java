@@ -0,0 +1,58 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class SpaceInvadersMachineTest extends TestCase {
+
+    public void testPort2ReflectsDipSwitches() {
+        DipSwitches dips = new DipSwitches();
+        SpaceInvadersMachine machine = new SpaceInvadersMachine(dips);
+        assertEquals(dips.toPort2Bits(), machine.portIn(2));
+
+        dips.setLives(5);
+        dips.setBonusLifeScore(1000);
+        dips.setCoinInfo(false);
+        machine.setDipSwitches(dips);
+        assertEquals(0x8A, dips.toPort2Bits());
+        assertEquals(dips.toPort2Bits(), machine.portIn(2));
+
+        // Входы второго игрока и наклон складываются с переключателями
+        machine.setTilt(true);
+        machine.setP2FirePressed(true);
+        assertEquals(dips.toPort2Bits() | 0x14, machine.portIn(2));
+    }
+
+    public void testWatchdogResetsCpuAndKeepsRam() throws Exception {
+        SpaceInvadersMachine hung = new SpaceInvadersMachine();
+        hung.loadRoms();
+        // Без записей в порт 6 программа для платы выглядит зависшей
+        hung.setOutPort(6, null);
+        SpaceInvadersMachine healthy = new SpaceInvadersMachine();
+        healthy.loadRoms();
+        for (int i = 1; i < SpaceInvadersMachine.WATCHDOG_FRAMES; i++) {
+            hung.executeFrame();
+            healthy.executeFrame();
+        }
+        assertEquals(0, hung.getWatchdogResets());
+
+        // Оба автомата выполнили один и тот же кадр; сброс только у зависшего
+        hung.executeFrame();
+        healthy.executeFrame();
+        assertEquals(1, hung.getWatchdogResets());
+        assertEquals(0, healthy.getWatchdogResets());
+        assertEquals(0, hung.getCPU().getPC());
+        assertTrue(healthy.getCPU().getPC() != 0);
+        assertTrue(Arrays.equals(MachineStates.ram(healthy), MachineStates.ram(hung)));
+    }
+
+    public void testNoWatchdogResetsInAttractLoop() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        for (int i = 0; i < 4 * SpaceInvadersMachine.WATCHDOG_FRAMES; i++) {
+            machine.executeFrame();
+        }
+        assertEquals(0, machine.getWatchdogResets());
+    }
+}
@@ -0,0 +1,109 @@
+package org.emu.machine;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class StateHasherTest extends TestCase {
+
+    public void testIncrementalHashMatchesFullRehash() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        StateHasher hasher = new StateHasher(machine);
+        for (int frame = 0; frame < 400; frame++) {
+            machine.setPlayerInputs(StateHashLog.scriptedInput(frame), 0);
+            machine.executeFrame();
+            long incremental = hasher.hash();
+            if (frame % 50 == 0) {
+                // Полный пересчёт - на отдельном автомате: второй хэшер на той же
+                // памяти сбросил бы отметки записи первого
+                MachineState state = new MachineState();
+                machine.saveState(state);
+                SpaceInvadersMachine copy = new SpaceInvadersMachine();
+                copy.loadRoms();
+                copy.loadState(state);
+                assertEquals("кадр " + frame, new StateHasher(copy).hash(), incremental);
+            }
+        }
+        // Большая часть страниц RAM не меняется каждый кадр
+        assertTrue(hasher.getRehashedPages() < 400L * 32);
+    }
+
+    public void testRejectsSecondConsumer() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.loadRoms();
+        new StateHasher(machine);
+        try {
+            new StateHasher(machine);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    // Медиана хэша кадра - меньше 3% периода кадра 1/60 с
+    public void testHashCostPerFrame() throws Exception {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.fastBoot();
+        StateHasher hasher = new StateHasher(machine);
+        int frames = 2000;
+        long[] emulate = new long[frames];
+        long[] hash = new long[frames];
+        for (int round = 0; round < 3; round++) {
+            for (int frame = 0; frame < frames; frame++) {
+                machine.setPlayerInputs(StateHashLog.scriptedInput(frame), 0);
+                long start = System.nanoTime();
+                machine.executeFrame();
+                long mid = System.nanoTime();
+                hasher.hash();
+                long end = System.nanoTime();
+                emulate[frame] = mid - start;
+                hash[frame] = end - mid;
+            }
+        }
+        long emulateMedian = median(emulate);
+        long hashMedian = median(hash);
+        assertTrue(hashMedian + " нс при эмуляции кадра за " + emulateMedian + " нс",
+                hashMedian * 100 < 3 * 1_000_000_000L / 60);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    public void testLogFindsFirstDivergence() throws Exception {
+        long[][] runs = new long[2][];
+        for (int run = 0; run < 2; run++) {
+            SpaceInvadersMachine machine = new SpaceInvadersMachine();
+            machine.loadRoms();
+            StateHasher hasher = new StateHasher(machine);
+            runs[run] = new long[300];
+            for (int frame = 0; frame < 300; frame++) {
+                int input = StateHashLog.scriptedInput(frame);
+                if (run == 1 && frame == 250) {
+                    input |= SpaceInvadersMachine.INPUT_COIN;
+                }
+                machine.setPlayerInputs(input, 0);
+                machine.executeFrame();
+                runs[run][frame] = hasher.hash();
+            }
+        }
+        int divergence = StateHashLog.firstDivergence(runs[0], runs[1]);
+        assertTrue("кадр " + divergence, divergence >= 250 && divergence < 260);
+
+        Path file = Files.createTempFile("hashes", ".log");
+        try {
+            try (StateHashLog log = new StateHashLog(file, 42)) {
+                for (long hash : runs[0]) {
+                    log.append(hash);
+                }
+            }
+            assertEquals(-1, StateHashLog.firstDivergence(runs[0], StateHashLog.read(file, 42)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.emu.mem;
+
+import junit.framework.TestCase;
+import org.emu.machine.DipSwitches;
+import org.emu.machine.SpaceInvadersMachine;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class OffHeapMemoryTest extends TestCase {
+
+    public void testMatchesHeapMemory() throws Exception {
+        SpaceInvadersMachine heap = new SpaceInvadersMachine();
+        SpaceInvadersMachine direct = new SpaceInvadersMachine(new OffHeapMemory(), new DipSwitches());
+        heap.loadRoms();
+        direct.loadRoms();
+        byte[] a = new byte[Memory.RAM_END - Memory.RAM_START];
+        byte[] b = new byte[a.length];
+        for (int frame = 0; frame < 600; frame++) {
+            int input = frame >= 100 && frame < 103 ? SpaceInvadersMachine.INPUT_COIN : 0;
+            if (frame >= 130 && frame < 133) input |= SpaceInvadersMachine.INPUT_START;
+            heap.setPlayerInputs(input, 0);
+            direct.setPlayerInputs(input, 0);
+            heap.executeFrame();
+            direct.executeFrame();
+        }
+        heap.getMemory().copyRam(a);
+        direct.getMemory().copyRam(b);
+        assertTrue(Arrays.equals(a, b));
+        assertEquals(heap.getGameState().getCredits(), direct.getGameState().getCredits());
+        assertEquals(heap.getCPU().getPC(), direct.getCPU().getPC());
+    }
+
+    public void testMappedSlotIsVisibleToOtherMappings() throws Exception {
+        Path file = Files.createTempFile("emu", ".mem");
+        try {
+            OffHeapMemory memory = OffHeapMemory.map(file, 1);
+            memory.loadROMs();
+            memory.writeByte(0x2400, 0xA5);
+            memory.writeByte(0x0000, 0x12);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer view = channel.map(FileChannel.MapMode.READ_ONLY, Memory.MEM_SIZE, Memory.MEM_SIZE);
+                assertEquals((byte) 0xA5, view.get(0x2400));
+                // Запись в ROM игнорируется
+                assertEquals((byte) memory.readByte(0x0000), view.get(0x0000));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.emu.mem;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class RamSearchTest extends TestCase {
+
+    private static boolean expected(RamSearch.Filter filter, int before, int now, int value) {
+        switch (filter) {
+            case EXACT: return now == value;
+            case CHANGED: return now != before;
+            case UNCHANGED: return now == before;
+            case INCREASED: return now > before;
+            default: return now < before;
+        }
+    }
+
+    // Каждый фильтр сверяется с побайтовым сравнением на случайной RAM,
+    // включая граничные значения 0x00, 0x7F, 0x80, 0xFF
+    public void testFiltersMatchScalarComparison() {
+        Random random = new Random(44);
+        int[] edges = {0x00, 0x01, 0x7F, 0x80, 0x81, 0xFE, 0xFF};
+        for (RamSearch.Filter filter : RamSearch.Filter.values()) {
+            Memory memory = new Memory();
+            int[] before = new int[Memory.RAM_END - Memory.RAM_START];
+            for (int i = 0; i < before.length; i++) {
+                before[i] = random.nextBoolean() ? edges[random.nextInt(edges.length)] : random.nextInt(256);
+                memory.writeByte(Memory.RAM_START + i, before[i]);
+            }
+            RamSearch search = new RamSearch(memory);
+            for (int i = 0; i < before.length; i++) {
+                if (random.nextInt(3) == 0) {
+                    int value = random.nextBoolean() ? edges[random.nextInt(edges.length)] : random.nextInt(256);
+                    memory.writeByte(Memory.RAM_START + i, value);
+                }
+            }
+            int value = 0x80;
+            int count = search.apply(filter, value);
+            int expectedCount = 0;
+            for (int i = 0; i < before.length; i++) {
+                int address = Memory.RAM_START + i;
+                boolean match = expected(filter, before[i], memory.readByte(address), value);
+                assertEquals(filter + " " + Integer.toHexString(address), match, search.isCandidate(address));
+                if (match) {
+                    expectedCount++;
+                }
+            }
+            assertEquals(expectedCount, count);
+        }
+    }
+
+    public void testSearchFindsCounter() {
+        Memory memory = new Memory();
+        RamSearch search = new RamSearch(memory);
+        for (int step = 1; step <= 5; step++) {
+            memory.writeByte(0x2345, step);
+            memory.writeByte(0x2400 + step, 0x55);
+            search.apply(RamSearch.Filter.INCREASED);
+        }
+        assertEquals(1, search.apply(RamSearch.Filter.EXACT, 5));
+        assertEquals(0x2345, search.getCandidates()[0]);
+        search.apply(RamSearch.Filter.UNCHANGED);
+        assertTrue(search.isCandidate(0x2345));
+        memory.writeByte(0x2345, 4);
+        assertEquals(0, search.apply(RamSearch.Filter.INCREASED));
+    }
+
+    public void testApplyAll() {
+        List<RamSearch> searches = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Memory memory = new Memory();
+            memory.writeByte(0x2000 + i, 7);
+            searches.add(new RamSearch(memory));
+        }
+        RamSearch.applyAll(searches, RamSearch.Filter.EXACT, 7);
+        for (int i = 0; i < searches.size(); i++) {
+            assertEquals(1, searches.get(i).count());
+            assertEquals(0x2000 + i, searches.get(i).getCandidates()[0]);
+        }
+    }
+
+    public void testFrozenAddressIgnoresWrites() throws Exception {
+        Memory memory = new Memory();
+        memory.loadROMs();
+        memory.setDirtyTracking(true);
+        memory.freeze(0x20EB, 0x99);
+        memory.writeByte(0x20EB, 0x01);
+        assertEquals(0x99, memory.readByte(0x20EB));
+        memory.writeByte(0x20EC, 0x01);
+        assertEquals(0x01, memory.readByte(0x20EC));
+
+        // Восстановление снимка не размораживает адрес
+        memory.restoreRam(new byte[Memory.RAM_END - Memory.RAM_START]);
+        assertEquals(0x99, memory.readByte(0x20EB));
+        assertEquals(0x00, memory.readByte(0x20EC));
+
+        memory.unfreeze(0x20EB);
+        assertFalse(memory.isFrozen(0x20EB));
+        memory.writeByte(0x20EB, 0x02);
+        assertEquals(0x02, memory.readByte(0x20EB));
+        try {
+            memory.freeze(0x0100, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.emu.mem;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class RomSetTest extends TestCase {
+
+    public void testDefaultSetIsCachedAndLoaded() throws Exception {
+        RomSet roms = RomSet.getDefault();
+        assertSame(roms, RomSet.getDefault());
+        assertEquals(0x2000, roms.getEnd());
+
+        Memory memory = new Memory();
+        memory.loadROMs(roms);
+        try (InputStream is = RomSet.class.getResourceAsStream("/roms/invaders.e")) {
+            byte[] expected = is.readAllBytes();
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i] & 0xFF, memory.readByte(0x1800 + i));
+            }
+        }
+    }
+
+    public void testChecksumMismatchIsRejected() throws Exception {
+        Path dir = Files.createTempDirectory("romset");
+        try {
+            Files.write(dir.resolve("test.bin"), new byte[] {1, 2, 3, 4});
+            Path manifest = dir.resolve("test.romset");
+            Files.writeString(manifest, "test.bin 0000 0004 deadbeef\n");
+            RomSet.load(manifest);
+            fail("Ожидалась ошибка CRC32");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("CRC32"));
+        } finally {
+            Files.deleteIfExists(dir.resolve("test.bin"));
+            Files.deleteIfExists(dir.resolve("test.romset"));
+            Files.deleteIfExists(dir);
+        }
+    }
+}
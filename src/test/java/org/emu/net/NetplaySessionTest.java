@@ -0,0 +1,133 @@
+package org.emu.net;
+
+import junit.framework.TestCase;
+import org.emu.machine.MachineState;
+import org.emu.machine.SpaceInvadersMachine;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+public class NetplaySessionTest extends TestCase {
+    private static final int FRAMES = 400;
+
+    public void testBothSidesConvergeOnLocalhost() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        DatagramChannel a = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        DatagramChannel b = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        a.connect(b.getLocalAddress()).configureBlocking(false);
+        b.connect(a.getLocalAddress()).configureBlocking(false);
+
+        SpaceInvadersMachine host = new SpaceInvadersMachine();
+        SpaceInvadersMachine guest = new SpaceInvadersMachine();
+        host.loadRoms();
+        guest.loadRoms();
+        int controls = SpaceInvadersMachine.INPUT_FIRE | SpaceInvadersMachine.INPUT_LEFT | SpaceInvadersMachine.INPUT_RIGHT;
+        try (NetplaySession p1 = new NetplaySession(host, 1, a, 2);
+             NetplaySession p2 = new NetplaySession(guest, 2, b, 0)) {
+            Random r1 = new Random(1);
+            Random r2 = new Random(2);
+            int guard = 0;
+            while ((p1.getFrame() < FRAMES || p2.getFrame() < FRAMES) && guard++ < FRAMES * 20) {
+                if (p1.getFrame() < FRAMES) {
+                    int coin = p1.getFrame() >= 100 && p1.getFrame() < 103 ? SpaceInvadersMachine.INPUT_COIN : 0;
+                    p1.advance(coin | (r1.nextInt(8) == 0 ? r1.nextInt() & controls : 0));
+                }
+                if (p2.getFrame() < FRAMES) {
+                    p2.advance(r2.nextInt(5) == 0 ? r2.nextInt() & controls : 0);
+                }
+                Thread.sleep(0, 200_000);
+            }
+            guard = 0;
+            while ((p1.getRemoteConfirmedFrame() < FRAMES - 1 || p2.getRemoteConfirmedFrame() < FRAMES - 1)
+                    && guard++ < 1000) {
+                p1.sync();
+                p2.sync();
+                Thread.sleep(1);
+            }
+
+            assertEquals(FRAMES, p1.getFrame());
+            assertEquals(FRAMES, p2.getFrame());
+            assertTrue(p1.getRollbacks() + p2.getRollbacks() > 0);
+            MachineState s1 = new MachineState();
+            MachineState s2 = new MachineState();
+            host.saveState(s1);
+            guest.saveState(s2);
+            assertTrue(Arrays.equals(s1.getCpuState(), s2.getCpuState()));
+            assertTrue(Arrays.equals(s1.getRam(), s2.getRam()));
+            assertTrue(Arrays.equals(s1.getBoardState(), s2.getBoardState()));
+            assertEquals(1, host.getGameState().getCredits());
+        }
+    }
+
+    // Соперник присылает входы пачками по MAX_ROLLBACK кадров, каждый раз не
+    // совпадающие с предсказанием: каждая пачка - откат на 8 кадров. Пересчёт
+    // укладывается в один кадр (16 мс), а сбросы сторожевого таймера в
+    // пересчитанных кадрах не считаются повторно.
+    public void testEightFrameRollback() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        DatagramChannel local = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        DatagramChannel peer = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        local.connect(peer.getLocalAddress()).configureBlocking(false);
+        peer.connect(local.getLocalAddress()).configureBlocking(false);
+
+        // Программа без записей в порт 6: сторожевой таймер срабатывает каждые 255 кадров
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        SpaceInvadersMachine reference = new SpaceInvadersMachine();
+        machine.loadRoms();
+        reference.loadRoms();
+        machine.setOutPort(6, null);
+        reference.setOutPort(6, null);
+        int[] inputs = {SpaceInvadersMachine.INPUT_FIRE | SpaceInvadersMachine.INPUT_LEFT, SpaceInvadersMachine.INPUT_RIGHT};
+        int batch = NetplaySession.MAX_ROLLBACK;
+        int rounds = 40;
+        ByteBuffer packet = ByteBuffer.allocate(10 + batch);
+        long[] nanos = new long[rounds];
+        try (NetplaySession session = new NetplaySession(machine, 1, local, 0)) {
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < batch; i++) {
+                    assertTrue(session.advance(0));
+                }
+                int remote = inputs[round % 2];
+                packet.clear();
+                packet.put((byte) 'I').putInt(-1).putInt(round * batch).put((byte) batch);
+                for (int i = 0; i < batch; i++) {
+                    packet.put((byte) remote);
+                    reference.setPlayerInputs(0, remote);
+                    reference.executeFrame();
+                }
+                packet.flip();
+                peer.write(packet);
+
+                long rolledBack = session.getRollbackFrames();
+                for (int guard = 0; session.getRemoteConfirmedFrame() < (round + 1) * batch - 1 && guard < 1000; guard++) {
+                    long start = System.nanoTime();
+                    session.sync();
+                    long elapsed = System.nanoTime() - start;
+                    if (session.getRollbackFrames() > rolledBack) {
+                        assertEquals(rolledBack + batch, session.getRollbackFrames());
+                        nanos[round] = elapsed;
+                    }
+                    Thread.sleep(0, 100_000);
+                }
+            }
+            assertEquals(rounds, session.getRollbacks());
+        } finally {
+            peer.close();
+        }
+        // Медиана по 40 откатам: отдельные попадают на сборку мусора или вытеснение потока
+        Arrays.sort(nanos);
+        assertTrue("Откат на 8 кадров: " + nanos[rounds / 2] / 1000 + " мкс", nanos[rounds / 2] < 16_000_000L);
+        assertEquals(rounds * batch / SpaceInvadersMachine.WATCHDOG_FRAMES, reference.getWatchdogResets());
+        assertEquals(reference.getWatchdogResets(), machine.getWatchdogResets());
+        MachineState expected = new MachineState();
+        MachineState actual = new MachineState();
+        reference.saveState(expected);
+        machine.saveState(actual);
+        assertTrue(Arrays.equals(expected.getCpuState(), actual.getCpuState()));
+        assertTrue(Arrays.equals(expected.getRam(), actual.getRam()));
+    }
+}
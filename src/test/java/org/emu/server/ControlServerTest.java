@@ -0,0 +1,148 @@
+package org.emu.server;
+
+import junit.framework.TestCase;
+import org.emu.machine.SpaceInvadersMachine;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ControlServerTest extends TestCase {
+    private ControlServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new ControlServer(new InetSocketAddress("127.0.0.1", 0), false);
+        server.createMachine();
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+    }
+
+    public void testStatusAndFrame() throws Exception {
+        MachineHost host = server.getMachine(0);
+        awaitFrames(host, 120);
+        String status = new String(request("GET", "/machines/0", null), StandardCharsets.UTF_8);
+        assertTrue(status, status.startsWith("{\"id\":0,\"paused\":false"));
+        assertTrue(status, status.contains("\"cyclesPerSecond\":"));
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(request("GET", "/machines/0/frame.png", null)));
+        assertEquals(FramePng.WIDTH, image.getWidth());
+        assertEquals(FramePng.HEIGHT, image.getHeight());
+        assertEquals(1, image.getColorModel().getPixelSize());
+
+        assertEquals(404, code("GET", "/machines/7"));
+    }
+
+    public void testPauseSnapshotAndRestore() throws Exception {
+        request("POST", "/machines/0/input?p1=0x01&p2=0", null);
+        request("POST", "/machines/0/pause", null);
+        MachineHost host = server.getMachine(0);
+        long frames = host.getFrames();
+        Thread.sleep(100);
+        assertEquals(frames, host.getFrames());
+
+        byte[] snapshot = request("GET", "/machines/0/snapshot", null);
+        request("POST", "/machines/0/resume", null);
+        awaitFrames(host, frames + 60);
+        request("POST", "/machines/0/pause", null);
+        assertFalse(Arrays.equals(snapshot, request("GET", "/machines/0/snapshot", null)));
+        assertEquals(204, code("PUT", "/machines/0/snapshot", snapshot));
+        assertTrue(Arrays.equals(snapshot, request("GET", "/machines/0/snapshot", null)));
+    }
+
+    // Контекст /machines совпадает по префиксу; чужие пути - 404, а не список автоматов
+    public void testUnknownPaths() throws Exception {
+        assertEquals(404, code("GET", "/machines-foo"));
+        assertEquals(404, code("POST", "/machinesXYZ"));
+        assertEquals(404, code("GET", "/machines/0/snapshot/extra"));
+        assertNull(server.getMachine(1));
+        assertEquals(200, code("GET", "/machines/"));
+    }
+
+    // Значения в строке запроса декодируются: %23 - это '#', префикс Integer.decode
+    public void testInputQueryIsDecoded() throws Exception {
+        MachineHost host = server.getMachine(0);
+        assertEquals(204, code("POST", "/machines/0/input?p1=%2310&p2=0"));
+        awaitFrames(host, host.getFrames() + 2);
+        int port1 = host.submit(m -> m.portIn(1)).get(2, TimeUnit.SECONDS);
+        assertEquals(SpaceInvadersMachine.INPUT_FIRE, port1 & SpaceInvadersMachine.INPUT_FIRE);
+        assertEquals(400, code("POST", "/machines/0/input?p1=%G1"));
+    }
+
+    public void testListDoesNotWaitForStalledMachine() throws Exception {
+        server.createMachine();
+        CountDownLatch release = new CountDownLatch(1);
+        // Команда занимает поток эмуляции автомата 0 дольше срока ответа
+        server.getMachine(0).submit(m -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        try {
+            long start = System.nanoTime();
+            String list = new String(request("GET", "/machines", null), StandardCharsets.UTF_8);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(list, list.contains("{\"id\":0,") && list.contains("{\"id\":1,"));
+            assertTrue(list, list.contains("\"responding\":false"));
+            // Один общий срок на все автоматы, а не по сроку на каждый
+            assertTrue("ответ за " + millis + " мс", millis < 3000);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    // Ждёт кадров не дольше 10 с, чтобы остановившийся автомат не вешал тест
+    private static void awaitFrames(MachineHost host, long frames) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (host.getFrames() < frames) {
+            assertTrue("кадров: " + host.getFrames() + " из " + frames, System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private byte[] request(String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = open(method, path, body);
+        assertTrue(method + " " + path + ": " + connection.getResponseCode(), connection.getResponseCode() < 300);
+        try (InputStream in = connection.getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private int code(String method, String path) throws IOException {
+        return code(method, path, null);
+    }
+
+    private int code(String method, String path, byte[] body) throws IOException {
+        return open(method, path, body).getResponseCode();
+    }
+
+    private HttpURLConnection open(String method, String path, byte[] body) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        return connection;
+    }
+}
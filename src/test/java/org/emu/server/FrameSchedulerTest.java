@@ -0,0 +1,101 @@
+package org.emu.server;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FrameSchedulerTest extends TestCase {
+    private static final long TICK = 50_000L;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    // Периоды в 80 и 700 шагов проходят через перенос со старших уровней колеса
+    public void testPeriodicTasksRunAtTheirRate() throws Exception {
+        try (FrameScheduler scheduler = new FrameScheduler(TICK, clock::get, Runnable::run)) {
+            List<AtomicInteger> counters = new ArrayList<>();
+            List<FrameScheduler.Handle> handles = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                AtomicInteger counter = new AtomicInteger();
+                counters.add(counter);
+                handles.add(scheduler.schedule(counter::incrementAndGet, i % 2 == 0 ? 4_000_000L : 35_000_000L));
+            }
+            Random random = new Random(49);
+            // За первый длинный период каждая задача запущена хотя бы раз
+            run(scheduler, random, 700);
+            assertEquals(700, scheduler.getTicks());
+            int[] before = new int[counters.size()];
+            for (int i = 0; i < counters.size(); i++) {
+                before[i] = counters.get(i).get();
+                assertTrue(i + ": " + before[i], before[i] > 0);
+            }
+
+            // 280 мс - целое число обоих периодов: ровно 70 и 8 запусков
+            run(scheduler, random, 700 + 5600);
+            assertEquals(6300, scheduler.getTicks());
+            for (int i = 0; i < counters.size(); i++) {
+                int runs = counters.get(i).get();
+                assertEquals(String.valueOf(i), i % 2 == 0 ? 70 : 8, runs - before[i]);
+                assertEquals(runs, handles.get(i).getRuns());
+                assertEquals(0, handles.get(i).getDeadlineMisses());
+            }
+
+            for (FrameScheduler.Handle handle : handles) {
+                handle.cancel();
+            }
+            int after = counters.get(0).get();
+            run(scheduler, random, 8000);
+            assertEquals(after, counters.get(0).get());
+        }
+    }
+
+    // Медленная задача копит промахи; догон ограничен, лишние запуски отброшены
+    public void testMissesAndCatchUpLimit() throws Exception {
+        ArrayDeque<Runnable> queued = new ArrayDeque<>();
+        try (FrameScheduler scheduler = new FrameScheduler(TICK, clock::get, queued::add)) {
+            AtomicInteger runs = new AtomicInteger();
+            FrameScheduler.Handle handle = scheduler.schedule(runs::incrementAndGet, 5_000_000L);
+            handle.setMaxCatchUp(1);
+
+            // Первый срок - на первом шаге; запуск ждёт свободного потока
+            clock.addAndGet(TICK);
+            scheduler.poll();
+            assertEquals(1, queued.size());
+
+            // Ещё четыре срока, пока запуск не начат: промахи, но не новые запуски
+            clock.addAndGet(20_000_000L);
+            scheduler.poll();
+            assertEquals(1, queued.size());
+            assertEquals(4, handle.getDeadlineMisses());
+
+            // Из пяти накопившихся выполняются текущий и один отставший
+            queued.poll().run();
+            assertEquals(2, runs.get());
+            assertEquals(2, handle.getRuns());
+            assertEquals(3, handle.getDropped());
+            // Отставший кадр опаздывает на период и шаг колеса
+            assertEquals(5_000_000L + TICK, handle.getMaxLatenessNanos());
+
+            // Дальше в срок: новых промахов нет
+            clock.addAndGet(5_000_000L);
+            scheduler.poll();
+            queued.poll().run();
+            assertEquals(3, handle.getRuns());
+            assertEquals(4, handle.getDeadlineMisses());
+            assertTrue(queued.isEmpty());
+        }
+    }
+
+    // Двигает часы неравными шагами до шага колеса target
+    private void run(FrameScheduler scheduler, Random random, long target) {
+        long end = clock.get() + (target - scheduler.getTicks()) * TICK;
+        while (clock.get() < end) {
+            clock.set(Math.min(end, clock.get() + (1 + random.nextInt(40)) * TICK));
+            scheduler.poll();
+        }
+    }
+}
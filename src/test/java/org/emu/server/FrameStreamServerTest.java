@@ -0,0 +1,139 @@
+package org.emu.server;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FrameStreamServerTest extends TestCase {
+    private static final int VRAM = FrameStreamServer.VRAM_BYTES;
+
+    public void testDeltaRoundTrip() {
+        Random random = new Random(50);
+        byte[] previous = new byte[VRAM];
+        random.nextBytes(previous);
+        byte[] out = new byte[VRAM + 16];
+
+        byte[] current = previous.clone();
+        assertEquals(0, FrameStreamServer.encodeDelta(previous, current, out, 3));
+
+        // Несколько изменённых участков, в том числе на краях и с одиночным совпавшим байтом
+        current[0] ^= 1;
+        current[100] ^= 0x40;
+        current[102] ^= 0x40;
+        for (int i = 3000; i < 3200; i++) {
+            current[i] = (byte) random.nextInt();
+        }
+        current[VRAM - 1] ^= (byte) 0x80;
+        int end = FrameStreamServer.encodeDelta(previous, current, out, 3);
+        assertTrue(end > 3 && end < 300);
+        byte[] decoded = previous.clone();
+        FrameStreamServer.applyDelta(out, 3, decoded);
+        assertTrue(Arrays.equals(current, decoded));
+
+        // Шум по всему кадру: разница не меньше опорного кадра
+        random.nextBytes(current);
+        assertEquals(-1, FrameStreamServer.encodeDelta(previous, current, out, 3));
+    }
+
+    public void testAcceptKey() {
+        // Пример из RFC 6455
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", FrameStreamServer.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    public void testStream() throws Exception {
+        try (ControlServer server = new ControlServer(new InetSocketAddress("127.0.0.1", 0), false);
+             FrameStreamServer stream = new FrameStreamServer(new InetSocketAddress("127.0.0.1", 0), server::getMachine)) {
+            MachineHost host = server.createMachine();
+            server.start();
+            stream.start();
+
+            try (Socket socket = new Socket("127.0.0.1", stream.getPort())) {
+                socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                String page = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(page, page.startsWith("HTTP/1.1 200"));
+                assertTrue(page.contains("<canvas"));
+            }
+
+            try (Socket socket = new Socket("127.0.0.1", stream.getPort())) {
+                socket.setSoTimeout(10_000);
+                OutputStream out = socket.getOutputStream();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out.write(("GET /stream/0 HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                assertEquals("HTTP/1.1 101 Switching Protocols", readLine(in));
+                boolean accepted = false;
+                for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                    accepted |= line.equals("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=");
+                }
+                assertTrue(accepted);
+
+                byte[] vram = new byte[VRAM];
+                byte[] message = readMessage(in);
+                assertEquals(FrameStreamServer.KEYFRAME, message[0]);
+                System.arraycopy(message, FrameStreamServer.MESSAGE_HEADER, vram, 0, VRAM);
+                int deltas = 0;
+                for (int i = 0; i < 10; i++) {
+                    message = readMessage(in);
+                    deltas += apply(message, vram) ? 1 : 0;
+                }
+                assertTrue(deltas > 0);
+
+                // После паузы собранный кадр сходится с последним кадром автомата;
+                // неизменившиеся кадры сервер не шлёт, поэтому номер не проверяется
+                host.setPaused(true);
+                Thread.sleep(100);
+                MachineHost.Frame frame = host.getFrame();
+                while (!Arrays.equals(frame.vram, vram)) {
+                    apply(readMessage(in), vram);
+                }
+                assertEquals(1, stream.getConnections());
+            }
+        }
+    }
+
+    // Возвращает true для разницы, false для опорного кадра
+    private static boolean apply(byte[] message, byte[] vram) {
+        if (message[0] == FrameStreamServer.KEYFRAME) {
+            System.arraycopy(message, FrameStreamServer.MESSAGE_HEADER, vram, 0, VRAM);
+            return false;
+        }
+        assertEquals(FrameStreamServer.DELTA, message[0]);
+        FrameStreamServer.applyDelta(message, FrameStreamServer.MESSAGE_HEADER, vram);
+        return true;
+    }
+
+    // Двоичный кадр WebSocket от сервера (без маски)
+    private static byte[] readMessage(DataInputStream in) throws IOException {
+        assertEquals(0x82, in.readUnsignedByte());
+        int length = in.readUnsignedByte();
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        }
+        byte[] message = new byte[length];
+        in.readFully(message);
+        return message;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new IOException("Соединение закрыто");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
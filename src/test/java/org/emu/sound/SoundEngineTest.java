@@ -0,0 +1,86 @@
+package org.emu.sound;
+
+import junit.framework.TestCase;
+import org.emu.machine.MachineState;
+import org.emu.machine.SpaceInvadersMachine;
+
+public class SoundEngineTest extends TestCase {
+    private final SoundEngine engine = new SoundEngine(new NullSoundSink(), 256);
+
+    public void testPort3RisingEdges() {
+        engine.writePort3(0x02);
+        assertEquals(1 << SoundEngine.SHOT, engine.pollTriggers());
+
+        // Удерживаемый бит звук повторно не запускает
+        engine.writePort3(0x02);
+        engine.writePort3(0x22);
+        assertEquals(0, engine.pollTriggers());
+
+        engine.writePort3(0x2E);
+        assertEquals(1 << SoundEngine.PLAYER_DIE | 1 << SoundEngine.INVADER_DIE, engine.pollTriggers());
+
+        // Сброс и повторная установка - новый фронт
+        engine.writePort3(0x00);
+        engine.writePort3(0x12);
+        assertEquals(1 << SoundEngine.SHOT | 1 << SoundEngine.EXTRA_LIFE, engine.pollTriggers());
+
+        // НЛО звучит, пока бит установлен, и фронтом не запускается
+        engine.writePort3(0x13);
+        assertEquals(0, engine.pollTriggers());
+    }
+
+    public void testPort5RisingEdges() {
+        engine.writePort5(0x01);
+        assertEquals(1 << SoundEngine.FLEET_1, engine.pollTriggers());
+        engine.writePort5(0x01);
+        assertEquals(0, engine.pollTriggers());
+
+        engine.writePort5(0x12);
+        assertEquals(1 << SoundEngine.FLEET_2 | 1 << SoundEngine.UFO_HIT, engine.pollTriggers());
+
+        // Фронты до опроса накапливаются
+        engine.writePort5(0x00);
+        engine.writePort5(0x04);
+        engine.writePort5(0x08);
+        assertEquals(1 << SoundEngine.FLEET_3 | 1 << SoundEngine.FLEET_4, engine.pollTriggers());
+
+        // Биты 5-7 звуков не запускают
+        engine.writePort5(0xE0);
+        assertEquals(0, engine.pollTriggers());
+    }
+
+    // Восстановленный снимок и сброс задают, от каких значений портов считаются фронты
+    public void testResyncsOnRestoreAndReset() {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        machine.setSoundEngine(engine);
+        MachineState silent = new MachineState();
+        machine.saveState(silent);
+
+        machine.portOut(3, 0x02);
+        machine.portOut(5, 0x01);
+        MachineState shooting = new MachineState();
+        machine.saveState(shooting);
+        assertEquals(1 << SoundEngine.SHOT | 1 << SoundEngine.FLEET_1, engine.pollTriggers());
+
+        // Выстрел после отката к снимку без выстрела - новый фронт
+        machine.loadState(silent);
+        machine.portOut(3, 0x02);
+        assertEquals(1 << SoundEngine.SHOT, engine.pollTriggers());
+
+        // В снимке бит уже установлен: повторная запись звук не запускает
+        machine.loadState(shooting);
+        machine.portOut(3, 0x02);
+        machine.portOut(5, 0x01);
+        assertEquals(0, engine.pollTriggers());
+
+        machine.reset();
+        machine.portOut(5, 0x01);
+        assertEquals(1 << SoundEngine.FLEET_1, engine.pollTriggers());
+
+        // Звук, подключённый позже, принимает текущие значения портов
+        SoundEngine attached = new SoundEngine(new NullSoundSink(), 256);
+        machine.setSoundEngine(attached);
+        machine.portOut(5, 0x01);
+        assertEquals(0, attached.pollTriggers());
+    }
+}
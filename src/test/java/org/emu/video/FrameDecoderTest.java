@@ -0,0 +1,54 @@
+package org.emu.video;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FrameDecoderTest extends TestCase {
+    private static byte[] randomVram(long seed) {
+        byte[] vram = new byte[FrameDecoder.VRAM_BYTES];
+        new Random(seed).nextBytes(vram);
+        return vram;
+    }
+
+    // Векторный разбор совпадает со скалярным на случайной видеопамяти с плёнкой
+    public void testVectorDecodeMatchesScalar() {
+        if (!FrameDecoder.VECTOR_DECODE) {
+            return;
+        }
+        Random random = new Random(48);
+        byte[] vram = randomVram(48);
+        int[] overlayMap = new int[FrameDecoder.WIDTH * FrameDecoder.HEIGHT];
+        for (int i = 0; i < overlayMap.length; i++) {
+            overlayMap[i] = random.nextInt() | 0xFF000000;
+        }
+        int[] expected = new int[overlayMap.length];
+        int[] actual = new int[overlayMap.length];
+        FrameDecoder.decodeScalar(vram, overlayMap, expected);
+        new FrameDecoder().decodeArgb(vram, overlayMap, actual);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    // Упакованный кадр - тот же кадр, что и ARGB, по биту на пиксель
+    public void testPackedMatchesArgb() {
+        byte[] vram = randomVram(49);
+        int[] argb = new int[FrameDecoder.WIDTH * FrameDecoder.HEIGHT];
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.decodeArgb(vram, argb);
+        byte[] packed = new byte[FrameDecoder.PACKED_BYTES + 3];
+        FrameDecoder.decodePacked(vram, packed, 3);
+        for (int y = 0; y < FrameDecoder.HEIGHT; y++) {
+            for (int x = 0; x < FrameDecoder.WIDTH; x++) {
+                boolean lit = (packed[3 + y * FrameDecoder.ROW_BYTES + x / 8] & (0x80 >> (x & 7))) != 0;
+                assertEquals(x + "," + y, argb[y * FrameDecoder.WIDTH + x] != 0xFF000000, lit);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 * FrameDecoder.PACKED_BYTES);
+        decoder.decodePacked(vram, buffer, FrameDecoder.PACKED_BYTES);
+        for (int i = 0; i < FrameDecoder.PACKED_BYTES; i++) {
+            assertEquals(packed[3 + i], buffer.get(FrameDecoder.PACKED_BYTES + i));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.emu.video;
+
+import junit.framework.TestCase;
+import org.emu.cpu.CPU8080;
+import org.emu.machine.SpaceInvadersMachine;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.CRC32;
+
+// Эталонные кадры: ROM прогоняется без окна по сценарию ввода, и видеопамять
+// в заданных кадрах сверяется с CRC из golden/frames.txt. Каждый сценарий
+// выполняется интерпретатором, с суперинструкциями и с переведённым ROM.
+// При расхождении в target/golden пишутся полученный кадр и, если эталонная
+// картинка есть, разница (красное - только в эталоне, зелёное - только в кадре).
+// Обновить эталон: mvn test -Dtest=GoldenFrameTest -Demu.golden.update=true,
+// с -Demu.golden.images=true рядом сохраняются и PNG для коммита.
+public class GoldenFrameTest extends TestCase {
+    private static final String GOLDEN = "golden/frames.txt";
+    private static final Path SOURCE_DIR = Path.of(System.getProperty("basedir", "."), "src/test/resources/golden");
+    private static final Path OUTPUT_DIR = Path.of(System.getProperty("basedir", "."), "target/golden");
+    private static final int WIDTH = FrameDecoder.WIDTH;
+    private static final int HEIGHT = FrameDecoder.HEIGHT;
+
+    private static final class Scenario {
+        final String name;
+        final int[] frames;
+        final IntUnaryOperator p1;
+        final IntUnaryOperator p2;
+
+        Scenario(String name, int[] frames, IntUnaryOperator p1, IntUnaryOperator p2) {
+            this.name = name;
+            this.frames = frames;
+            this.p1 = p1;
+            this.p2 = p2;
+        }
+    }
+
+    private static final List<Scenario> SCENARIOS = List.of(
+            new Scenario("attract", new int[] {120, 600, 1500, 3000}, frame -> 0, frame -> 0),
+            new Scenario("one-player", new int[] {200, 400, 800, 1600, 2400},
+                    GoldenFrameTest::onePlayer, frame -> 0),
+            new Scenario("two-player", new int[] {300, 900, 1800},
+                    GoldenFrameTest::twoPlayerP1, GoldenFrameTest::twoPlayerP2));
+
+    private enum Mode {
+        INTERPRETED, FUSED, COMPILED
+    }
+
+    private static int onePlayer(int frame) {
+        if (frame >= 100 && frame < 103) return SpaceInvadersMachine.INPUT_COIN;
+        if (frame >= 130 && frame < 133) return SpaceInvadersMachine.INPUT_START;
+        int input = (frame / 40) % 2 == 0 ? SpaceInvadersMachine.INPUT_LEFT : SpaceInvadersMachine.INPUT_RIGHT;
+        return frame % 16 < 2 ? input | SpaceInvadersMachine.INPUT_FIRE : input;
+    }
+
+    private static int twoPlayerP1(int frame) {
+        if (frame >= 100 && frame < 103 || frame >= 110 && frame < 113) return SpaceInvadersMachine.INPUT_COIN;
+        return frame >= 200 && frame % 24 < 2 ? SpaceInvadersMachine.INPUT_FIRE : 0;
+    }
+
+    private static int twoPlayerP2(int frame) {
+        if (frame >= 140 && frame < 143) return SpaceInvadersMachine.INPUT_START;
+        return (frame / 50) % 2 == 0 ? SpaceInvadersMachine.INPUT_RIGHT : SpaceInvadersMachine.INPUT_LEFT;
+    }
+
+    // Видеопамять каждого проверяемого кадра сценария
+    private static Map<Integer, byte[]> run(Scenario scenario, Mode mode) {
+        SpaceInvadersMachine machine = new SpaceInvadersMachine();
+        try {
+            machine.loadRoms();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CPU8080 cpu = machine.getCPU();
+        if (mode != Mode.COMPILED) {
+            cpu.setCompiledRom(null);
+        }
+        if (mode == Mode.INTERPRETED) {
+            cpu.setFusionTable(null);
+        }
+        Map<Integer, byte[]> result = new TreeMap<>();
+        int last = scenario.frames[scenario.frames.length - 1];
+        int next = 0;
+        for (int frame = 1; frame <= last; frame++) {
+            machine.setPlayerInputs(scenario.p1.applyAsInt(frame), scenario.p2.applyAsInt(frame));
+            machine.executeFrame();
+            if (frame == scenario.frames[next]) {
+                byte[] vram = new byte[ScreenRenderer.VRAM_BYTES];
+                machine.getMemory().copyTo(0x2400, vram, 0, vram.length);
+                result.put(frame, vram);
+                next++;
+            }
+        }
+        return result;
+    }
+
+    private static String crc(byte[] vram) {
+        CRC32 crc = new CRC32();
+        crc.update(vram);
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static Map<String, String> loadGolden() throws IOException {
+        Map<String, String> golden = new TreeMap<>();
+        try (InputStream in = GoldenFrameTest.class.getClassLoader().getResourceAsStream(GOLDEN)) {
+            if (in == null) {
+                return golden;
+            }
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                golden.put(parts[0] + "-" + parts[1], parts[2]);
+            }
+        }
+        return golden;
+    }
+
+    public void testFramesMatchGolden() throws Exception {
+        boolean update = Boolean.getBoolean("emu.golden.update");
+        Map<String, String> golden = loadGolden();
+        if (!update) {
+            assertFalse("Нет эталона " + GOLDEN, golden.isEmpty());
+        }
+        // Сценарии во всех режимах считаются параллельно
+        Map<String, Map<Integer, byte[]>> runs = new ConcurrentHashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (Scenario scenario : SCENARIOS) {
+            for (Mode mode : Mode.values()) {
+                keys.add(scenario.name + "/" + mode);
+            }
+        }
+        keys.parallelStream().forEach(key -> {
+            String[] parts = key.split("/");
+            Scenario scenario = SCENARIOS.stream().filter(s -> s.name.equals(parts[0])).findFirst().get();
+            runs.put(key, run(scenario, Mode.valueOf(parts[1])));
+        });
+
+        if (update) {
+            writeGolden(runs);
+            return;
+        }
+        List<String> failures = new ArrayList<>();
+        for (Scenario scenario : SCENARIOS) {
+            for (Mode mode : Mode.values()) {
+                for (Map.Entry<Integer, byte[]> entry : runs.get(scenario.name + "/" + mode).entrySet()) {
+                    String id = scenario.name + "-" + entry.getKey();
+                    String actual = crc(entry.getValue());
+                    String expected = golden.get(id);
+                    if (!actual.equals(expected)) {
+                        failures.add(id + " " + mode + ": " + actual + " вместо " + expected
+                                + " (" + writeDiff(id, mode, entry.getValue()) + ")");
+                    }
+                }
+            }
+        }
+        assertTrue("Кадры отличаются от эталона:\n" + String.join("\n", failures), failures.isEmpty());
+    }
+
+    private static void writeGolden(Map<String, Map<Integer, byte[]>> runs) throws IOException {
+        boolean images = Boolean.getBoolean("emu.golden.images");
+        Files.createDirectories(SOURCE_DIR);
+        StringBuilder out = new StringBuilder("# сценарий кадр CRC32 видеопамяти (GoldenFrameTest)\n");
+        for (Scenario scenario : SCENARIOS) {
+            Map<Integer, byte[]> frames = runs.get(scenario.name + "/" + Mode.INTERPRETED);
+            for (Mode mode : Mode.values()) {
+                for (Map.Entry<Integer, byte[]> entry : runs.get(scenario.name + "/" + mode).entrySet()) {
+                    assertEquals(scenario.name + " " + mode + " " + entry.getKey(),
+                            crc(frames.get(entry.getKey())), crc(entry.getValue()));
+                }
+            }
+            for (Map.Entry<Integer, byte[]> entry : frames.entrySet()) {
+                out.append(scenario.name).append(' ').append(entry.getKey()).append(' ')
+                        .append(crc(entry.getValue())).append('\n');
+                if (images) {
+                    ImageIO.write(toImage(entry.getValue()), "png",
+                            SOURCE_DIR.resolve(scenario.name + "-" + entry.getKey() + ".png").toFile());
+                }
+            }
+        }
+        Files.writeString(SOURCE_DIR.resolve("frames.txt"), out.toString());
+    }
+
+    // Сохраняет полученный кадр и разницу с эталонной картинкой; возвращает описание для отчёта
+    private static String writeDiff(String id, Mode mode, byte[] vram) {
+        try {
+            Files.createDirectories(OUTPUT_DIR);
+            BufferedImage actual = toImage(vram);
+            Path actualPath = OUTPUT_DIR.resolve(id + "-" + mode + "-actual.png");
+            ImageIO.write(actual, "png", actualPath.toFile());
+            BufferedImage expected;
+            try (InputStream in = GoldenFrameTest.class.getClassLoader().getResourceAsStream("golden/" + id + ".png")) {
+                if (in == null) {
+                    return actualPath + ", эталонной картинки нет";
+                }
+                expected = ImageIO.read(in);
+            }
+            BufferedImage diff = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            int changed = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    boolean was = (expected.getRGB(x, y) & 0xFFFFFF) != 0;
+                    boolean is = (actual.getRGB(x, y) & 0xFFFFFF) != 0;
+                    int color = was == is ? (is ? 0x606060 : 0) : (was ? 0xFF0000 : 0x00FF00);
+                    if (was != is) {
+                        changed++;
+                    }
+                    diff.setRGB(x, y, color);
+                }
+            }
+            Path diffPath = OUTPUT_DIR.resolve(id + "-" + mode + "-diff.png");
+            ImageIO.write(diff, "png", diffPath.toFile());
+            return diffPath + ", пикселей: " + changed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BufferedImage toImage(byte[] vram) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY);
+        FrameDecoder.decodePacked(vram, ((DataBufferByte) image.getRaster().getDataBuffer()).getData(), 0);
+        return image;
+    }
+}
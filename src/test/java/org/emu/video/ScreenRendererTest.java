@@ -0,0 +1,51 @@
+package org.emu.video;
+
+import junit.framework.TestCase;
+
+
+public class ScreenRendererTest extends TestCase {
+
+    // Пиксель экрана (x, y) в координатах исходного кадра 224x256
+    private static byte[] vramWithPixel(int x, int y) {
+        byte[] vram = new byte[ScreenRenderer.VRAM_BYTES];
+        int fromBottom = ScreenRenderer.HEIGHT - 1 - y;
+        vram[x * 32 + fromBottom / 8] = (byte) (1 << (fromBottom % 8));
+        return vram;
+    }
+
+    public void testIntegerScaleReplicatesPixels() {
+        ScreenRenderer renderer = new ScreenRenderer(2);
+        assertEquals(448, renderer.getWidth());
+        assertEquals(512, renderer.getHeight());
+        int[] out = renderer.render(vramWithPixel(10, 100));
+        int w = renderer.getWidth();
+        assertEquals(0xFFFFFFFF, out[200 * w + 20]);
+        assertEquals(0xFFFFFFFF, out[201 * w + 21]);
+        assertEquals(0xFF000000, out[202 * w + 20]);
+        assertEquals(0xFF000000, out[200 * w + 22]);
+    }
+
+    public void testOverlayScanlinesAndFractionalScale() {
+        ScreenRenderer renderer = new ScreenRenderer(2.5);
+        assertEquals(560, renderer.getWidth());
+        assertEquals(640, renderer.getHeight());
+
+        renderer = new ScreenRenderer(4);
+        renderer.setOverlay(true);
+        renderer.setScanlines(true);
+        int[] out = renderer.render(vramWithPixel(50, 40));
+        int w = renderer.getWidth();
+        assertEquals(0xFFFF3030, out[160 * w + 200]);
+        assertEquals(0xFF7F1818, out[163 * w + 200]);
+    }
+
+    public void testPersistenceFadesPixels() {
+        ScreenRenderer renderer = new ScreenRenderer(1);
+        renderer.setPersistence(0.5);
+        renderer.render(vramWithPixel(5, 5));
+        int[] out = renderer.render(new byte[ScreenRenderer.VRAM_BYTES]);
+        assertEquals(0xFF7F7F7F, out[5 * renderer.getWidth() + 5]);
+        out = renderer.render(new byte[ScreenRenderer.VRAM_BYTES]);
+        assertEquals(0xFF3F3F3F, out[5 * renderer.getWidth() + 5]);
+    }
+}